@@ -0,0 +1,56 @@
+package org.apache.kerberos.benchmark;
+
+import org.apache.kerberos.kerb.KrbException;
+import org.apache.kerberos.kerb.crypto.EncTypeHandler;
+import org.apache.kerberos.kerb.crypto.EncryptionHandler;
+import org.apache.kerberos.kerb.spec.common.EncryptionKey;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+
+/**
+ * Encrypt and decrypt throughput of the AES and Camellia enctypes, with a
+ * message about the size of a ticket.
+ */
+public class CryptoPerfTest {
+
+    private static final EncryptionType[] ENC_TYPES = new EncryptionType[] {
+            EncryptionType.AES128_CTS_HMAC_SHA1_96,
+            EncryptionType.AES256_CTS_HMAC_SHA1_96,
+            EncryptionType.CAMELLIA128_CTS_CMAC,
+            EncryptionType.CAMELLIA256_CTS_CMAC
+    };
+
+    public static void main(String[] args) throws KrbException {
+        int times = 100000;
+        byte[] data = new byte[1024];
+
+        for (EncryptionType eType : ENC_TYPES) {
+            // warm up, then measure
+            perfEncType(eType, data, times / 10, false);
+            perfEncType(eType, data, times, true);
+        }
+    }
+
+    private static void perfEncType(EncryptionType eType, byte[] data,
+                                    int times, boolean report) throws KrbException {
+        EncryptionKey key = EncryptionHandler.random2Key(eType);
+        EncTypeHandler handler = EncryptionHandler.getEncHandler(eType);
+        int usage = 2;
+
+        byte[] cipher = null;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < times; ++i) {
+            cipher = handler.encrypt(data, key.getKeyData(), usage);
+        }
+        long encrypted = System.currentTimeMillis();
+
+        for (int i = 0; i < times; ++i) {
+            handler.decrypt(cipher, key.getKeyData(), usage);
+        }
+        long end = System.currentTimeMillis();
+
+        if (report) {
+            System.out.println(eType.getName() + " encrypt takes:" + (encrypted - start)
+                    + ", decrypt takes:" + (end - encrypted));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.apache.kerberos.benchmark;
+
+import org.apache.kerberos.kerb.identity.KrbIdentity;
+import org.apache.kerberos.kerb.identity.backend.LsmIdentityBackend;
+import org.apache.kerberos.kerb.spec.common.EncryptionKey;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Loading a million principals into the log-structured identity backend,
+ * reopening it, and looking principals up at random.
+ */
+public class IdentityPerfTest {
+
+    private static final int PRINCIPALS = 1000000;
+    private static final int BATCH = 10000;
+
+    public static void main(String[] args) throws IOException {
+        File dir = File.createTempFile("identities", "");
+        dir.delete();
+
+        try {
+            LsmIdentityBackend backend = new LsmIdentityBackend(dir);
+            backend.load();
+
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < PRINCIPALS; i += BATCH) {
+                List<KrbIdentity> identities = new ArrayList<KrbIdentity>(BATCH);
+                for (int j = i; j < i + BATCH; j++) {
+                    identities.add(newIdentity("user" + j + "@EXAMPLE.COM"));
+                }
+                backend.addIdentities(identities);
+            }
+            backend.close();
+            System.out.println("Adding takes:" + (System.currentTimeMillis() - start));
+
+            start = System.currentTimeMillis();
+            backend = new LsmIdentityBackend(dir);
+            backend.load();
+            System.out.println("Loading takes:" + (System.currentTimeMillis() - start));
+
+            int times = 1000000;
+            Random random = new Random();
+            // the first round warms up
+            for (int round = 0; round < 2; ++round) {
+                long nanos = System.nanoTime();
+                for (int i = 0; i < times; ++i) {
+                    String name = "user" + random.nextInt(PRINCIPALS) + "@EXAMPLE.COM";
+                    if (backend.getIdentity(name) == null) {
+                        throw new IllegalStateException("Missing " + name);
+                    }
+                }
+                nanos = System.nanoTime() - nanos;
+                System.out.println("Lookup takes:" + nanos / 1000000
+                        + ", per lookup (us):" + (double) nanos / times / 1000);
+            }
+            backend.close();
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    private static KrbIdentity newIdentity(String name) {
+        KrbIdentity identity = new KrbIdentity(name);
+        identity.addKey(new EncryptionKey(EncryptionType.AES128_CTS_HMAC_SHA1_96, new byte[16], 1));
+        identity.addKey(new EncryptionKey(EncryptionType.AES256_CTS_HMAC_SHA1_96, new byte[32], 1));
+        return identity;
+    }
+}
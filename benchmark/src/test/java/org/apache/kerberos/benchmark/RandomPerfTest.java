@@ -0,0 +1,77 @@
+package org.apache.kerberos.benchmark;
+
+import org.apache.kerberos.kerb.crypto.Confounder;
+
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Confounder generation from many threads at once, against a single shared
+ * SecureRandom as Confounder used to do.
+ */
+public class RandomPerfTest {
+
+    private static final int THREADS = 32;
+
+    public static void main(String[] args) throws InterruptedException {
+        int times = 100000;
+
+        // the first round warms up
+        for (int round = 0; round < 2; ++round) {
+            perfSharedSecureRandom(times);
+            perfConfounder(times);
+        }
+    }
+
+    private static void perfSharedSecureRandom(final int times) throws InterruptedException {
+        final SecureRandom srand = new SecureRandom();
+        long elapsed = runThreads(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < times; ++i) {
+                    byte[] data = new byte[16];
+                    srand.nextBytes(data);
+                }
+            }
+        });
+        System.out.println("Shared SecureRandom takes:" + elapsed);
+    }
+
+    private static void perfConfounder(final int times) throws InterruptedException {
+        long elapsed = runThreads(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < times; ++i) {
+                    Confounder.makeBytes(16);
+                }
+            }
+        });
+        System.out.println("Confounder takes:" + elapsed);
+    }
+
+    private static long runThreads(final Runnable task) throws InterruptedException {
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final CountDownLatch doneSignal = new CountDownLatch(THREADS);
+
+        for (int i = 0; i < THREADS; ++i) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                        task.run();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        doneSignal.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        long start = System.currentTimeMillis();
+        startSignal.countDown();
+        doneSignal.await();
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -0,0 +1,128 @@
+package org.apache.kerberos.benchmark;
+
+import org.apache.kerberos.kerb.server.replay.CacheService;
+import org.apache.kerberos.kerb.server.replay.MappedCacheService;
+import org.apache.kerberos.kerb.server.replay.ReplayCacheFullException;
+import org.apache.kerberos.kerb.server.replay.ReplayCheckService;
+import org.apache.kerberos.kerb.server.replay.ReplayCheckServiceImpl;
+import org.apache.kerberos.kerb.server.replay.TimeWindowCacheService;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The replay check done for each TGS-REQ, with request times advancing as
+ * they would at 100k requests per second, against the in-memory and the
+ * mapped file replay caches. At that rate a request has 10 microseconds
+ * in total, so the check should take a small part of it.
+ *
+ * The requests cover the whole clock skew window, with the caches sized
+ * for that rate, and a sample of them is sent again after, which must all
+ * be caught as replays. The clock skew is short to keep the run short;
+ * the sizes scale with it, see KdcConfig#getReplayCacheSize().
+ */
+public class ReplayPerfTest {
+
+    private static final int THREADS = 4;
+    private static final int REQUESTS_PER_SECOND = 100000;
+    private static final long CLOCK_SKEW = 5 * 1000L;
+    // Every this many requests is sent again
+    private static final int REPLAY_SAMPLE = 1000;
+    // The caches are sized to be half full at most
+    private static final double LOAD_FACTOR = 0.5;
+
+    public static void main(String[] args) throws Exception {
+        // The requests of twice the clock skew, the window of a replay
+        int times = (int) (REQUESTS_PER_SECOND * 2 * CLOCK_SKEW / 1000);
+
+        TimeWindowCacheService sizing = new TimeWindowCacheService(CLOCK_SKEW, 1);
+        int bucketCapacity = (int) (REQUESTS_PER_SECOND * sizing.getBucketSpan() / 1000
+                / LOAD_FACTOR);
+
+        // The request times run ahead of the clock here, so none expire
+        // from the mapped cache during the run
+        File cacheFile = File.createTempFile("replay", ".cache");
+        cacheFile.deleteOnExit();
+        MappedCacheService mappedCache = new MappedCacheService(cacheFile,
+                CLOCK_SKEW, (int) (times / LOAD_FACTOR));
+
+        // the first round warms up
+        for (int round = 0; round < 2; ++round) {
+            perfReplayCheck("TimeWindowCacheService", new TimeWindowCacheService(
+                    CLOCK_SKEW, bucketCapacity), times);
+            mappedCache.clear();
+            perfReplayCheck("MappedCacheService", mappedCache, times);
+        }
+
+        mappedCache.close();
+    }
+
+    private static void perfReplayCheck(String name, CacheService cacheService,
+                                        final int times) throws Exception {
+        final ReplayCheckService replayCheck = new ReplayCheckServiceImpl(cacheService);
+        final long startTime = System.currentTimeMillis();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final CountDownLatch doneSignal = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; ++t) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                        for (int i = thread; i < times; i += THREADS) {
+                            if (check(replayCheck, startTime, i)) {
+                                throw new IllegalStateException("Not a replay: " + i);
+                            }
+                        }
+                    } catch (ReplayCacheFullException e) {
+                        failure.compareAndSet(null, new IllegalStateException(
+                                "Replay cache full", e));
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        doneSignal.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        long start = System.nanoTime();
+        startSignal.countDown();
+        doneSignal.await();
+        long elapsed = System.nanoTime() - start;
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        int replays = 0;
+        int caught = 0;
+        for (int i = 0; i < times; i += REPLAY_SAMPLE) {
+            replays++;
+            if (check(replayCheck, startTime, i)) {
+                caught++;
+            }
+        }
+        if (caught != replays) {
+            throw new IllegalStateException(name + " caught " + caught
+                    + " of " + replays + " replays");
+        }
+
+        System.out.println(name + " takes:" + elapsed / 1000000
+                + ", per request (us):" + (double) elapsed / times / 1000
+                + ", replays caught:" + caught + "/" + replays);
+    }
+
+    private static boolean check(ReplayCheckService replayCheck, long startTime,
+                                 int i) throws ReplayCacheFullException {
+        // a request every 10 microseconds
+        long micros = i * (1000000L / REQUESTS_PER_SECOND);
+        long requestTime = startTime + micros / 1000;
+        String clientPrincipal = "user" + (i % 1000) + "@EXAMPLE.COM";
+        return replayCheck.checkReplay(clientPrincipal, "krbtgt/EXAMPLE.COM@EXAMPLE.COM",
+                requestTime, (int) (micros % 1000));
+    }
+}
@@ -162,6 +162,30 @@ public class EventHub implements Dispatcher {
         }
     }
 
+    /**
+     * Stop, letting the handlers process the events they have, like the
+     * writes of the messages sent, up to the timeout. The long running
+     * handlers, as the selectors, are stopped first so no more come in.
+     */
+    public void stop(long timeout) throws InterruptedException {
+        if (! started) {
+            return;
+        }
+
+        long deadline = System.currentTimeMillis() + timeout;
+        for (InternalEventHandler handler : handlers.values()) {
+            if (handler instanceof LongRunningEventHandler) {
+                handler.stop();
+            }
+        }
+        for (InternalEventHandler handler : handlers.values()) {
+            if (handler instanceof ExecutedEventHandler) {
+                ((ExecutedEventHandler) handler).stop(deadline);
+            }
+        }
+        stop();
+    }
+
     public void stop() {
         if (started) {
             for (InternalEventHandler handler : handlers.values()) {
@@ -2,6 +2,7 @@ package org.apache.haox.event;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An EventHandler wrapper processing events using an ExecutorService
@@ -41,6 +42,21 @@ public class ExecutedEventHandler extends AbstractInternalEventHandler {
         executorService.shutdownNow();
     }
 
+    /**
+     * Stop taking events, and wait for the ones taken to be processed, up
+     * to the deadline, before interrupting them.
+     */
+    public void stop(long deadline) throws InterruptedException {
+        if (executorService.isShutdown()) {
+            return;
+        }
+        executorService.shutdown();
+        if (! executorService.awaitTermination(
+                Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+            executorService.shutdownNow();
+        }
+    }
+
     @Override
     public boolean isStopped() {
         return executorService.isShutdown();
@@ -23,7 +23,9 @@ public abstract class LongRunningEventHandler extends BufferedEventHandler {
         executorService.execute(new Runnable() {
             @Override
             public void run() {
-                while (true) {
+                // Until stopped, as the selector returns at once when
+                // interrupted
+                while (! executorService.isShutdown()) {
 
                     processEvents();
 
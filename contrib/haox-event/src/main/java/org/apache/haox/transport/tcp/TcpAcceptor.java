@@ -13,9 +13,15 @@ import java.net.ServerSocket;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class TcpAcceptor extends Acceptor {
 
+    private final List<ServerSocketChannel> serverChannels =
+            new CopyOnWriteArrayList<ServerSocketChannel>();
+
     public TcpAcceptor(StreamingDecoder streamingDecoder) {
         this(new TcpTransportHandler(streamingDecoder));
     }
@@ -46,8 +52,51 @@ public class TcpAcceptor extends Acceptor {
 
     @Override
     protected void doListen(InetSocketAddress socketAddress) {
-        AddressEvent event = TcpAddressEvent.createAddressBindEvent(socketAddress);
-        dispatch(event);
+        // Bound here rather than on the selector thread, so it's accepting
+        // once this returns, and a failure to bind is thrown to the caller
+        try {
+            doBind(socketAddress);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to bind " + socketAddress, e);
+        }
+    }
+
+    /**
+     * Accept on a server channel already bound, as one inherited from the
+     * process that launched this one, or handed over by another acceptor.
+     * Should be called when registered.
+     */
+    public void listen(ServerSocketChannel serverChannel) throws IOException {
+        serverChannel.configureBlocking(false);
+        // Not to wait long for the selector to let go of its keys
+        selector.wakeup();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT, serverChannel);
+        serverChannels.add(serverChannel);
+    }
+
+    /**
+     * The server channels accepted on, to hand over to another acceptor.
+     */
+    public List<ServerSocketChannel> getServerChannels() {
+        return new ArrayList<ServerSocketChannel>(serverChannels);
+    }
+
+    /**
+     * Stop accepting connections, leaving the ones accepted open, and close
+     * the server channels unless they're handed over to another acceptor,
+     * which may be accepting on them already.
+     */
+    public void stopAccepting(boolean close) throws IOException {
+        for (ServerSocketChannel serverChannel : serverChannels) {
+            SelectionKey key = serverChannel.keyFor(selector);
+            if (key != null) {
+                key.cancel();
+            }
+            if (close) {
+                serverChannel.close();
+            }
+        }
+        serverChannels.clear();
     }
 
     @Override
@@ -86,11 +135,14 @@ public class TcpAcceptor extends Acceptor {
     }
 
     protected void doBind(AddressEvent event) throws IOException {
+        doBind(event.getAddress());
+    }
+
+    private void doBind(InetSocketAddress address) throws IOException {
         ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
-        serverSocketChannel.configureBlocking(false);
         ServerSocket serverSocket = serverSocketChannel.socket();
-        serverSocket.bind(event.getAddress());
-        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT, serverSocketChannel);
+        serverSocket.bind(address);
+        listen(serverSocketChannel);
     }
 
 }
@@ -1,6 +1,8 @@
 package org.apache.kerberos.kdc.server;
 
-import org.apache.kerberos.kdc.server.ApacheKdcServer;
+import org.apache.kerberos.kdc.identitybackend.InMemoryDirectory;
+import org.apache.kerberos.kdc.identitybackend.LdapConnectionPool;
+import org.apache.kerberos.kdc.identitybackend.LdapIdentityBackend;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -20,7 +22,14 @@ public class KdcTest {
 
     @Before
     public void setUp() throws Exception {
-        kdcServer = new ApacheKdcServer();
+        // Against a directory in process, as there's no LDAP server
+        kdcServer = new ApacheKdcServer() {
+            @Override
+            protected LdapIdentityBackend makeIdentityBackend() {
+                LdapConnectionPool pool = new LdapConnectionPool(new InMemoryDirectory(), 2, 1000);
+                return new LdapIdentityBackend(pool, "ou=users,dc=example,dc=com", 2, 1000);
+            }
+        };
         kdcServer.setKdcHost(serverHost);
         kdcServer.setKdcPort(serverPort);
         kdcServer.init();
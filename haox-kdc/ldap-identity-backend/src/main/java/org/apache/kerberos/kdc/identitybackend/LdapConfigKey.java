@@ -0,0 +1,33 @@
+package org.apache.kerberos.kdc.identitybackend;
+
+import org.apache.haox.config.ConfigKey;
+
+public enum LdapConfigKey implements ConfigKey {
+    HOST("localhost"),
+    PORT(10389),
+    BASE_DN("ou=users,dc=example,dc=com"),
+    BIND_DN("uid=admin,ou=system"),
+    BIND_PASSWORD("secret"),
+    POOL_SIZE(8),
+    TIMEOUT(5000);
+
+    private Object defaultValue;
+
+    private LdapConfigKey() {
+        this.defaultValue = null;
+    }
+
+    private LdapConfigKey(Object defaultValue) {
+        this.defaultValue = defaultValue;
+    }
+
+    @Override
+    public String getPropertyKey() {
+        return "ldap." + name().toLowerCase();
+    }
+
+    @Override
+    public Object getDefaultValue() {
+        return this.defaultValue;
+    }
+}
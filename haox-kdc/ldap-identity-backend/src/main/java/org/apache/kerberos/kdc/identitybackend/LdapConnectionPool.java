@@ -0,0 +1,103 @@
+package org.apache.kerberos.kdc.identitybackend;
+
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded set of LDAP connections, opened as needed up to the pool size
+ * and reused, so lookups don't pay for connecting and binding each time.
+ * A connection that failed is closed rather than given back.
+ */
+public class LdapConnectionPool {
+
+    public interface ConnectionFactory {
+        DirContext create() throws NamingException;
+    }
+
+    private final ConnectionFactory factory;
+    private final int size;
+    private final long timeout;
+    private final BlockingQueue<DirContext> idle;
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param factory opens and binds new connections
+     * @param size the most connections to have open
+     * @param timeout how long to wait for a connection, in milliseconds
+     */
+    public LdapConnectionPool(ConnectionFactory factory, int size, long timeout) {
+        this.factory = factory;
+        this.size = size;
+        this.timeout = timeout;
+        this.idle = new LinkedBlockingQueue<DirContext>();
+    }
+
+    public DirContext borrow() throws NamingException {
+        if (closed) {
+            throw new IllegalStateException("Connection pool is closed");
+        }
+
+        DirContext context = idle.poll();
+        if (context != null) {
+            return context;
+        }
+
+        while (true) {
+            int count = opened.get();
+            if (count >= size) {
+                break;
+            }
+            if (opened.compareAndSet(count, count + 1)) {
+                try {
+                    return factory.create();
+                } catch (NamingException e) {
+                    opened.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+
+        try {
+            context = idle.poll(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (context == null) {
+            throw new NamingException("Timed out waiting for an LDAP connection");
+        }
+        return context;
+    }
+
+    public void release(DirContext context) {
+        if (closed) {
+            discard(context);
+        } else {
+            idle.offer(context);
+        }
+    }
+
+    /**
+     * Close a connection that failed instead of giving it back.
+     */
+    public void discard(DirContext context) {
+        opened.decrementAndGet();
+        try {
+            context.close();
+        } catch (NamingException e) {
+            // Already broken
+        }
+    }
+
+    public void close() {
+        closed = true;
+        DirContext context;
+        while ((context = idle.poll()) != null) {
+            discard(context);
+        }
+    }
+}
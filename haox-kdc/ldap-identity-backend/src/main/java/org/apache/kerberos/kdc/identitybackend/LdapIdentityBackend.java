@@ -1,58 +1,428 @@
 package org.apache.kerberos.kdc.identitybackend;
 
+import org.apache.haox.config.Conf;
+import org.apache.kerberos.kerb.KrbException;
+import org.apache.kerberos.kerb.codec.KrbCodec;
 import org.apache.kerberos.kerb.identity.KrbIdentity;
 import org.apache.kerberos.kerb.identity.backend.AbstractIdentityBackend;
+import org.apache.kerberos.kerb.spec.KerberosTime;
+import org.apache.kerberos.kerb.spec.common.EncryptionKey;
 
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Rdn;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+/**
+ * Identities kept as krb5Principal/krb5KDCEntry entries in an LDAP server,
+ * as ApacheDS does.
+ *
+ * Connections come from a {@link LdapConnectionPool}. Searches only ask for
+ * the Kerberos attributes, and krb5Key values, DER-encoded EncryptionKeys,
+ * are decoded straight into the identity. {@link #getIdentityAsync(String)}
+ * runs lookups on a thread per pooled connection, so many can be in flight
+ * at once.
+ */
 public class LdapIdentityBackend extends AbstractIdentityBackend {
 
+    static final String PRINCIPAL_NAME = "krb5PrincipalName";
+    static final String KEY = "krb5Key";
+    static final String KEY_VERSION = "krb5KeyVersionNumber";
+    static final String KDC_FLAGS = "krb5KDCFlags";
+    static final String DISABLED = "krb5AccountDisabled";
+    static final String LOCKED = "krb5AccountLockedOut";
+    static final String EXPIRATION_TIME = "krb5AccountExpirationTime";
+
+    private static final String[] KERBEROS_ATTRIBUTES = new String[] {
+            PRINCIPAL_NAME, KEY, KEY_VERSION, KDC_FLAGS, DISABLED, LOCKED, EXPIRATION_TIME
+    };
+    private static final String[] NO_ATTRIBUTES = new String[0];
+
+    private final LdapConnectionPool pool;
+    private final String baseDn;
+    private final int timeout;
+    private final ExecutorService executor;
 
     public LdapIdentityBackend() {
-        super();
+        this(new Conf());
     }
 
-    /**
-     * Load identities from file
-     */
-    public void load() {
-        // todo
+    public LdapIdentityBackend(Conf conf) {
+        this(new LdapConnectionPool(newConnectionFactory(conf),
+                conf.getInt(LdapConfigKey.POOL_SIZE), conf.getInt(LdapConfigKey.TIMEOUT)),
+                conf.getString(LdapConfigKey.BASE_DN),
+                conf.getInt(LdapConfigKey.POOL_SIZE), conf.getInt(LdapConfigKey.TIMEOUT));
     }
 
     /**
-     * Persist the updated identities back
+     * @param pool the connections to use
+     * @param baseDn where the principals are
+     * @param threads how many lookups to run at once for the async ones
+     * @param timeout the search time limit, in milliseconds
      */
-    public void save() {
-        // todo
+    public LdapIdentityBackend(LdapConnectionPool pool, String baseDn,
+                               int threads, int timeout) {
+        this.pool = pool;
+        this.baseDn = baseDn;
+        this.timeout = timeout;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ldap-identity-lookup");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static LdapConnectionPool.ConnectionFactory newConnectionFactory(Conf conf) {
+        final Hashtable<String, Object> env = new Hashtable<String, Object>();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+        env.put(Context.PROVIDER_URL, "ldap://" + conf.getString(LdapConfigKey.HOST)
+                + ":" + conf.getInt(LdapConfigKey.PORT));
+        env.put(Context.SECURITY_AUTHENTICATION, "simple");
+        env.put(Context.SECURITY_PRINCIPAL, conf.getString(LdapConfigKey.BIND_DN));
+        env.put(Context.SECURITY_CREDENTIALS, conf.getString(LdapConfigKey.BIND_PASSWORD));
+        env.put("com.sun.jndi.ldap.connect.timeout",
+                String.valueOf(conf.getInt(LdapConfigKey.TIMEOUT)));
+        env.put("java.naming.ldap.attributes.binary", KEY);
+
+        return new LdapConnectionPool.ConnectionFactory() {
+            @Override
+            public DirContext create() throws NamingException {
+                return new InitialDirContext(env);
+            }
+        };
+    }
+
+    public void close() {
+        executor.shutdown();
+        pool.close();
     }
 
     @Override
     public List<KrbIdentity> getIdentities() {
-        return null;
+        List<KrbIdentity> results = new ArrayList<KrbIdentity>();
+        Iterator<KrbIdentity> it = iterateIdentities();
+        while (it.hasNext()) {
+            results.add(it.next());
+        }
+        return results;
+    }
+
+    /**
+     * Go through the principals as the server returns them, holding on to
+     * a connection until the end.
+     */
+    @Override
+    public Iterator<KrbIdentity> iterateIdentities() {
+        DirContext context = borrow();
+        try {
+            SearchControls controls = newSearchControls(0, KERBEROS_ATTRIBUTES);
+            NamingEnumeration<SearchResult> results = context.search(baseDn,
+                    "(objectClass=krb5Principal)", controls);
+            return new SearchIterator(context, results);
+        } catch (NamingException e) {
+            pool.discard(context);
+            throw new RuntimeException("Failed to list identities", e);
+        }
     }
 
     @Override
     public boolean checkIdentity(String name) {
-        return false;
+        return getIdentity(name) != null;
     }
 
     @Override
     public KrbIdentity getIdentity(String name) {
-        return null;
+        DirContext context = borrow();
+        boolean discarded = false;
+        try {
+            SearchResult result = find(context, name, KERBEROS_ATTRIBUTES);
+            return result != null ? toIdentity(result.getAttributes()) : null;
+        } catch (NamingException e) {
+            discarded = true;
+            pool.discard(context);
+            throw new RuntimeException("Failed to get identity " + name, e);
+        } finally {
+            // Only once done with it, results included
+            if (! discarded) {
+                pool.release(context);
+            }
+        }
+    }
+
+    /**
+     * Look up an identity without waiting for it, so a caller can have
+     * several lookups out at once.
+     */
+    public Future<KrbIdentity> getIdentityAsync(final String name) {
+        return executor.submit(new Callable<KrbIdentity>() {
+            @Override
+            public KrbIdentity call() {
+                return getIdentity(name);
+            }
+        });
     }
 
     @Override
     public void addIdentity(KrbIdentity identity) {
+        String name = identity.getPrincipalName();
+        Attributes attributes = toAttributes(identity);
+        BasicAttribute objectClass = new BasicAttribute("objectClass");
+        objectClass.add("top");
+        objectClass.add("krb5Principal");
+        objectClass.add("krb5KDCEntry");
+        attributes.put(objectClass);
+        attributes.put(PRINCIPAL_NAME, name);
 
+        DirContext context = borrow();
+        boolean discarded = false;
+        try {
+            context.createSubcontext(PRINCIPAL_NAME + "=" + Rdn.escapeValue(name)
+                    + "," + baseDn, attributes).close();
+        } catch (NamingException e) {
+            discarded = true;
+            pool.discard(context);
+            throw new RuntimeException("Failed to add identity " + name, e);
+        } finally {
+            if (! discarded) {
+                pool.release(context);
+            }
+        }
     }
 
     @Override
     public void updateIdentity(KrbIdentity identity) {
-
+        String name = identity.getPrincipalName();
+        DirContext context = borrow();
+        boolean discarded = false;
+        try {
+            SearchResult result = find(context, name, NO_ATTRIBUTES);
+            if (result == null) {
+                throw new RuntimeException("No such identity " + name);
+            }
+            context.modifyAttributes(result.getNameInNamespace(),
+                    DirContext.REPLACE_ATTRIBUTE, toAttributes(identity));
+        } catch (NamingException e) {
+            discarded = true;
+            pool.discard(context);
+            throw new RuntimeException("Failed to update identity " + name, e);
+        } finally {
+            if (! discarded) {
+                pool.release(context);
+            }
+        }
     }
 
     @Override
     public void deleteIdentity(KrbIdentity identity) {
+        String name = identity.getPrincipalName();
+        DirContext context = borrow();
+        boolean discarded = false;
+        try {
+            SearchResult result = find(context, name, NO_ATTRIBUTES);
+            if (result != null) {
+                context.destroySubcontext(result.getNameInNamespace());
+            }
+        } catch (NamingException e) {
+            discarded = true;
+            pool.discard(context);
+            throw new RuntimeException("Failed to delete identity " + name, e);
+        } finally {
+            if (! discarded) {
+                pool.release(context);
+            }
+        }
+    }
+
+    private DirContext borrow() {
+        try {
+            return pool.borrow();
+        } catch (NamingException e) {
+            throw new RuntimeException("Failed to get an LDAP connection", e);
+        }
+    }
+
+    private SearchResult find(DirContext context, String name,
+                              String[] attributes) throws NamingException {
+        SearchControls controls = newSearchControls(1, attributes);
+        NamingEnumeration<SearchResult> results = context.search(baseDn,
+                "(" + PRINCIPAL_NAME + "={0})", new Object[] {name}, controls);
+        try {
+            return results.hasMore() ? results.next() : null;
+        } finally {
+            results.close();
+        }
+    }
+
+    private SearchControls newSearchControls(long countLimit, String[] attributes) {
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        controls.setCountLimit(countLimit);
+        controls.setTimeLimit(timeout);
+        controls.setReturningAttributes(attributes);
+        return controls;
+    }
+
+    static KrbIdentity toIdentity(Attributes attributes) throws NamingException {
+        String name = (String) attributes.get(PRINCIPAL_NAME).get();
+        KrbIdentity identity = new KrbIdentity(name);
+
+        int kvno = getInt(attributes, KEY_VERSION, 1);
+        identity.setKeyVersion(kvno);
+        identity.setKdcFlags(getInt(attributes, KDC_FLAGS, 0));
+        identity.setDisabled(getBoolean(attributes, DISABLED));
+        identity.setLocked(getBoolean(attributes, LOCKED));
+
+        Attribute expiration = attributes.get(EXPIRATION_TIME);
+        if (expiration != null) {
+            identity.setExpireTime(parseTime((String) expiration.get()));
+        }
+
+        Attribute keyAttribute = attributes.get(KEY);
+        if (keyAttribute != null) {
+            List<EncryptionKey> keys = new ArrayList<EncryptionKey>(keyAttribute.size());
+            for (int i = 0; i < keyAttribute.size(); i++) {
+                try {
+                    EncryptionKey key = KrbCodec.decode((byte[]) keyAttribute.get(i),
+                            EncryptionKey.class);
+                    key.setKvno(kvno);
+                    keys.add(key);
+                } catch (KrbException e) {
+                    throw new RuntimeException("Bad " + KEY + " value for " + name, e);
+                }
+            }
+            identity.setKeys(keys);
+        }
+
+        return identity;
+    }
+
+    static Attributes toAttributes(KrbIdentity identity) {
+        Attributes attributes = new BasicAttributes(true);
+        attributes.put(KEY_VERSION, String.valueOf(identity.getKeyVersion()));
+        attributes.put(KDC_FLAGS, String.valueOf(identity.getKdcFlags()));
+        attributes.put(DISABLED, String.valueOf(identity.isDisabled()).toUpperCase());
+        attributes.put(LOCKED, String.valueOf(identity.isLocked()).toUpperCase());
+        if (identity.getExpireTime() != KerberosTime.NEVER) {
+            attributes.put(EXPIRATION_TIME, formatTime(identity.getExpireTime()));
+        }
+
+        BasicAttribute keyAttribute = new BasicAttribute(KEY);
+        for (EncryptionKey key : identity.getKeys().values()) {
+            try {
+                keyAttribute.add(KrbCodec.encode(key));
+            } catch (KrbException e) {
+                throw new RuntimeException("Failed to encode key of "
+                        + identity.getPrincipalName(), e);
+            }
+        }
+        attributes.put(keyAttribute);
+
+        return attributes;
+    }
+
+    private static int getInt(Attributes attributes, String id,
+                              int defaultValue) throws NamingException {
+        Attribute attribute = attributes.get(id);
+        if (attribute == null) {
+            return defaultValue;
+        }
+        return Integer.parseInt((String) attribute.get());
+    }
+
+    private static boolean getBoolean(Attributes attributes, String id) throws NamingException {
+        Attribute attribute = attributes.get(id);
+        return attribute != null && "TRUE".equalsIgnoreCase((String) attribute.get());
+    }
+
+    private static SimpleDateFormat newTimeFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    private static KerberosTime parseTime(String value) {
+        try {
+            return new KerberosTime(newTimeFormat().parse(value).getTime());
+        } catch (ParseException e) {
+            throw new RuntimeException("Bad generalized time: " + value, e);
+        }
+    }
+
+    private static String formatTime(KerberosTime time) {
+        return newTimeFormat().format(new Date(time.getTime()));
+    }
+
+    private class SearchIterator implements Iterator<KrbIdentity> {
+        private DirContext context;
+        private final NamingEnumeration<SearchResult> results;
+
+        SearchIterator(DirContext context, NamingEnumeration<SearchResult> results) {
+            this.context = context;
+            this.results = results;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (context == null) {
+                return false;
+            }
+            try {
+                if (results.hasMore()) {
+                    return true;
+                }
+                results.close();
+                pool.release(context);
+            } catch (NamingException e) {
+                pool.discard(context);
+                context = null;
+                throw new RuntimeException("Failed to list identities", e);
+            }
+            context = null;
+            return false;
+        }
+
+        @Override
+        public KrbIdentity next() {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                return toIdentity(results.next().getAttributes());
+            } catch (NamingException e) {
+                pool.discard(context);
+                context = null;
+                throw new RuntimeException("Failed to list identities", e);
+            }
+        }
 
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
     }
 }
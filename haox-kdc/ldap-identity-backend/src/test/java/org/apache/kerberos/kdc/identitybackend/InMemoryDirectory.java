@@ -0,0 +1,113 @@
+package org.apache.kerberos.kdc.identitybackend;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in for an LDAP server, as DirContexts over a map of entries.
+ */
+public class InMemoryDirectory implements LdapConnectionPool.ConnectionFactory {
+    private final Map<String, Attributes> entries = new ConcurrentHashMap<String, Attributes>();
+    final AtomicInteger opened = new AtomicInteger();
+
+    @Override
+    public DirContext create() {
+        opened.incrementAndGet();
+        return (DirContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {DirContext.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return handle(proxy, method.getName(), args);
+                    }
+                });
+    }
+
+    private Object handle(Object context, String method, Object[] args) {
+        if (method.equals("search")) {
+            String filter = (String) args[1];
+            String value = args.length == 4 ? (String) ((Object[]) args[2])[0] : null;
+            SearchControls controls = (SearchControls) args[args.length - 1];
+            return search(filter, value, controls);
+        } else if (method.equals("createSubcontext")) {
+            entries.put((String) args[0], (Attributes) ((Attributes) args[1]).clone());
+            return context;
+        } else if (method.equals("modifyAttributes")) {
+            Attributes entry = entries.get((String) args[0]);
+            NamingEnumeration<? extends Attribute> it = ((Attributes) args[2]).getAll();
+            while (it.hasMoreElements()) {
+                entry.put(it.nextElement());
+            }
+            return null;
+        } else if (method.equals("destroySubcontext")) {
+            entries.remove((String) args[0]);
+            return null;
+        } else if (method.equals("close")) {
+            return null;
+        }
+        throw new UnsupportedOperationException(method);
+    }
+
+    private NamingEnumeration<SearchResult> search(String filter, String value,
+                                                   SearchControls controls) {
+        final List<SearchResult> results = new ArrayList<SearchResult>();
+        for (Map.Entry<String, Attributes> entry : entries.entrySet()) {
+            Attributes attributes = entry.getValue();
+            if (value != null && ! value.equals(
+                    attributes.get(LdapIdentityBackend.PRINCIPAL_NAME).toString()
+                            .substring(LdapIdentityBackend.PRINCIPAL_NAME.length() + 2))) {
+                continue;
+            }
+
+            Attributes projected = new BasicAttributes(true);
+            for (String id : controls.getReturningAttributes()) {
+                if (attributes.get(id) != null) {
+                    projected.put(attributes.get(id));
+                }
+            }
+            SearchResult result = new SearchResult(entry.getKey(), null, projected);
+            result.setNameInNamespace(entry.getKey());
+            results.add(result);
+        }
+
+        final Iterator<SearchResult> it = results.iterator();
+        return new NamingEnumeration<SearchResult>() {
+            @Override
+            public SearchResult next() {
+                return it.next();
+            }
+
+            @Override
+            public boolean hasMore() {
+                return it.hasNext();
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public boolean hasMoreElements() {
+                return it.hasNext();
+            }
+
+            @Override
+            public SearchResult nextElement() {
+                return it.next();
+            }
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package org.apache.kerberos.kdc.identitybackend;
+
+import org.apache.kerberos.kerb.identity.KrbIdentity;
+import org.apache.kerberos.kerb.spec.common.EncryptionKey;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+public class LdapIdentityBackendTest {
+
+    private static final String BASE_DN = "ou=users,dc=example,dc=com";
+
+    private InMemoryDirectory directory;
+    private LdapIdentityBackend backend;
+
+    @Before
+    public void setUp() {
+        directory = new InMemoryDirectory();
+        LdapConnectionPool pool = new LdapConnectionPool(directory, 2, 1000);
+        backend = new LdapIdentityBackend(pool, BASE_DN, 2, 1000);
+    }
+
+    @After
+    public void tearDown() {
+        backend.close();
+    }
+
+    @Test
+    public void testIdentity() {
+        KrbIdentity identity = new KrbIdentity("alice@EXAMPLE.COM");
+        identity.setKeyVersion(3);
+        identity.addKey(new EncryptionKey(EncryptionType.AES128_CTS_HMAC_SHA1_96, new byte[16]));
+        backend.addIdentity(identity);
+
+        KrbIdentity found = backend.getIdentity("alice@EXAMPLE.COM");
+        Assert.assertEquals(3, found.getKeyVersion());
+        EncryptionKey key = found.getKey(EncryptionType.AES128_CTS_HMAC_SHA1_96);
+        Assert.assertArrayEquals(new byte[16], key.getKeyData());
+        Assert.assertEquals(3, key.getKvno());
+        Assert.assertNull(backend.getIdentity("bob@EXAMPLE.COM"));
+
+        identity.setDisabled(true);
+        backend.updateIdentity(identity);
+        Assert.assertTrue(backend.getIdentity("alice@EXAMPLE.COM").isDisabled());
+
+        backend.deleteIdentity(identity);
+        Assert.assertFalse(backend.checkIdentity("alice@EXAMPLE.COM"));
+    }
+
+    @Test
+    public void testPoolAndAsync() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            backend.addIdentity(new KrbIdentity("user" + i + "@EXAMPLE.COM"));
+        }
+
+        List<Future<KrbIdentity>> futures = new ArrayList<Future<KrbIdentity>>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(backend.getIdentityAsync("user" + (i % 10) + "@EXAMPLE.COM"));
+        }
+        for (Future<KrbIdentity> future : futures) {
+            Assert.assertNotNull(future.get());
+        }
+        Assert.assertEquals(10, backend.getIdentities().size());
+
+        // Connections are reused, up to the pool size
+        Assert.assertTrue(directory.opened.get() <= 2);
+    }
+}
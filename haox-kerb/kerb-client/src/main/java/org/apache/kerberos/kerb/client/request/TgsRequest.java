@@ -16,7 +16,11 @@ import org.apache.kerberos.kerb.spec.pa.PaDataType;
 import org.apache.kerberos.kerb.spec.ticket.ServiceTicket;
 import org.apache.kerberos.kerb.spec.ticket.TgtTicket;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class TgsRequest extends KdcRequest {
+    private static final AtomicLong LAST_MICROS = new AtomicLong();
+
     private TgtTicket tgt;
     private ApReq apReq;
 
@@ -80,8 +84,10 @@ public class TgsRequest extends KdcRequest {
         authenticator.setCname(getClientPrincipal());
         authenticator.setCrealm(tgt.getRealm());
 
-        authenticator.setCtime(KerberosTime.now());
-        authenticator.setCusec(0);
+        // ctime goes on the wire in seconds, cusec makes it unique
+        long micros = nextMicros();
+        authenticator.setCtime(new KerberosTime(micros / 1000));
+        authenticator.setCusec((int) (micros % 1000000));
 
         EncryptionKey sessionKey = tgt.getSessionKey();
         authenticator.setSubKey(sessionKey);
@@ -89,6 +95,20 @@ public class TgsRequest extends KdcRequest {
         return authenticator;
     }
 
+    /**
+     * The current time in microseconds, but always after the last one, so
+     * authenticators made within the same microsecond aren't replays.
+     */
+    private static long nextMicros() {
+        while (true) {
+            long last = LAST_MICROS.get();
+            long micros = Math.max(System.currentTimeMillis() * 1000, last + 1);
+            if (LAST_MICROS.compareAndSet(last, micros)) {
+                return micros;
+            }
+        }
+    }
+
     @Override
     public void processResponse(KdcRep kdcRep) throws KrbException {
         setKdcRep(kdcRep);
@@ -12,7 +12,13 @@ import org.apache.kerberos.kerb.spec.common.EncryptionType;
 import org.apache.kerberos.kerb.spec.common.KeyUsage;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class EncryptionUtil {
 
@@ -29,14 +35,58 @@ public class EncryptionUtil {
 
     public static List<EncryptionKey> generateKeys(String principal, String passwd,
                                                    List<EncryptionType> encryptionTypes) throws KrbException {
-        List<EncryptionKey> results = new ArrayList<EncryptionKey>(encryptionTypes.size());
-        EncryptionKey encKey;
-        for (EncryptionType eType : encryptionTypes) {
-            encKey = EncryptionHandler.string2Key(principal, passwd, eType);
-            results.add(encKey);
+        return EncryptionHandler.string2Keys(principal, passwd, encryptionTypes);
+    }
+
+    /**
+     * Generate keys for many principals from their passwords, spreading the
+     * string2key work of different principals over all the processors, in a
+     * fork-join pool, whose daemon workers don't keep the JVM up if the
+     * caller gives up on them.
+     * @param passwords passwords by principal name
+     * @return keys by principal name
+     */
+    public static Map<String, List<EncryptionKey>> generateKeys(Map<String, String> passwords,
+                                                   final List<EncryptionType> encryptionTypes) throws KrbException {
+        int threads = Math.min(passwords.size(), Runtime.getRuntime().availableProcessors());
+        if (threads <= 1) {
+            Map<String, List<EncryptionKey>> results = new HashMap<String, List<EncryptionKey>>();
+            for (Map.Entry<String, String> entry : passwords.entrySet()) {
+                results.put(entry.getKey(),
+                        generateKeys(entry.getKey(), entry.getValue(), encryptionTypes));
+            }
+            return results;
         }
 
-        return results;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            Map<String, Future<List<EncryptionKey>>> futures =
+                    new HashMap<String, Future<List<EncryptionKey>>>();
+            for (final Map.Entry<String, String> entry : passwords.entrySet()) {
+                futures.put(entry.getKey(), pool.submit(new Callable<List<EncryptionKey>>() {
+                    @Override
+                    public List<EncryptionKey> call() throws KrbException {
+                        return generateKeys(entry.getKey(), entry.getValue(), encryptionTypes);
+                    }
+                }));
+            }
+
+            Map<String, List<EncryptionKey>> results = new HashMap<String, List<EncryptionKey>>();
+            for (Map.Entry<String, Future<List<EncryptionKey>>> entry : futures.entrySet()) {
+                results.put(entry.getKey(), entry.getValue().get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KrbException("Interrupted while generating keys", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof KrbException) {
+                throw (KrbException) e.getCause();
+            }
+            throw new KrbException("Failed to generate keys", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
     }
 
     public static EncryptionType getBestEncryptionType(List<EncryptionType> requestedTypes,
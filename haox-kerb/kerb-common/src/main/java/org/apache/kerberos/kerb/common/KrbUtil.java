@@ -10,12 +10,19 @@ import java.nio.ByteBuffer;
 public class KrbUtil {
 
     public static void sendMessage(KrbMessage message, Transport transport) {
+        transport.sendMessage(encodeMessage(message));
+    }
+
+    /**
+     * Encode the message with the length in front, ready to send.
+     */
+    public static ByteBuffer encodeMessage(KrbMessage message) {
         int bodyLen = message.encodingLength();
         ByteBuffer buffer = ByteBuffer.allocate(bodyLen + 4);
         buffer.putInt(bodyLen);
         message.encode(buffer);
         buffer.flip();
-        transport.sendMessage(buffer);
+        return buffer;
     }
 
     public static KrbMessage decodeMessage(ByteBuffer message) throws IOException {
@@ -6,7 +6,7 @@ public class KrbErrorException extends KrbException {
     private KrbError krbError;
 
     public KrbErrorException(KrbError krbError) {
-        super(krbError.getErrorCode().getMessage());
+        super(krbError.getErrorCode());
         this.krbError = krbError;
     }
 
@@ -2,6 +2,8 @@ package org.apache.kerberos.kerb;
 
 public class KrbException extends Exception {
 
+    private KrbErrorCode errorCode;
+
     public KrbException(String message) {
         super(message);
     }
@@ -12,13 +14,23 @@ public class KrbException extends Exception {
 
     public KrbException(KrbErrorCode errorCode) {
         super(errorCode.getMessage());
+        this.errorCode = errorCode;
     }
 
     public KrbException(KrbErrorCode errorCode, Throwable cause) {
         super(errorCode.getMessage(), cause);
+        this.errorCode = errorCode;
     }
 
     public KrbException(KrbErrorCode errorCode, String message) {
         super(message + " with error code: " + errorCode.name());
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * The error code it was thrown with, or null if none.
+     */
+    public KrbErrorCode getErrorCode() {
+        return errorCode;
     }
 }
@@ -5,6 +5,7 @@ import org.apache.haox.asn1.type.AbstractAsn1Type;
 import org.apache.haox.asn1.type.Asn1Type;
 import org.apache.kerberos.kerb.KrbException;
 import org.apache.kerberos.kerb.spec.ap.ApReq;
+import org.apache.kerberos.kerb.spec.common.KrbError;
 import org.apache.kerberos.kerb.spec.common.KrbMessage;
 import org.apache.kerberos.kerb.spec.common.KrbMessageType;
 import org.apache.kerberos.kerb.spec.kdc.AsRep;
@@ -63,6 +64,8 @@ public class KrbCodec {
             msg = new ApReq();
         } else if (msgType == KrbMessageType.AP_REP) {
             msg = new ApReq();
+        } else if (msgType == KrbMessageType.KRB_ERROR) {
+            msg = new KrbError();
         } else {
             throw new IOException("To be supported krb message type with tag: " + tag);
         }
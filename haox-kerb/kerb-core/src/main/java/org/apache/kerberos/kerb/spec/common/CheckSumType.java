@@ -39,6 +39,12 @@ public enum CheckSumType implements KrbEnum {
     //RFC 6803
     CMAC_CAMELLIA256(0x0012, "cmac-camellia256", "CMAC Camellia256 key"),
 
+    //RFC 8009. Used with ENCTYPE_AES128_CTS_HMAC_SHA256_128
+    HMAC_SHA256_128_AES128(0x0013, "hmac-sha256-128-aes128", "HMAC-SHA256 AES128 key"),
+
+    //RFC 8009. Used with ENCTYPE_AES256_CTS_HMAC_SHA384_192
+    HMAC_SHA384_192_AES256(0x0014, "hmac-sha384-192-aes256", "HMAC-SHA384 AES256 key"),
+
     //Microsoft netlogon cksumtype
     MD5_HMAC_ARCFOUR(-137, "md5-hmac-rc4", "Microsoft MD5 HMAC"),
 
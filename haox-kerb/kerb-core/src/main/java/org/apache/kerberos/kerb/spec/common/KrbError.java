@@ -70,7 +70,7 @@ public class KrbError extends KrbMessage {
     }
 
     public void setCusec(int cusec) {
-        setFieldAsInt(0, cusec);
+        setFieldAsInt(CUSEC, cusec);
     }
 
     public KerberosTime getStime() {
@@ -86,7 +86,7 @@ public class KrbError extends KrbMessage {
     }
 
     public void setSusec(int susec) {
-        setFieldAsInt(0, susec);
+        setFieldAsInt(SUSEC, susec);
     }
 
     public KrbErrorCode getErrorCode() {
@@ -94,7 +94,7 @@ public class KrbError extends KrbMessage {
     }
 
     public void setErrorCode(KrbErrorCode errorCode) {
-        setField(0, errorCode);
+        setFieldAsInt(ERROR_CODE, errorCode.getValue());
     }
 
     public String getCrealm() {
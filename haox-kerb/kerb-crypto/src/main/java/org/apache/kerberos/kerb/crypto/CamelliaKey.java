@@ -90,10 +90,52 @@ public class CamelliaKey {
             (byte)119, (byte)199, (byte)128, (byte)158
     };
 
+    /*
+     * SBOX1 to SBOX4 of RFC 3713, each spread over the bytes of a word as
+     * the P function needs them, e.g. SBOX1_1110[x] = s1(x) in bytes 1,2,3.
+     */
+    private static final int[] SBOX1_1110 = new int[256];
+    private static final int[] SBOX2_0222 = new int[256];
+    private static final int[] SBOX3_3033 = new int[256];
+    private static final int[] SBOX4_4404 = new int[256];
+
+    static {
+        for (int x = 0; x < 256; x++) {
+            int s1 = SBOX1[x] & 0xff;
+            int s2 = ((s1 << 1) | (s1 >>> 7)) & 0xff;
+            int s3 = ((s1 << 7) | (s1 >>> 1)) & 0xff;
+            int s4 = SBOX1[((x << 1) | (x >>> 7)) & 0xff] & 0xff;
+
+            SBOX1_1110[x] = (s1 << 24) | (s1 << 16) | (s1 << 8);
+            SBOX2_0222[x] = (s2 << 16) | (s2 << 8) | s2;
+            SBOX3_3033[x] = (s3 << 24) | (s3 << 8) | s3;
+            SBOX4_4404[x] = (s4 << 24) | (s4 << 16) | s4;
+        }
+    }
+
+    private static final byte[] ENCRYPT_TAG = new byte[] {1};
+    private static final byte[] DECRYPT_TAG = new byte[] {0};
+
+    // Key schedules are immutable once made, so shared among threads
+    private static final KeyCache<CamelliaKey> KEY_CACHE =
+            new KeyCache<CamelliaKey>(4096);
+
     public CamelliaKey(byte[] key, boolean isEncrypt) {
         init(key, isEncrypt);
     }
 
+    /**
+     * Get the key schedule for the key, from the cache if it was made before.
+     */
+    public static CamelliaKey getKey(byte[] key, boolean isEncrypt) {
+        byte[] tag = isEncrypt ? ENCRYPT_TAG : DECRYPT_TAG;
+        CamelliaKey result = KEY_CACHE.get(key, tag);
+        if (result == null) {
+            result = KEY_CACHE.put(key, tag, new CamelliaKey(key, isEncrypt));
+        }
+        return result;
+    }
+
     protected boolean is128() {
         return keySize == 16;
     }
@@ -155,27 +197,7 @@ public class CamelliaKey {
         ki[3 + ioff] = ko[1 + ooff];
     }
 
-    private byte lRot8(byte v, int rot)
-    {
-        return (byte)((v << rot) | ((v & 0xff) >>> (8 - rot)));
-    }
-
-    private int sbox2(int x)
-    {
-        return (lRot8(SBOX1[x], 1) & 0xff);
-    }
-
-    private int sbox3(int x)
-    {
-        return (lRot8(SBOX1[x], 7) & 0xff);
-    }
-
-    private int sbox4(int x)
-    {
-        return (SBOX1[((int)lRot8((byte)x, 1) & 0xff)] & 0xff);
-    }
-
-    protected void fls(int[] s, int[] fkey, int keyoff) {
+    protected static void fls(int[] s, int[] fkey, int keyoff) {
         s[1] ^= leftRotate(s[0] & fkey[0 + keyoff], 1);
         s[0] ^= fkey[1 + keyoff] | s[1];
 
@@ -183,46 +205,42 @@ public class CamelliaKey {
         s[3] ^= leftRotate(fkey[2 + keyoff] & s[2], 1);
     }
 
-    protected void f2(int[] s, int[] skey, int keyoff) {
+    /**
+     * Two rounds of the F function, with the S-boxes and the P function
+     * folded into the lookup tables.
+     */
+    protected static void f2(int[] s, int[] skey, int keyoff) {
         int t1, t2, u, v;
 
         t1 = s[0] ^ skey[0 + keyoff];
-        u = sbox4((t1 & 0xff));
-        u |= (sbox3(((t1 >>> 8) & 0xff)) << 8);
-        u |= (sbox2(((t1 >>> 16) & 0xff)) << 16);
-        u |= ((int)(SBOX1[((t1 >>> 24) & 0xff)] & 0xff) << 24);
+        u = SBOX4_4404[t1 & 0xff];
+        u ^= SBOX3_3033[(t1 >>> 8) & 0xff];
+        u ^= SBOX2_0222[(t1 >>> 16) & 0xff];
+        u ^= SBOX1_1110[(t1 >>> 24) & 0xff];
 
         t2 = s[1] ^ skey[1 + keyoff];
-        v = (int)SBOX1[(t2 & 0xff)] & 0xff;
-        v |= (sbox4(((t2 >>> 8) & 0xff)) << 8);
-        v |= (sbox3(((t2 >>> 16) & 0xff)) << 16);
-        v |= (sbox2(((t2 >>> 24) & 0xff)) << 24);
-
-        v = leftRotate(v, 8);
-        u ^= v;
-        v = leftRotate(v, 8) ^ u;
-        u = rightRotate(u, 8) ^ v;
-        s[2] ^= leftRotate(v, 16) ^ u;
-        s[3] ^= leftRotate(u, 8);
+        v = SBOX1_1110[t2 & 0xff];
+        v ^= SBOX4_4404[(t2 >>> 8) & 0xff];
+        v ^= SBOX3_3033[(t2 >>> 16) & 0xff];
+        v ^= SBOX2_0222[(t2 >>> 24) & 0xff];
+
+        s[2] ^= u ^ v;
+        s[3] ^= u ^ v ^ rightRotate(u, 8);
 
         t1 = s[2] ^ skey[2 + keyoff];
-        u = sbox4((t1 & 0xff));
-        u |= sbox3(((t1 >>> 8) & 0xff)) << 8;
-        u |= sbox2(((t1 >>> 16) & 0xff)) << 16;
-        u |= ((int)SBOX1[((t1 >>> 24) & 0xff)] & 0xff) << 24;
+        u = SBOX4_4404[t1 & 0xff];
+        u ^= SBOX3_3033[(t1 >>> 8) & 0xff];
+        u ^= SBOX2_0222[(t1 >>> 16) & 0xff];
+        u ^= SBOX1_1110[(t1 >>> 24) & 0xff];
 
         t2 = s[3] ^ skey[3 + keyoff];
-        v = ((int)SBOX1[(t2 & 0xff)] & 0xff);
-        v |= sbox4(((t2 >>> 8) & 0xff)) << 8;
-        v |= sbox3(((t2 >>> 16) & 0xff)) << 16;
-        v |= sbox2(((t2 >>> 24) & 0xff)) << 24;
-
-        v = leftRotate(v, 8);
-        u ^= v;
-        v = leftRotate(v, 8) ^ u;
-        u = rightRotate(u, 8) ^ v;
-        s[0] ^= leftRotate(v, 16) ^ u;
-        s[1] ^= leftRotate(u, 8);
+        v = SBOX1_1110[t2 & 0xff];
+        v ^= SBOX4_4404[(t2 >>> 8) & 0xff];
+        v ^= SBOX3_3033[(t2 >>> 16) & 0xff];
+        v ^= SBOX2_0222[(t2 >>> 24) & 0xff];
+
+        s[0] ^= u ^ v;
+        s[1] ^= u ^ v ^ rightRotate(u, 8);
     }
 
     private void init(byte[] key, boolean isEncrypt) {
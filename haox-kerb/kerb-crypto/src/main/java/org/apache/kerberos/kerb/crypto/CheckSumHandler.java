@@ -71,6 +71,14 @@ public class CheckSumHandler {
                 cksumHandler = new HmacSha1Aes256CheckSum();
                 break;
 
+            case HMAC_SHA256_128_AES128:
+                cksumHandler = new HmacSha256Aes128CheckSum();
+                break;
+
+            case HMAC_SHA384_192_AES256:
+                cksumHandler = new HmacSha384Aes256CheckSum();
+                break;
+
             case CMAC_CAMELLIA128:
                 cksumHandler = new CmacCamellia128CheckSum();
                 break;
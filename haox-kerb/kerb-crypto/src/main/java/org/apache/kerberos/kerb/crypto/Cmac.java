@@ -15,6 +15,8 @@ public class Cmac {
             0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0x87
     };
 
+    private static final KeyCache<byte[]> SUBKEYS = new KeyCache<byte[]>(4096);
+
     public static byte[] cmac(EncryptProvider encProvider, byte[] key,
                        byte[] data, int outputSize) throws KrbException {
         return cmac(encProvider, key, data, 0, data.length, outputSize);
@@ -42,14 +44,11 @@ public class Cmac {
 
         int blockSize = encProvider.blockSize();
 
-        byte[] Y = new byte[blockSize];
         byte[] mLast = new byte[blockSize];
         byte[] padded = new byte[blockSize];
-        byte[] K1 = new byte[blockSize];
-        byte[] K2 = new byte[blockSize];
 
         // step 1
-        makeSubkey(encProvider, key, K1, K2);
+        byte[] subkeys = getSubkeys(encProvider, key);
 
         // step 2
         int n = (len + blockSize - 1) / blockSize;
@@ -63,28 +62,26 @@ public class Cmac {
             lastIsComplete = ((len % blockSize) == 0);
         }
 
-        // Step 6 (all but last block)
+        // Step 6 (all but last block), in one go
         byte[] cipherState = new byte[blockSize];
-        byte[] cipher = new byte[blockSize];
-        for (int i = 0; i < n - 1; i++) {
-            System.arraycopy(data, i * blockSize, cipher, 0, blockSize);
-            encryptBlock(encProvider, key, cipherState, cipher);
-            System.arraycopy(cipher, 0, cipherState, 0, blockSize);
+        if (n > 1) {
+            byte[] blocks = new byte[(n - 1) * blockSize];
+            System.arraycopy(data, start, blocks, 0, blocks.length);
+            encryptBlocks(encProvider, key, cipherState, blocks);
         }
 
-        // step 5
-        System.arraycopy(cipher, 0, Y, 0, blockSize);
-
         // step 4
-        int lastPos = (n - 1) * blockSize;
+        int lastPos = start + (n - 1) * blockSize;
         int lastLen = lastIsComplete ? blockSize : len % blockSize;
-        byte[] lastBlock = new byte[lastLen];
-        System.arraycopy(data, lastPos, lastBlock, 0, lastLen);
         if (lastIsComplete) {
-            Util.xor(lastBlock, K1, mLast);
+            for (int i = 0; i < blockSize; i++) {
+                mLast[i] = (byte) (data[lastPos + i] ^ subkeys[i]);
+            }
         } else {
-            padding(lastBlock, padded);
-            Util.xor(padded, K2, mLast);
+            padding(data, lastPos, lastLen, padded);
+            for (int i = 0; i < blockSize; i++) {
+                mLast[i] = (byte) (padded[i] ^ subkeys[blockSize + i]);
+            }
         }
 
         // Step 6 (last block)
@@ -93,6 +90,28 @@ public class Cmac {
         return mLast;
     }
 
+    /**
+     * K1 | K2 for the key, made once per key. The subkeys depend on the
+     * cipher as well, hence tagged with the provider.
+     */
+    private static byte[] getSubkeys(EncryptProvider encProvider,
+                                     byte[] key) throws KrbException {
+        byte[] tag = encProvider.getClass().getName().getBytes();
+        byte[] subkeys = SUBKEYS.get(key, tag);
+        if (subkeys == null) {
+            int blockSize = encProvider.blockSize();
+            byte[] K1 = new byte[blockSize];
+            byte[] K2 = new byte[blockSize];
+            makeSubkey(encProvider, key, K1, K2);
+
+            subkeys = new byte[2 * blockSize];
+            System.arraycopy(K1, 0, subkeys, 0, blockSize);
+            System.arraycopy(K2, 0, subkeys, blockSize, blockSize);
+            subkeys = SUBKEYS.put(key, tag, subkeys);
+        }
+        return subkeys;
+    }
+
     // Generate subkeys K1 and K2 as described in RFC 4493 figure 2.2.
     private static void makeSubkey(EncryptProvider encProvider,
                               byte[] key, byte[] K1, byte[] K2) throws KrbException {
@@ -121,6 +140,27 @@ public class Cmac {
         }
     }
 
+    /**
+     * CBC encrypt whole blocks in place, leaving the last cipher block in
+     * cipherState.
+     */
+    private static void encryptBlocks(EncryptProvider encProvider, byte[] key,
+                                      byte[] cipherState, byte[] blocks) throws KrbException {
+        int blockSize = encProvider.blockSize();
+        if (encProvider.supportCbcMac()) {
+            encProvider.cbcMac(key, cipherState, blocks);
+        } else {
+            byte[] block = new byte[blockSize];
+            for (int pos = 0; pos < blocks.length; pos += blockSize) {
+                System.arraycopy(blocks, pos, block, 0, blockSize);
+                encProvider.encrypt(key, cipherState, block);
+                System.arraycopy(block, 0, blocks, pos, blockSize);
+                System.arraycopy(block, 0, cipherState, 0, blockSize);
+            }
+        }
+        System.arraycopy(blocks, blocks.length - blockSize, cipherState, 0, blockSize);
+    }
+
     private static void encryptBlock(EncryptProvider encProvider,
                                      byte[] key, byte[] cipherState, byte[] block) throws KrbException {
         if (cipherState == null) {
@@ -144,11 +184,9 @@ public class Cmac {
     }
 
     // Padding out data with a 1 bit followed by 0 bits, placing the result in pad
-    private static void padding(byte[] data, byte[] padded) {
-        int len = data.length;
-
+    private static void padding(byte[] data, int start, int len, byte[] padded) {
         // original last block
-        System.arraycopy(data, 0, padded, 0, len);
+        System.arraycopy(data, start, padded, 0, len);
 
         padded[len] = (byte) 0x80;
 
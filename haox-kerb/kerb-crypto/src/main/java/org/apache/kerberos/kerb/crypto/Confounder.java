@@ -1,14 +1,10 @@
 package org.apache.kerberos.kerb.crypto;
 
-import java.security.SecureRandom;
-
 public final class Confounder {
 
-    private static SecureRandom srand = new SecureRandom();
-
     public static byte[] makeBytes(int size) {
         byte[] data = new byte[size];
-        srand.nextBytes(data);
+        Drbg.nextBytes(data);
         return data;
     }
 }
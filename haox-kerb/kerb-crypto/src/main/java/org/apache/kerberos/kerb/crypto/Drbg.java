@@ -0,0 +1,79 @@
+package org.apache.kerberos.kerb.crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * Source of random bytes for keys, confounders and nonces. Each thread gets
+ * its own generator, seeded from the platform's strong source and reseeded
+ * after so many bytes or so much time, so threads don't contend on a single
+ * SecureRandom.
+ */
+public final class Drbg {
+
+    private static final int SEED_SIZE = 32;
+    private static final long RESEED_BYTES = 1L << 20;
+    private static final long RESEED_INTERVAL = 10 * 60 * 1000L; // 10 minutes
+
+    // Only used for seeding, so rarely contended
+    private static final SecureRandom seeder = new SecureRandom();
+
+    private static ThreadLocal<Generator> generators = new ThreadLocal<Generator>() {
+        @Override
+        protected Generator initialValue() {
+            return new Generator();
+        }
+    };
+
+    public static void nextBytes(byte[] bytes) {
+        generators.get().nextBytes(bytes);
+    }
+
+    public static int nextInt() {
+        byte[] bytes = new byte[4];
+        nextBytes(bytes);
+        return BytesUtil.bytes2int(bytes, 0, true);
+    }
+
+    private static byte[] makeSeed() {
+        byte[] seed = new byte[SEED_SIZE];
+        synchronized (seeder) {
+            seeder.nextBytes(seed);
+        }
+        return seed;
+    }
+
+    private static class Generator {
+        private final SecureRandom random;
+        private long bytesSinceSeed;
+        private long seededAt;
+
+        Generator() {
+            SecureRandom tmp;
+            try {
+                // Seeded before first use, it doesn't seed itself. The JDK
+                // only has a DRBG from Java 9, and the target is 1.7
+                tmp = SecureRandom.getInstance("SHA1PRNG");
+            } catch (GeneralSecurityException e) {
+                tmp = new SecureRandom();
+            }
+            random = tmp;
+            reseed();
+        }
+
+        void nextBytes(byte[] bytes) {
+            if (bytesSinceSeed > RESEED_BYTES ||
+                    System.currentTimeMillis() - seededAt > RESEED_INTERVAL) {
+                reseed();
+            }
+            random.nextBytes(bytes);
+            bytesSinceSeed += bytes.length;
+        }
+
+        private void reseed() {
+            random.setSeed(makeSeed());
+            bytesSinceSeed = 0;
+            seededAt = System.currentTimeMillis();
+        }
+    }
+}
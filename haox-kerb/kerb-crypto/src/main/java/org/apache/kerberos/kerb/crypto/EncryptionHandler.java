@@ -5,6 +5,11 @@ import org.apache.kerberos.kerb.crypto.enc.*;
 import org.apache.kerberos.kerb.KrbException;
 import org.apache.kerberos.kerb.spec.common.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
 public class EncryptionHandler {
 
     public static EncryptionType getEncryptionType(String eType) throws KrbException {
@@ -61,6 +66,14 @@ public class EncryptionHandler {
                 encHandler = new Aes256CtsHmacSha1Enc();
                 break;
 
+            case AES128_CTS_HMAC_SHA256_128:
+                encHandler = new Aes128CtsHmacSha256Enc();
+                break;
+
+            case AES256_CTS_HMAC_SHA384_192:
+                encHandler = new Aes256CtsHmacSha384Enc();
+                break;
+
             case CAMELLIA128_CTS_CMAC:
             case CAMELLIA128_CTS:
                 encHandler = new Camellia128CtsCmacEnc();
@@ -146,6 +159,43 @@ public class EncryptionHandler {
         return new EncryptionKey(eType, keyBytes);
     }
 
+    /**
+     * string2Key for several enctypes at once, with keys returned in the
+     * order of eTypes. Longer keys are derived first, so that enctypes sharing
+     * the PBKDF2 parameters, like aes128-cts and aes256-cts, run it only once.
+     */
+    public static List<EncryptionKey> string2Keys(String principalName, String passPhrase,
+                   List<EncryptionType> eTypes) throws KrbException {
+        PrincipalName principal = new PrincipalName(principalName);
+        String salt = PrincipalName.makeSalt(principal);
+
+        final EncTypeHandler[] handlers = new EncTypeHandler[eTypes.size()];
+        Integer[] order = new Integer[handlers.length];
+        for (int i = 0; i < handlers.length; ++i) {
+            handlers[i] = getEncHandler(eTypes.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return handlers[i2].keySize() - handlers[i1].keySize();
+            }
+        });
+
+        EncryptionKey[] keys = new EncryptionKey[handlers.length];
+        Pbkdf.beginBatch();
+        try {
+            for (int i : order) {
+                byte[] keyBytes = handlers[i].str2key(passPhrase, salt, null);
+                keys[i] = new EncryptionKey(eTypes.get(i), keyBytes);
+            }
+        } finally {
+            Pbkdf.endBatch();
+        }
+
+        return new ArrayList<EncryptionKey>(Arrays.asList(keys));
+    }
+
     public static EncryptionKey random2Key(EncryptionType eType) throws KrbException {
         EncTypeHandler handler = getEncHandler(eType);
 
@@ -0,0 +1,67 @@
+package org.apache.kerberos.kerb.crypto;
+
+import org.apache.kerberos.kerb.KrbException;
+
+import javax.crypto.Mac;
+
+/**
+ * A key prepared for HMAC. The key is padded and the inner pad hashed once,
+ * into a prototype Mac that's cloned for each message, so computing a MAC
+ * with a long lived key like Ki or Kc only costs hashing the data itself.
+ *
+ * The prototype is never updated after construction, so the instance can be
+ * shared among threads.
+ */
+public class HmacKey {
+
+    private final String algorithm;
+    private final byte[] key;
+    private final Mac prototype;
+
+    public HmacKey(String algorithm, byte[] key) throws KrbException {
+        this.algorithm = algorithm;
+        this.key = key;
+        this.prototype = makePrototype(algorithm, key);
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public byte[] hmac(byte[] data) throws KrbException {
+        return hmac(data, 0, data.length);
+    }
+
+    public byte[] hmac(byte[] data, int start, int len) throws KrbException {
+        Mac mac = newMac();
+        mac.update(data, start, len);
+        return mac.doFinal();
+    }
+
+    /**
+     * Get a Mac keyed with this key and ready for update calls. It's owned
+     * by the caller until doFinal.
+     */
+    public Mac newMac() throws KrbException {
+        if (prototype != null) {
+            try {
+                return (Mac) prototype.clone();
+            } catch (CloneNotSupportedException e) {
+                // Checked when making the prototype, not expected here
+            }
+        }
+        return JceHmac.getMac(algorithm, key);
+    }
+
+    private static Mac makePrototype(String algorithm, byte[] key) throws KrbException {
+        Mac mac = JceHmac.newMac(algorithm, key);
+        // The inner pad is hashed lazily on the first update
+        mac.update(key, 0, 0);
+        try {
+            mac.clone();
+        } catch (CloneNotSupportedException e) {
+            return null;
+        }
+        return mac;
+    }
+}
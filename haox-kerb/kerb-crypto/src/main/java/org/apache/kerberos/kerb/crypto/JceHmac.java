@@ -0,0 +1,89 @@
+package org.apache.kerberos.kerb.crypto;
+
+import org.apache.kerberos.kerb.KrbException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HMAC backed by the JCE Mac engine, e.g. HmacSHA256 and HmacSHA384 as
+ * required by RFC 8009. Mac instances are kept per thread and per algorithm,
+ * since Mac.getInstance walks the provider list on every call. For a key
+ * used over many messages, see {@link HmacKey}.
+ */
+public class JceHmac {
+
+    private static Map<String, ThreadLocal<Mac>> macs =
+            new ConcurrentHashMap<String, ThreadLocal<Mac>>();
+
+    public static byte[] hmac(String algorithm, byte[] key,
+                              byte[] data) throws KrbException {
+        return hmac(algorithm, key, data, 0, data.length);
+    }
+
+    public static byte[] hmac(String algorithm, byte[] key, byte[] data,
+                              int start, int len) throws KrbException {
+        Mac mac = getMac(algorithm, key);
+        mac.update(data, start, len);
+        return mac.doFinal();
+    }
+
+    /**
+     * Get the Mac of this thread for the algorithm, initialized with the key
+     * and ready for update calls.
+     */
+    public static Mac getMac(String algorithm, byte[] key) throws KrbException {
+        Mac mac = getMac(algorithm);
+        try {
+            mac.init(new SecretKeySpec(key, algorithm));
+        } catch (GeneralSecurityException e) {
+            throw new KrbException("Failed to init " + algorithm, e);
+        }
+        return mac;
+    }
+
+    /**
+     * Make a new Mac for the algorithm initialized with the key, that isn't
+     * shared with any thread.
+     */
+    public static Mac newMac(String algorithm, byte[] key) throws KrbException {
+        Mac mac;
+        try {
+            mac = Mac.getInstance(algorithm);
+        } catch (GeneralSecurityException e) {
+            throw new KrbException("JCE provider may not be installed for " + algorithm, e);
+        }
+        try {
+            mac.init(new SecretKeySpec(key, algorithm));
+        } catch (GeneralSecurityException e) {
+            throw new KrbException("Failed to init " + algorithm, e);
+        }
+        return mac;
+    }
+
+    private static Mac getMac(final String algorithm) throws KrbException {
+        ThreadLocal<Mac> threadMac = macs.get(algorithm);
+        if (threadMac == null) {
+            threadMac = new ThreadLocal<Mac>() {
+                @Override
+                protected Mac initialValue() {
+                    try {
+                        return Mac.getInstance(algorithm);
+                    } catch (GeneralSecurityException e) {
+                        return null;
+                    }
+                }
+            };
+            macs.put(algorithm, threadMac);
+        }
+
+        Mac mac = threadMac.get();
+        if (mac == null) {
+            throw new KrbException("JCE provider may not be installed for " + algorithm);
+        }
+        return mac;
+    }
+}
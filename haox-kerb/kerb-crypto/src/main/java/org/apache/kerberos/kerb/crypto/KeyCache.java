@@ -0,0 +1,72 @@
+package org.apache.kerberos.kerb.crypto;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded cache of values computed from a key and a tag, like derived keys
+ * or key schedules, shared among threads. The cache simply starts over when
+ * full, which is fine as long as the working set of keys fits.
+ */
+public class KeyCache<V> {
+
+    private final int maxEntries;
+    private final ConcurrentMap<Entry, V> cache;
+    private final AtomicInteger count = new AtomicInteger();
+
+    public KeyCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.cache = new ConcurrentHashMap<Entry, V>();
+    }
+
+    public V get(byte[] key, byte[] tag) {
+        return cache.get(new Entry(key, tag));
+    }
+
+    /**
+     * Cache the value, returning the one already cached if another thread
+     * got there first.
+     */
+    public V put(byte[] key, byte[] tag, V value) {
+        if (count.incrementAndGet() > maxEntries) {
+            clear();
+        }
+        Entry entry = new Entry(key.clone(), tag.clone());
+        V existing = cache.putIfAbsent(entry, value);
+        return existing != null ? existing : value;
+    }
+
+    public void clear() {
+        cache.clear();
+        count.set(0);
+    }
+
+    private static class Entry {
+        private final byte[] key;
+        private final byte[] tag;
+        private final int hash;
+
+        Entry(byte[] key, byte[] tag) {
+            this.key = key;
+            this.tag = tag;
+            this.hash = 31 * Arrays.hashCode(key) + Arrays.hashCode(tag);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry)) return false;
+
+            Entry that = (Entry) o;
+            return hash == that.hash && Arrays.equals(key, that.key)
+                    && Arrays.equals(tag, that.tag);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -4,18 +4,122 @@ import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * PBKDF2 via the JCE SecretKeyFactory, kept per thread and per algorithm.
+ *
+ * Within a batch, see {@link #beginBatch()}, outputs are remembered so that
+ * a request with the same secret, salt, count and algorithm but a shorter key
+ * size is served from the longer output: PBKDF2 with a shorter dkLen yields a
+ * prefix of the same bytes. This lets aes128-cts and aes256-cts share one run.
+ */
 public class Pbkdf {
 
+    private static Map<String, ThreadLocal<SecretKeyFactory>> factories =
+            new ConcurrentHashMap<String, ThreadLocal<SecretKeyFactory>>();
+
+    private static final ThreadLocal<List<Output>> batchOutputs =
+            new ThreadLocal<List<Output>>();
+
     public static byte[] PBKDF2(char[] secret, byte[] salt,
                                    int count, int keySize) throws GeneralSecurityException {
+        return PBKDF2(secret, salt, count, keySize, "PBKDF2WithHmacSHA1");
+    }
+
+    public static byte[] PBKDF2(char[] secret, byte[] salt, int count,
+                                int keySize, String algorithm) throws GeneralSecurityException {
+
+        List<Output> outputs = batchOutputs.get();
+        if (outputs != null) {
+            for (Output output : outputs) {
+                if (output.matches(secret, salt, count, algorithm)
+                        && output.result.length >= keySize) {
+                    return Arrays.copyOf(output.result, keySize);
+                }
+            }
+        }
 
         PBEKeySpec ks = new PBEKeySpec(secret, salt, count, keySize * 8);
-        SecretKeyFactory skf =
-                SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+        SecretKeyFactory skf = getFactory(algorithm);
         SecretKey key = skf.generateSecret(ks);
+        ks.clearPassword();
         byte[] result = key.getEncoded();
 
+        if (outputs != null) {
+            outputs.add(new Output(secret, salt, count, algorithm, result));
+        }
+
         return result;
     }
+
+    /**
+     * Start remembering PBKDF2 outputs in this thread, for deriving several
+     * keys from the same password. Must be paired with {@link #endBatch()}.
+     * Callers deriving the longest key first get the most sharing.
+     */
+    public static void beginBatch() {
+        batchOutputs.set(new ArrayList<Output>(4));
+    }
+
+    /**
+     * Forget and wipe the outputs remembered since {@link #beginBatch()}.
+     */
+    public static void endBatch() {
+        List<Output> outputs = batchOutputs.get();
+        if (outputs != null) {
+            for (Output output : outputs) {
+                output.clear();
+            }
+            batchOutputs.remove();
+        }
+    }
+
+    private static SecretKeyFactory getFactory(
+            final String algorithm) throws NoSuchAlgorithmException {
+        ThreadLocal<SecretKeyFactory> threadFactory = factories.get(algorithm);
+        if (threadFactory == null) {
+            threadFactory = new ThreadLocal<SecretKeyFactory>();
+            factories.put(algorithm, threadFactory);
+        }
+
+        SecretKeyFactory skf = threadFactory.get();
+        if (skf == null) {
+            skf = SecretKeyFactory.getInstance(algorithm);
+            threadFactory.set(skf);
+        }
+        return skf;
+    }
+
+    private static class Output {
+        private final char[] secret;
+        private final byte[] salt;
+        private final int count;
+        private final String algorithm;
+        private final byte[] result;
+
+        Output(char[] secret, byte[] salt, int count, String algorithm, byte[] result) {
+            this.secret = secret.clone();
+            this.salt = salt.clone();
+            this.count = count;
+            this.algorithm = algorithm;
+            this.result = result.clone();
+        }
+
+        boolean matches(char[] secret, byte[] salt, int count, String algorithm) {
+            return this.count == count && this.algorithm.equals(algorithm)
+                    && Arrays.equals(this.salt, salt)
+                    && Arrays.equals(this.secret, secret);
+        }
+
+        void clear() {
+            Arrays.fill(secret, (char) 0);
+            Arrays.fill(result, (byte) 0);
+        }
+    }
 }
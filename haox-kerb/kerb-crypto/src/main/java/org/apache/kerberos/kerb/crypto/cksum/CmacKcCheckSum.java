@@ -3,6 +3,7 @@ package org.apache.kerberos.kerb.crypto.cksum;
 import org.apache.kerberos.kerb.crypto.Cmac;
 import org.apache.kerberos.kerb.crypto.enc.EncryptProvider;
 import org.apache.kerberos.kerb.KrbException;
+import org.apache.kerberos.kerb.crypto.key.DerivedKey;
 
 public abstract class CmacKcCheckSum extends KcCheckSum {
 
@@ -10,8 +11,8 @@ public abstract class CmacKcCheckSum extends KcCheckSum {
         super(encProvider, null, computeSize, outputSize);
     }
 
-    protected byte[] mac(byte[] Kc, byte[] data, int start, int len) throws KrbException {
-        byte[] mac = Cmac.cmac(encProvider(), Kc, data, start, len);
+    protected byte[] mac(DerivedKey Kc, byte[] data, int start, int len) throws KrbException {
+        byte[] mac = Cmac.cmac(encProvider(), Kc.getKey(), data, start, len);
         return mac;
     }
 }
@@ -1,9 +1,9 @@
 package org.apache.kerberos.kerb.crypto.cksum;
 
-import org.apache.kerberos.kerb.crypto.Hmac;
 import org.apache.kerberos.kerb.crypto.cksum.provider.Sha1Provider;
 import org.apache.kerberos.kerb.crypto.enc.EncryptProvider;
 import org.apache.kerberos.kerb.KrbException;
+import org.apache.kerberos.kerb.crypto.key.DerivedKey;
 
 public abstract class HmacKcCheckSum extends KcCheckSum {
 
@@ -11,8 +11,8 @@ public abstract class HmacKcCheckSum extends KcCheckSum {
         super(encProvider, new Sha1Provider(), computeSize, outputSize);
     }
 
-    protected byte[] mac(byte[] Kc, byte[] data, int start, int len) throws KrbException {
-        byte[] hmac = Hmac.hmac(hashProvider(), Kc, data, start, len);
+    protected byte[] mac(DerivedKey Kc, byte[] data, int start, int len) throws KrbException {
+        byte[] hmac = Kc.getHmacKey("HmacSHA1").hmac(data, start, len);
         return hmac;
     }
 }
@@ -1,6 +1,6 @@
 package org.apache.kerberos.kerb.crypto.cksum;
 
-import org.apache.kerberos.kerb.crypto.Hmac;
+import org.apache.kerberos.kerb.crypto.JceHmac;
 import org.apache.kerberos.kerb.crypto.Rc4;
 import org.apache.kerberos.kerb.crypto.cksum.provider.Md5Provider;
 import org.apache.kerberos.kerb.KrbException;
@@ -40,7 +40,7 @@ public class HmacMd5Rc4CheckSum extends AbstractKeyedCheckSumTypeHandler {
         byte[] signKey = "signaturekey".getBytes();
         byte[] newSignKey = new byte[signKey.length + 1];
         System.arraycopy(signKey, 0, newSignKey, 0, signKey.length);
-        Ksign = Hmac.hmac(hashProvider(), key, newSignKey);
+        Ksign = JceHmac.hmac("HmacMD5", key, newSignKey);
 
         byte[] salt = Rc4.getSalt(usage, false);
 
@@ -48,7 +48,7 @@ public class HmacMd5Rc4CheckSum extends AbstractKeyedCheckSumTypeHandler {
         hashProvider().hash(data, start, len);
         byte[] hashTmp = hashProvider().output();
 
-        byte[] hmac = Hmac.hmac(hashProvider(), Ksign, hashTmp);
+        byte[] hmac = JceHmac.hmac("HmacMD5", Ksign, hashTmp);
         return hmac;
     }
 }
@@ -0,0 +1,35 @@
+package org.apache.kerberos.kerb.crypto.cksum;
+
+import org.apache.kerberos.kerb.crypto.cksum.provider.Sha256Provider;
+import org.apache.kerberos.kerb.crypto.enc.provider.Aes128Provider;
+import org.apache.kerberos.kerb.crypto.key.AesSha2KeyMaker;
+import org.apache.kerberos.kerb.spec.common.CheckSumType;
+
+public class HmacSha256Aes128CheckSum extends HmacSha2KcCheckSum {
+
+    public HmacSha256Aes128CheckSum() {
+        super(new Aes128Provider(), new Sha256Provider(), 32, 16);
+
+        keyMaker(new AesSha2KeyMaker((Aes128Provider) encProvider()));
+    }
+
+    public int confounderSize() {
+        return 16;
+    }
+
+    public CheckSumType cksumType() {
+        return CheckSumType.HMAC_SHA256_128_AES128;
+    }
+
+    public boolean isSafe() {
+        return true;
+    }
+
+    public int cksumSize() {
+        return 16;  // bytes
+    }
+
+    public int keySize() {
+        return 16;   // bytes
+    }
+}
@@ -0,0 +1,20 @@
+package org.apache.kerberos.kerb.crypto.cksum;
+
+import org.apache.kerberos.kerb.KrbException;
+import org.apache.kerberos.kerb.crypto.enc.EncryptProvider;
+import org.apache.kerberos.kerb.crypto.key.AesSha2KeyMaker;
+import org.apache.kerberos.kerb.crypto.key.DerivedKey;
+
+public abstract class HmacSha2KcCheckSum extends KcCheckSum {
+
+    public HmacSha2KcCheckSum(EncryptProvider encProvider, HashProvider hashProvider,
+                              int computeSize, int outputSize) {
+        super(encProvider, hashProvider, computeSize, outputSize);
+    }
+
+    protected byte[] mac(DerivedKey Kc, byte[] data, int start, int len) throws KrbException {
+        String algorithm = ((AesSha2KeyMaker) keyMaker()).hmacAlgorithm();
+        byte[] hmac = Kc.getHmacKey(algorithm).hmac(data, start, len);
+        return hmac;
+    }
+}
@@ -0,0 +1,35 @@
+package org.apache.kerberos.kerb.crypto.cksum;
+
+import org.apache.kerberos.kerb.crypto.cksum.provider.Sha384Provider;
+import org.apache.kerberos.kerb.crypto.enc.provider.Aes256Provider;
+import org.apache.kerberos.kerb.crypto.key.AesSha2KeyMaker;
+import org.apache.kerberos.kerb.spec.common.CheckSumType;
+
+public class HmacSha384Aes256CheckSum extends HmacSha2KcCheckSum {
+
+    public HmacSha384Aes256CheckSum() {
+        super(new Aes256Provider(), new Sha384Provider(), 48, 24);
+
+        keyMaker(new AesSha2KeyMaker((Aes256Provider) encProvider()));
+    }
+
+    public int confounderSize() {
+        return 16;
+    }
+
+    public CheckSumType cksumType() {
+        return CheckSumType.HMAC_SHA384_192_AES256;
+    }
+
+    public boolean isSafe() {
+        return true;
+    }
+
+    public int cksumSize() {
+        return 24;  // bytes
+    }
+
+    public int keySize() {
+        return 32;   // bytes
+    }
+}
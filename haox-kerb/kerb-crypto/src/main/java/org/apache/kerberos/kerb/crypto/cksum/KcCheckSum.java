@@ -2,6 +2,7 @@ package org.apache.kerberos.kerb.crypto.cksum;
 
 import org.apache.kerberos.kerb.crypto.BytesUtil;
 import org.apache.kerberos.kerb.crypto.enc.EncryptProvider;
+import org.apache.kerberos.kerb.crypto.key.DerivedKey;
 import org.apache.kerberos.kerb.crypto.key.DkKeyMaker;
 import org.apache.kerberos.kerb.KrbException;
 
@@ -15,15 +16,15 @@ public abstract class KcCheckSum extends AbstractKeyedCheckSumTypeHandler {
     @Override
     protected byte[] doChecksumWithKey(byte[] data, int start, int len,
                                        byte[] key, int usage) throws KrbException {
-        byte[] Kc;
+        DerivedKey Kc;
         byte[] constant = new byte[5];
         BytesUtil.int2bytes(usage, constant, 0, true);
         constant[4] = (byte) 0x99;
-        Kc = ((DkKeyMaker) keyMaker()).dk(key, constant);
+        Kc = ((DkKeyMaker) keyMaker()).derive(key, constant);
 
         byte[] mac = mac(Kc, data, start, len);
         return mac;
     }
 
-    protected abstract byte[] mac(byte[] Kc, byte[] data, int start, int len) throws KrbException;
+    protected abstract byte[] mac(DerivedKey Kc, byte[] data, int start, int len) throws KrbException;
 }
@@ -1,6 +1,6 @@
 package org.apache.kerberos.kerb.crypto.cksum;
 
-import org.apache.kerberos.kerb.crypto.Hmac;
+import org.apache.kerberos.kerb.crypto.JceHmac;
 import org.apache.kerberos.kerb.crypto.Rc4;
 import org.apache.kerberos.kerb.crypto.cksum.provider.Md5Provider;
 import org.apache.kerberos.kerb.crypto.enc.provider.Rc4Provider;
@@ -45,7 +45,7 @@ public class Md5HmacRc4CheckSum extends AbstractKeyedCheckSumTypeHandler {
         hashProvider().hash(data, start, len);
         byte[] hashTmp = hashProvider().output();
 
-        byte[] hmac = Hmac.hmac(hashProvider(), Ksign, hashTmp);
+        byte[] hmac = JceHmac.hmac("HmacMD5", Ksign, hashTmp);
         return hmac;
     }
 }
@@ -0,0 +1,8 @@
+package org.apache.kerberos.kerb.crypto.cksum.provider;
+
+public class Sha256Provider extends MessageDigestHashProvider {
+
+    public Sha256Provider() {
+        super(32, 64, "SHA-256");
+    }
+}
@@ -0,0 +1,8 @@
+package org.apache.kerberos.kerb.crypto.cksum.provider;
+
+public class Sha384Provider extends MessageDigestHashProvider {
+
+    public Sha384Provider() {
+        super(48, 128, "SHA-384");
+    }
+}
@@ -0,0 +1,24 @@
+package org.apache.kerberos.kerb.crypto.enc;
+
+import org.apache.kerberos.kerb.crypto.cksum.provider.Sha256Provider;
+import org.apache.kerberos.kerb.crypto.enc.provider.Aes128Provider;
+import org.apache.kerberos.kerb.crypto.enc.provider.AesProvider;
+import org.apache.kerberos.kerb.crypto.key.AesSha2KeyMaker;
+import org.apache.kerberos.kerb.spec.common.CheckSumType;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+
+public class Aes128CtsHmacSha256Enc extends KeKiHmacSha2Enc {
+
+    public Aes128CtsHmacSha256Enc() {
+        super(new Aes128Provider(), new Sha256Provider());
+        keyMaker(new AesSha2KeyMaker((AesProvider) encProvider()));
+    }
+
+    public EncryptionType eType() {
+        return EncryptionType.AES128_CTS_HMAC_SHA256_128;
+    }
+
+    public CheckSumType checksumType() {
+        return CheckSumType.HMAC_SHA256_128_AES128;
+    }
+}
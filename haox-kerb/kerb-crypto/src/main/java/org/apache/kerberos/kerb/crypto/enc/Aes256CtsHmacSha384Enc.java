@@ -0,0 +1,24 @@
+package org.apache.kerberos.kerb.crypto.enc;
+
+import org.apache.kerberos.kerb.crypto.cksum.provider.Sha384Provider;
+import org.apache.kerberos.kerb.crypto.enc.provider.Aes256Provider;
+import org.apache.kerberos.kerb.crypto.enc.provider.AesProvider;
+import org.apache.kerberos.kerb.crypto.key.AesSha2KeyMaker;
+import org.apache.kerberos.kerb.spec.common.CheckSumType;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+
+public class Aes256CtsHmacSha384Enc extends KeKiHmacSha2Enc {
+
+    public Aes256CtsHmacSha384Enc() {
+        super(new Aes256Provider(), new Sha384Provider());
+        keyMaker(new AesSha2KeyMaker((AesProvider) encProvider()));
+    }
+
+    public EncryptionType eType() {
+        return EncryptionType.AES256_CTS_HMAC_SHA384_192;
+    }
+
+    public CheckSumType checksumType() {
+        return CheckSumType.HMAC_SHA384_192_AES256;
+    }
+}
@@ -2,6 +2,7 @@ package org.apache.kerberos.kerb.crypto.enc;
 
 import org.apache.kerberos.kerb.crypto.Cmac;
 import org.apache.kerberos.kerb.KrbException;
+import org.apache.kerberos.kerb.crypto.key.DerivedKey;
 
 public abstract class KeKiCmacEnc extends KeKiEnc {
 
@@ -20,11 +21,11 @@ public abstract class KeKiCmacEnc extends KeKiEnc {
     }
 
     @Override
-    protected byte[] makeChecksum(byte[] key, byte[] data, int hashSize)
+    protected byte[] makeChecksum(DerivedKey key, byte[] data, int hashSize)
             throws KrbException {
 
         // generate hash
-        byte[] hash = Cmac.cmac(encProvider(), key, data);
+        byte[] hash = Cmac.cmac(encProvider(), key.getKey(), data);
 
         // truncate hash
         byte[] output = new byte[hashSize];
@@ -4,6 +4,7 @@ import org.apache.kerberos.kerb.KrbErrorCode;
 import org.apache.kerberos.kerb.crypto.BytesUtil;
 import org.apache.kerberos.kerb.crypto.Confounder;
 import org.apache.kerberos.kerb.crypto.cksum.HashProvider;
+import org.apache.kerberos.kerb.crypto.key.DerivedKey;
 import org.apache.kerberos.kerb.crypto.key.DkKeyMaker;
 import org.apache.kerberos.kerb.KrbException;
 
@@ -28,16 +29,17 @@ public abstract class KeKiEnc extends AbstractEncTypeHandler {
         int inputLen = workLens[2];
         int paddingLen = workLens[3];
 
-        byte[] Ke, Ki;
+        byte[] Ke;
+        DerivedKey Ki;
         byte[] constant = new byte[5];
         constant[0] = (byte) ((usage>>24)&0xff);
         constant[1] = (byte) ((usage>>16)&0xff);
         constant[2] = (byte) ((usage>>8)&0xff);
         constant[3] = (byte) (usage&0xff);
         constant[4] = (byte) 0xaa;
-        Ke = ((DkKeyMaker) keyMaker()).dk(key, constant);
+        Ke = ((DkKeyMaker) keyMaker()).derive(key, constant).getKey();
         constant[4] = (byte) 0x55;
-        Ki = ((DkKeyMaker) keyMaker()).dk(key, constant);
+        Ki = ((DkKeyMaker) keyMaker()).derive(key, constant);
 
         /**
          * Instead of E(Confounder | Checksum | Plaintext | Padding),
@@ -75,13 +77,14 @@ public abstract class KeKiEnc extends AbstractEncTypeHandler {
         int checksumLen = workLens[1];
         int dataLen = workLens[2];
 
-        byte[] Ke, Ki;
+        byte[] Ke;
+        DerivedKey Ki;
         byte[] constant = new byte[5];
         BytesUtil.int2bytes(usage, constant, 0, true);
         constant[4] = (byte) 0xaa;
-        Ke = ((DkKeyMaker) keyMaker()).dk(key, constant);
+        Ke = ((DkKeyMaker) keyMaker()).derive(key, constant).getKey();
         constant[4] = (byte) 0x55;
-        Ki = ((DkKeyMaker) keyMaker()).dk(key, constant);
+        Ki = ((DkKeyMaker) keyMaker()).derive(key, constant);
 
         // decrypt and verify checksum
 
@@ -105,6 +108,6 @@ public abstract class KeKiEnc extends AbstractEncTypeHandler {
         return data;
     }
 
-    protected abstract byte[] makeChecksum(byte[] key, byte[] data, int hashSize)
+    protected abstract byte[] makeChecksum(DerivedKey key, byte[] data, int hashSize)
             throws KrbException;
 }
@@ -1,8 +1,8 @@
 package org.apache.kerberos.kerb.crypto.enc;
 
-import org.apache.kerberos.kerb.crypto.Hmac;
 import org.apache.kerberos.kerb.crypto.cksum.HashProvider;
 import org.apache.kerberos.kerb.KrbException;
+import org.apache.kerberos.kerb.crypto.key.DerivedKey;
 
 public abstract class KeKiHmacSha1Enc extends KeKiEnc {
 
@@ -17,11 +17,11 @@ public abstract class KeKiHmacSha1Enc extends KeKiEnc {
     }
 
     @Override
-    protected byte[] makeChecksum(byte[] key, byte[] data, int hashSize)
+    protected byte[] makeChecksum(DerivedKey key, byte[] data, int hashSize)
             throws KrbException {
 
         // generate hash
-        byte[] hash = Hmac.hmac(hashProvider(), key, data);
+        byte[] hash = key.getHmacKey("HmacSHA1").hmac(data);
 
         // truncate hash
         byte[] output = new byte[hashSize];
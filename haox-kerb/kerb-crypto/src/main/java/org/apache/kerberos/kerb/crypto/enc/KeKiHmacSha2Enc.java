@@ -0,0 +1,122 @@
+package org.apache.kerberos.kerb.crypto.enc;
+
+import org.apache.kerberos.kerb.KrbErrorCode;
+import org.apache.kerberos.kerb.KrbException;
+import org.apache.kerberos.kerb.crypto.BytesUtil;
+import org.apache.kerberos.kerb.crypto.Confounder;
+import org.apache.kerberos.kerb.crypto.cksum.HashProvider;
+import org.apache.kerberos.kerb.crypto.key.AesSha2KeyMaker;
+import org.apache.kerberos.kerb.crypto.key.DerivedKey;
+
+import javax.crypto.Mac;
+
+/**
+ * Encrypt-then-MAC as per RFC 8009 section 5, with the MAC computed over
+ * the cipher state and the ciphertext rather than over the plaintext:
+ * C = E(Ke, N | plaintext, IV), H = HMAC(Ki, IV | C), output C | H
+ */
+public abstract class KeKiHmacSha2Enc extends KeKiEnc {
+
+    public KeKiHmacSha2Enc(EncryptProvider encProvider,
+                           HashProvider hashProvider) {
+        super(encProvider, hashProvider);
+    }
+
+    @Override
+    public int paddingSize() {
+        return 0;
+    }
+
+    @Override
+    public int checksumSize() {
+        return keyMaker().macSize();
+    }
+
+    @Override
+    protected AesSha2KeyMaker keyMaker() {
+        return (AesSha2KeyMaker) super.keyMaker();
+    }
+
+    @Override
+    protected void encryptWith(byte[] workBuffer, int[] workLens,
+                               byte[] key, byte[] iv, int usage) throws KrbException {
+        int confounderLen = workLens[0];
+        int checksumLen = workLens[1];
+        int inputLen = workLens[2];
+
+        byte[] constant = new byte[5];
+        BytesUtil.int2bytes(usage, constant, 0, true);
+        constant[4] = (byte) 0xaa;
+        byte[] Ke = keyMaker().derive(key, constant).getKey();
+        constant[4] = (byte) 0x55;
+        DerivedKey Ki = keyMaker().derive(key, constant);
+
+        byte[] tmpEnc = new byte[confounderLen + inputLen];
+        // confounder
+        byte[] confounder = Confounder.makeBytes(confounderLen);
+        System.arraycopy(confounder, 0, tmpEnc, 0, confounderLen);
+
+        // data
+        System.arraycopy(workBuffer, confounderLen + checksumLen,
+                tmpEnc, confounderLen, inputLen);
+
+        // the checksum covers the cipher state before it's used
+        byte[] cipherState = iv.clone();
+        encProvider().encrypt(Ke, iv, tmpEnc);
+        byte[] checksum = makeChecksum(Ki, cipherState, tmpEnc, checksumLen);
+
+        System.arraycopy(tmpEnc, 0, workBuffer, 0, tmpEnc.length);
+        System.arraycopy(checksum, 0, workBuffer, tmpEnc.length, checksumLen);
+    }
+
+    @Override
+    protected byte[] decryptWith(byte[] workBuffer, int[] workLens,
+                                 byte[] key, byte[] iv, int usage) throws KrbException {
+        int confounderLen = workLens[0];
+        int checksumLen = workLens[1];
+        int dataLen = workLens[2];
+
+        byte[] constant = new byte[5];
+        BytesUtil.int2bytes(usage, constant, 0, true);
+        constant[4] = (byte) 0xaa;
+        byte[] Ke = keyMaker().derive(key, constant).getKey();
+        constant[4] = (byte) 0x55;
+        DerivedKey Ki = keyMaker().derive(key, constant);
+
+        byte[] tmpEnc = new byte[confounderLen + dataLen];
+        System.arraycopy(workBuffer, 0,
+                tmpEnc, 0, confounderLen + dataLen);
+
+        // verify the checksum first, no need to decrypt on mismatch
+        byte[] newChecksum = makeChecksum(Ki, iv, tmpEnc, checksumLen);
+        if (! checksumEqual(newChecksum, workBuffer,
+                confounderLen + dataLen, checksumLen)) {
+            throw new KrbException(KrbErrorCode.KRB_AP_ERR_BAD_INTEGRITY);
+        }
+
+        encProvider().decrypt(Ke, iv, tmpEnc);
+
+        byte[] data = new byte[dataLen];
+        System.arraycopy(tmpEnc, confounderLen, data, 0, dataLen);
+        return data;
+    }
+
+    protected byte[] makeChecksum(DerivedKey key, byte[] iv, byte[] cipher,
+                                  int hashSize) throws KrbException {
+        Mac mac = key.getHmacKey(keyMaker().hmacAlgorithm()).newMac();
+        mac.update(iv);
+        mac.update(cipher);
+        byte[] hash = mac.doFinal();
+
+        // truncate hash
+        byte[] output = new byte[hashSize];
+        System.arraycopy(hash, 0, output, 0, hashSize);
+        return output;
+    }
+
+    @Override
+    protected byte[] makeChecksum(DerivedKey key, byte[] data, int hashSize)
+            throws KrbException {
+        return makeChecksum(key, new byte[0], data, hashSize);
+    }
+}
@@ -4,15 +4,21 @@ import org.apache.kerberos.kerb.KrbErrorCode;
 import org.apache.kerberos.kerb.crypto.BytesUtil;
 import org.apache.kerberos.kerb.crypto.Confounder;
 import org.apache.kerberos.kerb.crypto.Rc4;
-import org.apache.kerberos.kerb.crypto.Hmac;
+import org.apache.kerberos.kerb.crypto.JceHmac;
 import org.apache.kerberos.kerb.crypto.cksum.provider.Md5Provider;
 import org.apache.kerberos.kerb.crypto.enc.provider.Rc4Provider;
+import org.apache.kerberos.kerb.crypto.key.DerivedKey;
+import org.apache.kerberos.kerb.crypto.key.DerivedKeyCache;
 import org.apache.kerberos.kerb.crypto.key.Rc4KeyMaker;
 import org.apache.kerberos.kerb.KrbException;
 import org.apache.kerberos.kerb.spec.common.CheckSumType;
 import org.apache.kerberos.kerb.spec.common.EncryptionType;
 
 public class Rc4HmacEnc extends AbstractEncTypeHandler {
+    private static final String HMAC_MD5 = "HmacMD5";
+    // usage keys by (key, salt), the salt telling apart exportable or not
+    private static final DerivedKeyCache USAGE_KEYS = new DerivedKeyCache(4096);
+
     private boolean exportable;
 
     public Rc4HmacEnc() {
@@ -61,12 +67,12 @@ public class Rc4HmacEnc extends AbstractEncTypeHandler {
         // no padding
 
         /* checksum and encryption */
-        byte[] usageKey = makeUsageKey(key, usage);
+        DerivedKey usageKey = makeUsageKey(key, usage);
 
-        byte[] checksum = Hmac.hmac(hashProvider(), usageKey, workBuffer,
+        byte[] checksum = usageKey.getHmacKey(HMAC_MD5).hmac(workBuffer,
                 checksumLen, confounderLen + dataLen);
 
-        byte[] encKey = makeEncKey(usageKey, checksum);
+        byte[] encKey = makeEncKey(usageKey.getKey(), checksum);
 
         byte[] tmpEnc = new byte[confounderLen + dataLen];
         System.arraycopy(workBuffer, checksumLen,
@@ -76,9 +82,12 @@ public class Rc4HmacEnc extends AbstractEncTypeHandler {
         System.arraycopy(tmpEnc, 0, workBuffer, checksumLen, tmpEnc.length);
     }
 
-    protected byte[] makeUsageKey(byte[] key, int usage) throws KrbException {
+    protected DerivedKey makeUsageKey(byte[] key, int usage) throws KrbException {
         byte[] salt = Rc4.getSalt(usage, exportable);
-        byte[] usageKey = Hmac.hmac(hashProvider(), key, salt);
+        DerivedKey usageKey = USAGE_KEYS.get(key, salt);
+        if (usageKey == null) {
+            usageKey = USAGE_KEYS.put(key, salt, JceHmac.hmac(HMAC_MD5, key, salt));
+        }
         return usageKey;
     }
 
@@ -92,7 +101,7 @@ public class Rc4HmacEnc extends AbstractEncTypeHandler {
             }
         }
 
-        byte[] encKey = Hmac.hmac(hashProvider(), tmpKey, checksum);
+        byte[] encKey = JceHmac.hmac(HMAC_MD5, tmpKey, checksum);
         return encKey;
     }
 
@@ -104,19 +113,19 @@ public class Rc4HmacEnc extends AbstractEncTypeHandler {
         int dataLen = workLens[2];
 
         /* checksum and decryption */
-        byte[] usageKey = makeUsageKey(key, usage);
+        DerivedKey usageKey = makeUsageKey(key, usage);
 
         byte[] checksum = new byte[checksumLen];
         System.arraycopy(workBuffer, 0, checksum, 0, checksumLen);
 
-        byte[] encKey = makeEncKey(usageKey, checksum);
+        byte[] encKey = makeEncKey(usageKey.getKey(), checksum);
 
         byte[] tmpEnc = new byte[confounderLen + dataLen];
         System.arraycopy(workBuffer, checksumLen,
                 tmpEnc, 0, confounderLen + dataLen);
         encProvider().decrypt(encKey, iv, tmpEnc);
 
-        byte[] newChecksum = Hmac.hmac(hashProvider(), usageKey, tmpEnc);
+        byte[] newChecksum = usageKey.getHmacKey(HMAC_MD5).hmac(tmpEnc);
         if (! checksumEqual(checksum, newChecksum)) {
             throw new KrbException(KrbErrorCode.KRB_AP_ERR_BAD_INTEGRITY);
         }
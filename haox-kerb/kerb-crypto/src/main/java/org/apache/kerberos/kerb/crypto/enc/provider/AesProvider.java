@@ -9,6 +9,21 @@ import java.security.GeneralSecurityException;
 
 public abstract class AesProvider extends AbstractEncryptProvider {
 
+    /**
+     * Cipher.getInstance is costly compared to encrypting a few blocks,
+     * so keep one engine per thread and just init it per use.
+     */
+    private static ThreadLocal<Cipher> ctsCipher = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance("AES/CTS/NoPadding");
+            } catch (GeneralSecurityException e) {
+                return null;
+            }
+        }
+    };
+
     public AesProvider(int blockSize, int keyInputSize, int keySize) {
         super(blockSize, keyInputSize, keySize);
     }
@@ -16,14 +31,10 @@ public abstract class AesProvider extends AbstractEncryptProvider {
     @Override
     protected void doEncrypt(byte[] data, byte[] key,
                                   byte[] cipherState, boolean encrypt) throws KrbException {
-        Cipher cipher = null;
-        try {
-            cipher = Cipher.getInstance("AES/CTS/NoPadding");
-        } catch (GeneralSecurityException e) {
-            KrbException ke = new KrbException("JCE provider may not be installed. "
-                    + e.getMessage());
-            ke.initCause(e);
-            throw ke;
+        Cipher cipher = ctsCipher.get();
+        if (cipher == null) {
+            throw new KrbException("JCE provider may not be installed. "
+                    + "AES/CTS/NoPadding isn't available");
         }
 
         try {
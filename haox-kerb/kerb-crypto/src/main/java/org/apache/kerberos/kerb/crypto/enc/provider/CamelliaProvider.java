@@ -5,6 +5,14 @@ import org.apache.kerberos.kerb.KrbException;
 
 public abstract class CamelliaProvider extends AbstractEncryptProvider {
 
+    // Camellia instances hold scratch buffers, so one per thread
+    private static ThreadLocal<Camellia> threadCipher = new ThreadLocal<Camellia>() {
+        @Override
+        protected Camellia initialValue() {
+            return new Camellia();
+        }
+    };
+
     public CamelliaProvider(int blockSize, int keyInputSize, int keySize) {
         super(blockSize, keyInputSize, keySize);
     }
@@ -13,7 +21,7 @@ public abstract class CamelliaProvider extends AbstractEncryptProvider {
     protected void doEncrypt(byte[] data, byte[] key,
                              byte[] cipherState, boolean encrypt) throws KrbException {
 
-        Camellia cipher = new Camellia();
+        Camellia cipher = threadCipher.get();
         cipher.setKey(encrypt, key);
         if (encrypt) {
             cipher.encrypt(data, cipherState);
@@ -29,7 +37,7 @@ public abstract class CamelliaProvider extends AbstractEncryptProvider {
 
     @Override
     public byte[] cbcMac(byte[] key, byte[] cipherState, byte[] data) {
-        Camellia cipher = new Camellia();
+        Camellia cipher = threadCipher.get();
         cipher.setKey(true, key);
 
         int blocksNum = data.length / blockSize();
@@ -9,10 +9,17 @@ import java.security.GeneralSecurityException;
 
 public class AesKeyMaker extends DkKeyMaker {
 
+    private static final DerivedKeyCache DK_CACHE = new DerivedKeyCache(4096);
+
     public AesKeyMaker(AesProvider encProvider) {
         super(encProvider);
     }
 
+    @Override
+    protected DerivedKeyCache dkCache() {
+        return DK_CACHE;
+    }
+
     @Override
     public byte[] random2Key(byte[] randomBits) throws KrbException {
         return randomBits;
@@ -0,0 +1,127 @@
+package org.apache.kerberos.kerb.crypto.key;
+
+import org.apache.kerberos.kerb.KrbException;
+import org.apache.kerberos.kerb.crypto.BytesUtil;
+import org.apache.kerberos.kerb.crypto.JceHmac;
+import org.apache.kerberos.kerb.crypto.Pbkdf;
+import org.apache.kerberos.kerb.crypto.enc.provider.AesProvider;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+
+/**
+ * Key maker for aes128-cts-hmac-sha256-128 and aes256-cts-hmac-sha384-192,
+ * based on RFC 8009. Derived keys are cached, see {@link DerivedKeyCache}.
+ */
+public class AesSha2KeyMaker extends DkKeyMaker {
+
+    private static final DerivedKeyCache DK_CACHE = new DerivedKeyCache(4096);
+
+    private final String hmacAlgorithm;
+    private final String pbkdfAlgorithm;
+    private final String pepper;
+    private final int macSize;
+
+    public AesSha2KeyMaker(AesProvider encProvider) {
+        super(encProvider);
+
+        if (encProvider.keySize() == 16) {
+            hmacAlgorithm = "HmacSHA256";
+            pbkdfAlgorithm = "PBKDF2WithHmacSHA256";
+            pepper = "aes128-cts-hmac-sha256-128";
+            macSize = 16;
+        } else {
+            hmacAlgorithm = "HmacSHA384";
+            pbkdfAlgorithm = "PBKDF2WithHmacSHA384";
+            pepper = "aes256-cts-hmac-sha384-192";
+            macSize = 24;
+        }
+    }
+
+    public String hmacAlgorithm() {
+        return hmacAlgorithm;
+    }
+
+    public int macSize() {
+        return macSize;
+    }
+
+    @Override
+    public byte[] random2Key(byte[] randomBits) throws KrbException {
+        return randomBits;
+    }
+
+    /*
+     * saltp = enctype-name | 0x00 | salt
+     * tkey = random2key(PBKDF2(passphrase, saltp, iter_count, keylength))
+     * base-key = random2key(KDF-HMAC-SHA2(tkey, "kerberos", keylength))
+     */
+    @Override
+    public byte[] str2key(String string, String salt, byte[] param) throws KrbException {
+        int iterCount = getIterCount(param, 32768);
+
+        byte[] saltBytes = null;
+        try {
+            saltBytes = getSaltBytes(salt, pepper);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+
+        int keySize = encProvider().keySize();
+        byte[] random = new byte[0];
+        try {
+            random = Pbkdf.PBKDF2(string.toCharArray(), saltBytes,
+                    iterCount, keySize, pbkdfAlgorithm);
+        } catch (GeneralSecurityException e) {
+            throw new KrbException("PBKDF2 failed", e);
+        }
+
+        byte[] tmpKey = random2Key(random);
+        byte[] result = random2Key(kdfHmacSha2(tmpKey, KERBEROS_CONSTANT, keySize));
+
+        return result;
+    }
+
+    @Override
+    protected DerivedKeyCache dkCache() {
+        return DK_CACHE;
+    }
+
+    /**
+     * Ke is of the key length, while Ki and Kc are truncated to the
+     * length of the checksum, as RFC 8009 section 5 lays out.
+     */
+    @Override
+    protected byte[] dr(byte[] key, byte[] constant) throws KrbException {
+        return kdfHmacSha2(key, constant, derivedKeySize(constant));
+    }
+
+    private int derivedKeySize(byte[] constant) {
+        if (constant.length == 5) {
+            byte type = constant[4];
+            if (type == (byte) 0x55 || type == (byte) 0x99) {
+                return macSize;
+            }
+        }
+        return encProvider().keySize();
+    }
+
+    /*
+     * NIST SP800-108 KDF in counter mode with HMAC-SHA256 or HMAC-SHA384,
+     * with a single iteration as no derived key exceeds the hash size:
+     * KDF-HMAC-SHA2(key, label, k) = k-truncate(HMAC(key, 1 | label | 0x00 | k))
+     */
+    public byte[] kdfHmacSha2(byte[] key, byte[] label, int keySize) throws KrbException {
+        byte[] input = new byte[4 + label.length + 1 + 4];
+        BytesUtil.int2bytes(1, input, 0, true);
+        System.arraycopy(label, 0, input, 4, label.length);
+        input[4 + label.length] = 0;
+        BytesUtil.int2bytes(keySize * 8, input, input.length - 4, true);
+
+        byte[] hmac = JceHmac.hmac(hmacAlgorithm, key, input);
+        byte[] result = new byte[keySize];
+        System.arraycopy(hmac, 0, result, 0, keySize);
+
+        return result;
+    }
+}
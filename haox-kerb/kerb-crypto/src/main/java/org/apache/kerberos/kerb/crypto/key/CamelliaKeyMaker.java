@@ -11,10 +11,17 @@ import java.security.GeneralSecurityException;
 
 public class CamelliaKeyMaker extends DkKeyMaker {
 
+    private static final DerivedKeyCache DK_CACHE = new DerivedKeyCache(4096);
+
     public CamelliaKeyMaker(CamelliaProvider encProvider) {
         super(encProvider);
     }
 
+    @Override
+    protected DerivedKeyCache dkCache() {
+        return DK_CACHE;
+    }
+
     @Override
     public byte[] random2Key(byte[] randomBits) throws KrbException {
         return randomBits;
@@ -0,0 +1,31 @@
+package org.apache.kerberos.kerb.crypto.key;
+
+import org.apache.kerberos.kerb.KrbException;
+import org.apache.kerberos.kerb.crypto.HmacKey;
+
+/**
+ * A key derived as Ke, Ki or Kc, along with the HMAC state prepared from it
+ * on first use, so both can be cached together in {@link DerivedKeyCache}.
+ */
+public class DerivedKey {
+
+    private final byte[] key;
+    private volatile HmacKey hmacKey;
+
+    public DerivedKey(byte[] key) {
+        this.key = key;
+    }
+
+    public byte[] getKey() {
+        return key;
+    }
+
+    public HmacKey getHmacKey(String algorithm) throws KrbException {
+        HmacKey result = hmacKey;
+        if (result == null || ! result.getAlgorithm().equals(algorithm)) {
+            result = new HmacKey(algorithm, key);
+            hmacKey = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,38 @@
+package org.apache.kerberos.kerb.crypto.key;
+
+import org.apache.kerberos.kerb.crypto.KeyCache;
+
+/**
+ * Cache of keys derived from a base key and a derivation constant, so that
+ * the Ke/Ki/Kc derivation is done once per (base key, constant) rather than
+ * once per message. The cache is bounded and simply starts over when full.
+ * Entries are {@link DerivedKey}s so state prepared from a derived key, like
+ * the keyed HMAC, is cached alongside it.
+ *
+ * A cache must only be shared by key makers using the same derivation
+ * function, since the base key and constant alone don't identify it.
+ */
+public class DerivedKeyCache {
+
+    private final KeyCache<DerivedKey> cache;
+
+    public DerivedKeyCache(int maxEntries) {
+        this.cache = new KeyCache<DerivedKey>(maxEntries);
+    }
+
+    public DerivedKey get(byte[] baseKey, byte[] constant) {
+        return cache.get(baseKey, constant);
+    }
+
+    /**
+     * Cache the derived key, returning the one already cached if another
+     * thread got there first.
+     */
+    public DerivedKey put(byte[] baseKey, byte[] constant, byte[] derivedKey) {
+        return cache.put(baseKey, constant, new DerivedKey(derivedKey));
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+}
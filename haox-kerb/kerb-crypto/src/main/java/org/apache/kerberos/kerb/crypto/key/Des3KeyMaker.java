@@ -9,10 +9,17 @@ import java.io.UnsupportedEncodingException;
 
 public class Des3KeyMaker extends DkKeyMaker {
 
+    private static final DerivedKeyCache DK_CACHE = new DerivedKeyCache(4096);
+
     public Des3KeyMaker(EncryptProvider encProvider) {
         super(encProvider);
     }
 
+    @Override
+    protected DerivedKeyCache dkCache() {
+        return DK_CACHE;
+    }
+
     @Override
     public byte[] str2key(String string, String salt, byte[] param) throws KrbException {
         char[] passwdSalt = makePasswdSalt(string, salt);
@@ -15,6 +15,32 @@ public abstract class DkKeyMaker extends AbstractKeyMaker {
         return random2Key(dr(key, constant));
     }
 
+    /**
+     * DK for keys used per message, like Ke, Ki and Kc, looked up in the
+     * cache of the key maker if it has one. Not meant for password derived
+     * keys in str2key, which aren't worth keeping around.
+     */
+    public DerivedKey derive(byte[] key, byte[] constant) throws KrbException {
+        DerivedKeyCache cache = dkCache();
+        if (cache == null) {
+            return new DerivedKey(dk(key, constant));
+        }
+
+        DerivedKey result = cache.get(key, constant);
+        if (result == null) {
+            result = cache.put(key, constant, dk(key, constant));
+        }
+        return result;
+    }
+
+    /**
+     * The cache for derived keys, shared only among key makers with the same
+     * derivation function. None by default.
+     */
+    protected DerivedKeyCache dkCache() {
+        return null;
+    }
+
     /*
      * K1 = E(Key, n-fold(Constant), initial-cipher-state)
      * K2 = E(Key, K1, initial-cipher-state)
@@ -105,6 +105,25 @@ public class CheckSumsTest {
                     CheckSumType.CMAC_CAMELLIA256, EncryptionType.CAMELLIA256_CTS_CMAC, 10,
                     "32164C5B434D1D1538E4CFD9BE8040FE8C4AC7ACC4B93D3314D2133668147A05",
                     "3FA0B42355E52B189187294AA252AB64"
+            ),
+            // Test vectors from RFC 8009 appendix A.
+            new CksumTest(
+                    "\u0000\u0001\u0002\u0003\u0004\u0005\u0006\u0007" +
+                            "\u0008\u0009\n\u000b\u000c\r\u000e\u000f" +
+                            "\u0010\u0011\u0012\u0013\u0014",
+                    CheckSumType.HMAC_SHA256_128_AES128, EncryptionType.AES128_CTS_HMAC_SHA256_128, 2,
+                    "3705D96080C17728A0E800EAB6E0D23C",
+                    "D78367186643D67B411CBA9139FC1DEE"
+            ),
+            new CksumTest(
+                    "\u0000\u0001\u0002\u0003\u0004\u0005\u0006\u0007" +
+                            "\u0008\u0009\n\u000b\u000c\r\u000e\u000f" +
+                            "\u0010\u0011\u0012\u0013\u0014",
+                    CheckSumType.HMAC_SHA384_192_AES256, EncryptionType.AES256_CTS_HMAC_SHA384_192, 2,
+                    "6D404D37FAF79F9DF0D33568D3206698" +
+                            "00EB4836472EA8A026D16B7182460C52",
+                    "45EE791567EEFCA37F4AC1E0222DE80D" +
+                            "43C3BFA06699672A"
             )
     };
 
@@ -61,5 +61,11 @@ public class CmacTest {
         // test 4
         result = Cmac.cmac(encProvider, key, input, 0, 64);
         Assert.assertArrayEquals("Test 4", TestUtil.hex2bytes(cmac4), result);
+
+        // test 3 again, with the data not at the start of the buffer
+        byte[] shifted = new byte[input.length + 5];
+        System.arraycopy(input, 0, shifted, 5, input.length);
+        result = Cmac.cmac(encProvider, key, shifted, 5, 40);
+        Assert.assertArrayEquals("Test 3 with offset", TestUtil.hex2bytes(cmac3), result);
     }
 }
@@ -435,6 +435,23 @@ public class DecryptionTest {
                             "8E349DE6FD9ADA0BAAA048D68E265FEB" +
                             "F34AD1255A344999AD37146887A6C684" +
                             "5731AC7F46376A0504CD06571474"
+            ),
+            // Test vectors from RFC 8009 appendix A.
+            new TestCase(
+                    EncryptionType.AES128_CTS_HMAC_SHA256_128,
+                    "", 2,
+                    "3705D96080C17728A0E800EAB6E0D23C",
+                    "EF85FB890BB8472F4DAB20394DCA781D" +
+                            "AD877EDA39D50C870C0D5A0A8E48C718"
+            ),
+            new TestCase(
+                    EncryptionType.AES256_CTS_HMAC_SHA384_192,
+                    "", 2,
+                    "6D404D37FAF79F9DF0D33568D3206698" +
+                            "00EB4836472EA8A026D16B7182460C52",
+                    "41F53FA5BFE7026D91FAF9BE959195A0" +
+                            "58707273A96A40F0A01960621AC61274" +
+                            "8B9BBFBE7EB4CE3C"
             )
     };
 
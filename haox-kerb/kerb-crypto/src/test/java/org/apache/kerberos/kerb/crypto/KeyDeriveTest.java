@@ -2,6 +2,7 @@ package org.apache.kerberos.kerb.crypto;
 
 import org.apache.kerberos.kerb.crypto.enc.provider.*;
 import org.apache.kerberos.kerb.crypto.key.AesKeyMaker;
+import org.apache.kerberos.kerb.crypto.key.AesSha2KeyMaker;
 import org.apache.kerberos.kerb.crypto.key.CamelliaKeyMaker;
 import org.apache.kerberos.kerb.crypto.key.Des3KeyMaker;
 import org.apache.kerberos.kerb.crypto.key.DkKeyMaker;
@@ -148,6 +149,52 @@ public class KeyDeriveTest {
                     "0000000255",
                     "FA624FA0E523993FA388AEFDC67E67EB" +
                             "CD8C08E8A0246B1D73B0D1DD9FC582B0"
+            ),
+
+    /* Kc, Ke, Ki for an AES-128-SHA256 key, RFC 8009 appendix A */
+            new TestCase(
+                    EncryptionType.AES128_CTS_HMAC_SHA256_128,
+                    "3705D96080C17728A0E800EAB6E0D23C",
+                    "0000000299",
+                    "B31A018A48F54776F403E9A396325DC3"
+            ),
+            new TestCase(
+                    EncryptionType.AES128_CTS_HMAC_SHA256_128,
+                    "3705D96080C17728A0E800EAB6E0D23C",
+                    "00000002AA",
+                    "9B197DD1E8C5609D6E67C3E37C62C72E"
+            ),
+            new TestCase(
+                    EncryptionType.AES128_CTS_HMAC_SHA256_128,
+                    "3705D96080C17728A0E800EAB6E0D23C",
+                    "0000000255",
+                    "9FDA0E56AB2D85E1569A688696C26A6C"
+            ),
+
+    /* Kc, Ke, Ki for an AES-256-SHA384 key, RFC 8009 appendix A */
+            new TestCase(
+                    EncryptionType.AES256_CTS_HMAC_SHA384_192,
+                    "6D404D37FAF79F9DF0D33568D3206698" +
+                            "00EB4836472EA8A026D16B7182460C52",
+                    "0000000299",
+                    "EF5718BE86CC84963D8BBB5031E9F5C4" +
+                            "BA41F28FAF69E73D"
+            ),
+            new TestCase(
+                    EncryptionType.AES256_CTS_HMAC_SHA384_192,
+                    "6D404D37FAF79F9DF0D33568D3206698" +
+                            "00EB4836472EA8A026D16B7182460C52",
+                    "00000002AA",
+                    "56AB22BEE63D82D7BC5227F6773F8EA7" +
+                            "A5EB1C825160C38312980C442E5C7E49"
+            ),
+            new TestCase(
+                    EncryptionType.AES256_CTS_HMAC_SHA384_192,
+                    "6D404D37FAF79F9DF0D33568D3206698" +
+                            "00EB4836472EA8A026D16B7182460C52",
+                    "0000000255",
+                    "69B16514E3CD8E56B82010D5C73012B6" +
+                            "22C4D00FFC23ED1F"
             )
     };
 
@@ -163,6 +210,10 @@ public class KeyDeriveTest {
                 return new CamelliaKeyMaker(new Camellia128Provider());
             case CAMELLIA256_CTS_CMAC:
                 return new CamelliaKeyMaker(new Camellia256Provider());
+            case AES128_CTS_HMAC_SHA256_128:
+                return new AesSha2KeyMaker(new Aes128Provider());
+            case AES256_CTS_HMAC_SHA384_192:
+                return new AesSha2KeyMaker(new Aes256Provider());
             default:
                 return null;
         }
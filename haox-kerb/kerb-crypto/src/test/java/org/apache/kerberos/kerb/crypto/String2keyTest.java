@@ -6,6 +6,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Based on MIT krb5 t_str2key.c
@@ -416,6 +417,28 @@ public class String2keyTest {
         }
     }
 
+    /**
+     * Keys derived in a batch, with the PBKDF2 output shared, must match
+     * those derived one by one.
+     */
+    @Test
+    public void testString2KeysBatch() throws Exception {
+        List<EncryptionType> eTypes = Arrays.asList(
+                EncryptionType.AES128_CTS_HMAC_SHA1_96,
+                EncryptionType.DES3_CBC_SHA1,
+                EncryptionType.AES256_CTS_HMAC_SHA1_96);
+        String principal = "user@EXAMPLE.COM";
+        String password = "password";
+
+        List<EncryptionKey> keys = EncryptionHandler.string2Keys(principal, password, eTypes);
+        Assert.assertEquals(eTypes.size(), keys.size());
+        for (int i = 0; i < eTypes.size(); ++i) {
+            EncryptionKey expected = EncryptionHandler.string2Key(principal, password, eTypes.get(i));
+            Assert.assertEquals(eTypes.get(i), keys.get(i).getKeyType());
+            Assert.assertArrayEquals(expected.getKeyData(), keys.get(i).getKeyData());
+        }
+    }
+
     private boolean testWith(TestCase tc) throws Exception {
         byte[] answer = TestUtil.hex2bytes(tc.answer);
         byte[] params = tc.param != null ? TestUtil.hex2bytes(tc.param) : null;
@@ -0,0 +1,155 @@
+package org.apache.kerberos.kerb.identity;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache in front of an identity backend, so the client, server
+ * and krbtgt lookups done for every request only reach a slow backend (LDAP,
+ * database, file) on a miss.
+ *
+ * Entries live for a TTL, and unknown principals are cached too, for a
+ * shorter TTL, so a client retrying a wrong name doesn't hit the backend
+ * each time. Changes made through this service invalidate the name; changes
+ * made to the backend directly show up once the TTL is over.
+ *
+ * The cache is bounded: when full, expired entries are dropped, and if that
+ * doesn't make room it starts over.
+ */
+public class CachedIdentityService implements IdentityService {
+
+    public static final int DEFAULT_CAPACITY = 10000;
+    public static final long DEFAULT_TTL = 5 * 60 * 1000L;
+    public static final long DEFAULT_NEGATIVE_TTL = 30 * 1000L;
+
+    private final IdentityService backend;
+    private final int capacity;
+    private final long ttl;
+    private final long negativeTtl;
+    private final Map<String, CacheEntry> entries;
+
+    // Bumped on every change, so a lookup racing with it isn't cached
+    private final AtomicLong version = new AtomicLong();
+
+    public CachedIdentityService(IdentityService backend) {
+        this(backend, DEFAULT_CAPACITY, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+    }
+
+    /**
+     * @param backend the identity service to cache
+     * @param capacity the number of principals to keep
+     * @param ttl how long to keep an identity, in milliseconds
+     * @param negativeTtl how long to remember an unknown principal, in
+     *                    milliseconds, or 0 not to
+     */
+    public CachedIdentityService(IdentityService backend, int capacity,
+                                 long ttl, long negativeTtl) {
+        this.backend = backend;
+        this.capacity = capacity;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.entries = new ConcurrentHashMap<String, CacheEntry>();
+    }
+
+    public IdentityService getBackend() {
+        return backend;
+    }
+
+    @Override
+    public List<KrbIdentity> getIdentities() {
+        return backend.getIdentities();
+    }
+
+    @Override
+    public Iterator<KrbIdentity> iterateIdentities() {
+        return backend.iterateIdentities();
+    }
+
+    @Override
+    public boolean checkIdentity(String name) {
+        return getIdentity(name) != null;
+    }
+
+    @Override
+    public KrbIdentity getIdentity(String name) {
+        long now = System.currentTimeMillis();
+        CacheEntry entry = entries.get(name);
+        if (entry != null && entry.expireTime > now) {
+            return entry.identity;
+        }
+
+        long current = version.get();
+        KrbIdentity identity = backend.getIdentity(name);
+
+        long entryTtl = identity != null ? ttl : negativeTtl;
+        if (entryTtl > 0) {
+            put(name, new CacheEntry(identity, now + entryTtl), now);
+            if (version.get() != current) {
+                // Changed meanwhile, what we got may be stale
+                entries.remove(name);
+            }
+        }
+
+        return identity;
+    }
+
+    @Override
+    public void addIdentity(KrbIdentity identity) {
+        backend.addIdentity(identity);
+        invalidate(identity.getPrincipalName());
+    }
+
+    @Override
+    public void updateIdentity(KrbIdentity identity) {
+        backend.updateIdentity(identity);
+        invalidate(identity.getPrincipalName());
+    }
+
+    @Override
+    public void deleteIdentity(KrbIdentity identity) {
+        backend.deleteIdentity(identity);
+        invalidate(identity.getPrincipalName());
+    }
+
+    /**
+     * Drop a principal from the cache, for when it's changed in the backend
+     * by other means.
+     */
+    public void invalidate(String name) {
+        version.incrementAndGet();
+        entries.remove(name);
+    }
+
+    public void invalidateAll() {
+        version.incrementAndGet();
+        entries.clear();
+    }
+
+    private void put(String name, CacheEntry entry, long now) {
+        if (entries.size() >= capacity) {
+            Iterator<CacheEntry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().expireTime <= now) {
+                    it.remove();
+                }
+            }
+            if (entries.size() >= capacity) {
+                entries.clear();
+            }
+        }
+        entries.put(name, entry);
+    }
+
+    private static class CacheEntry {
+        private final KrbIdentity identity;
+        private final long expireTime;
+
+        CacheEntry(KrbIdentity identity, long expireTime) {
+            this.identity = identity;
+            this.expireTime = expireTime;
+        }
+    }
+}
@@ -1,9 +1,17 @@
 package org.apache.kerberos.kerb.identity;
 
+import java.util.Iterator;
 import java.util.List;
 
 public interface IdentityService {
     public List<KrbIdentity> getIdentities();
+
+    /**
+     * Go through the identities one by one, without getting them all in a
+     * list first as {@link #getIdentities()} does.
+     */
+    public Iterator<KrbIdentity> iterateIdentities();
+
     public boolean checkIdentity(String name);
     public KrbIdentity getIdentity(String name);
     public void addIdentity(KrbIdentity identity);
@@ -5,6 +5,7 @@ import org.apache.kerberos.kerb.spec.common.EncryptionKey;
 import org.apache.kerberos.kerb.spec.common.EncryptionType;
 import org.apache.kerberos.kerb.spec.common.PrincipalName;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -19,8 +20,9 @@ public class KrbIdentity {
     private KerberosTime expireTime = KerberosTime.NEVER;
     private KerberosTime createdTime = KerberosTime.now();
 
-    private Map<EncryptionType, EncryptionKey> keys =
-            new HashMap<EncryptionType, EncryptionKey>();
+    // Replaced as a whole on change, so readers always see a complete set
+    private volatile Map<EncryptionType, EncryptionKey> keys =
+            Collections.emptyMap();
 
     public KrbIdentity(String principalName) {
         this.principalName = principalName;
@@ -79,16 +81,34 @@ public class KrbIdentity {
         return locked;
     }
 
-    public void addKey(EncryptionKey encKey) {
-        keys.put(encKey.getKeyType(), encKey);
+    public synchronized void addKey(EncryptionKey encKey) {
+        addKeys(Collections.singletonList(encKey));
     }
 
-    public void addKeys(List<EncryptionKey> encKeys) {
+    public synchronized void addKeys(List<EncryptionKey> encKeys) {
+        Map<EncryptionType, EncryptionKey> newKeys =
+                new HashMap<EncryptionType, EncryptionKey>(keys);
         for (EncryptionKey key : encKeys) {
-            keys.put(key.getKeyType(), key);
+            newKeys.put(key.getKeyType(), key);
         }
+        keys = Collections.unmodifiableMap(newKeys);
     }
 
+    /**
+     * Replace all the keys at once, as when changing the password.
+     */
+    public synchronized void setKeys(List<EncryptionKey> encKeys) {
+        Map<EncryptionType, EncryptionKey> newKeys =
+                new HashMap<EncryptionType, EncryptionKey>(encKeys.size());
+        for (EncryptionKey key : encKeys) {
+            newKeys.put(key.getKeyType(), key);
+        }
+        keys = Collections.unmodifiableMap(newKeys);
+    }
+
+    /**
+     * The keys as of now, which don't change with later updates.
+     */
     public Map<EncryptionType, EncryptionKey> getKeys() {
         return keys;
     }
@@ -1,7 +1,14 @@
 package org.apache.kerberos.kerb.identity.backend;
 
 import org.apache.kerberos.kerb.identity.IdentityService;
+import org.apache.kerberos.kerb.identity.KrbIdentity;
+
+import java.util.Iterator;
 
 public abstract class AbstractIdentityBackend implements IdentityService {
 
+    @Override
+    public Iterator<KrbIdentity> iterateIdentities() {
+        return getIdentities().iterator();
+    }
 }
@@ -0,0 +1,143 @@
+package org.apache.kerberos.kerb.identity.backend;
+
+import org.apache.kerberos.kerb.identity.KrbIdentity;
+import org.apache.kerberos.kerb.spec.KerberosTime;
+import org.apache.kerberos.kerb.spec.common.EncryptionKey;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary encoding of identities for the identity files.
+ *
+ * A record is: length of the rest (int), op (byte), principal name (short
+ * length, UTF-8), then for a put: key version, kdc flags (ints), disabled
+ * and locked bits (byte), expire and created times (longs), key count
+ * (short) and each key as enctype, kvno (ints) and key data (short length,
+ * bytes). The name comes first, so an index can be built without decoding
+ * the rest.
+ */
+class IdentityRecord {
+
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static byte[] encodePut(KrbIdentity identity) {
+        return encode(PUT, identity);
+    }
+
+    static byte[] encodeDelete(KrbIdentity identity) {
+        return encode(DELETE, identity);
+    }
+
+    private static byte[] encode(byte op, KrbIdentity identity) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0); // length, filled below
+            out.writeByte(op);
+            writeString(out, identity.getPrincipalName());
+            if (op == PUT) {
+                out.writeInt(identity.getKeyVersion());
+                out.writeInt(identity.getKdcFlags());
+                out.writeByte((identity.isDisabled() ? 1 : 0) | (identity.isLocked() ? 2 : 0));
+                out.writeLong(identity.getExpireTime().getTime());
+                out.writeLong(identity.getCreatedTime().getTime());
+
+                List<EncryptionKey> keys = new ArrayList<EncryptionKey>(
+                        identity.getKeys().values());
+                out.writeShort(keys.size());
+                for (EncryptionKey key : keys) {
+                    out.writeInt(key.getKeyType().getValue());
+                    out.writeInt(key.getKvno());
+                    out.writeShort(key.getKeyData().length);
+                    out.write(key.getKeyData());
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Can't happen writing to memory
+        }
+
+        byte[] record = bytes.toByteArray();
+        ByteBuffer.wrap(record).putInt(0, record.length - 4);
+        return record;
+    }
+
+    /**
+     * The size of the record at the position, including the length, or -1
+     * if there isn't a whole record left.
+     */
+    static int recordSize(ByteBuffer buffer, int pos) {
+        if (pos + 4 > buffer.limit()) {
+            return -1;
+        }
+        int length = buffer.getInt(pos);
+        if (length < 3 || pos + 4 + length > buffer.limit()) {
+            return -1;
+        }
+        return 4 + length;
+    }
+
+    static byte getOp(ByteBuffer buffer, int pos) {
+        return buffer.get(pos + 4);
+    }
+
+    static String getName(ByteBuffer buffer, int pos) {
+        int nameLength = buffer.getShort(pos + 5) & 0xffff;
+        byte[] name = new byte[nameLength];
+        ByteBuffer in = buffer.duplicate();
+        in.position(pos + 7);
+        in.get(name);
+        return new String(name, UTF8);
+    }
+
+    /**
+     * Decode the put record at the position.
+     */
+    static KrbIdentity decode(ByteBuffer buffer, int pos) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(pos + 5);
+
+        KrbIdentity identity = new KrbIdentity(readString(in));
+        identity.setKeyVersion(in.getInt());
+        identity.setKdcFlags(in.getInt());
+        byte flags = in.get();
+        identity.setDisabled((flags & 1) != 0);
+        identity.setLocked((flags & 2) != 0);
+        identity.setExpireTime(new KerberosTime(in.getLong()));
+        identity.setCreatedTime(new KerberosTime(in.getLong()));
+
+        int keyCount = in.getShort() & 0xffff;
+        List<EncryptionKey> keys = new ArrayList<EncryptionKey>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            EncryptionType keyType = EncryptionType.fromValue(in.getInt());
+            int kvno = in.getInt();
+            byte[] keyData = new byte[in.getShort() & 0xffff];
+            in.get(keyData);
+            keys.add(new EncryptionKey(keyType, keyData, kvno));
+        }
+        identity.setKeys(keys);
+
+        return identity;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xffff];
+        in.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,297 @@
+package org.apache.kerberos.kerb.identity.backend;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * An immutable, sorted file of identity records, memory-mapped for lookups
+ * by binary search.
+ *
+ * Layout: magic, version, count, then the entries sorted by key, each as
+ * key (short length, UTF-8) followed by an {@link IdentityRecord}, then the
+ * offsets of the entries (ints), then a bloom filter of the keys (longs),
+ * and a footer of the offsets of the table and the filter, the filter size
+ * in longs, the count and the magic again, so a partly written file is
+ * told apart.
+ *
+ * Keys are ordered by {@link #KEY_ORDER}, which is the order of their UTF-8
+ * bytes, so the search compares the mapped bytes without decoding them.
+ */
+class IdentitySegment {
+
+    private static final int MAGIC = 0x48495331; // "HIS1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int FOOTER_SIZE = 20;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final ByteBuffer buffer;
+    /**
+     * Compares by code point, which is how the UTF-8 bytes compare.
+     */
+    static final Comparator<String> KEY_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String s1, String s2) {
+            int i1 = 0;
+            int i2 = 0;
+            while (i1 < s1.length() && i2 < s2.length()) {
+                int c1 = s1.codePointAt(i1);
+                int c2 = s2.codePointAt(i2);
+                if (c1 != c2) {
+                    return c1 < c2 ? -1 : 1;
+                }
+                i1 += Character.charCount(c1);
+                i2 += Character.charCount(c2);
+            }
+            return (s1.length() - i1) - (s2.length() - i2);
+        }
+    };
+
+    private final int count;
+    private final int tableOffset;
+    private final int bloomOffset;
+    private final int bloomSize;
+
+    private IdentitySegment(File file, ByteBuffer buffer, int count,
+                            int tableOffset, int bloomOffset, int bloomSize) {
+        this.file = file;
+        this.buffer = buffer;
+        this.count = count;
+        this.tableOffset = tableOffset;
+        this.bloomOffset = bloomOffset;
+        this.bloomSize = bloomSize;
+    }
+
+    /**
+     * Write the entries, which must be sorted by key, to the file and force
+     * it to disk.
+     */
+    static void write(File file, Iterator<Map.Entry<String, ByteBuffer>> entries)
+            throws IOException {
+        FileOutputStream fileOut = new FileOutputStream(file);
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(fileOut, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(0);
+
+            int[] offsets = new int[1024];
+            long[] hashes = new long[1024];
+            int count = 0;
+            int pos = HEADER_SIZE;
+            while (entries.hasNext()) {
+                Map.Entry<String, ByteBuffer> entry = entries.next();
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                    hashes = Arrays.copyOf(hashes, count * 2);
+                }
+                byte[] key = entry.getKey().getBytes(UTF8);
+                hashes[count] = hash(key);
+                offsets[count++] = pos;
+
+                ByteBuffer record = entry.getValue().duplicate();
+                out.writeShort(key.length);
+                out.write(key);
+                byte[] recordBytes = new byte[record.remaining()];
+                record.get(recordBytes);
+                out.write(recordBytes);
+                pos += 2 + key.length + recordBytes.length;
+            }
+
+            for (int i = 0; i < count; i++) {
+                out.writeInt(offsets[i]);
+            }
+
+            int bloomSize = Math.max(1, (count * BLOOM_BITS_PER_KEY + 63) / 64);
+            long[] bloom = new long[bloomSize];
+            for (int i = 0; i < count; i++) {
+                addToBloom(bloom, hashes[i]);
+            }
+            for (long bits : bloom) {
+                out.writeLong(bits);
+            }
+
+            out.writeInt(pos);
+            out.writeInt(pos + count * 4);
+            out.writeInt(bloomSize);
+            out.writeInt(count);
+            out.writeInt(MAGIC);
+            out.flush();
+
+            FileChannel channel = fileOut.getChannel();
+            ByteBuffer countBuffer = ByteBuffer.allocate(4);
+            countBuffer.putInt(count).flip();
+            channel.write(countBuffer, 8);
+            channel.force(true);
+        } finally {
+            fileOut.close();
+        }
+    }
+
+    static IdentitySegment open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            if (length < HEADER_SIZE + FOOTER_SIZE) {
+                throw new IOException("Truncated identity segment: " + file);
+            }
+            ByteBuffer buffer = raf.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, length);
+            int footer = (int) length - FOOTER_SIZE;
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(footer + 16) != MAGIC) {
+                throw new IOException("Not an identity segment: " + file);
+            }
+            return new IdentitySegment(file, buffer, buffer.getInt(footer + 12),
+                    buffer.getInt(footer), buffer.getInt(footer + 4),
+                    buffer.getInt(footer + 8));
+        } finally {
+            // The mapping stays valid after closing
+            raf.close();
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    String getKey(int index) {
+        int pos = entryOffset(index);
+        byte[] key = new byte[buffer.getShort(pos) & 0xffff];
+        ByteBuffer in = buffer.duplicate();
+        in.position(pos + 2);
+        in.get(key);
+        return new String(key, UTF8);
+    }
+
+    /**
+     * Where the record of the entry starts, for {@link IdentityRecord}.
+     */
+    int getRecordPos(int index) {
+        int pos = entryOffset(index);
+        return pos + 2 + (buffer.getShort(pos) & 0xffff);
+    }
+
+    /**
+     * The index of the entry with the key, or -1.
+     */
+    int find(String key) {
+        byte[] keyBytes = key.getBytes(UTF8);
+        if (! mayContain(hash(keyBytes))) {
+            return -1;
+        }
+
+        int index = lowerBound(keyBytes);
+        if (index < count && compareKey(index, keyBytes) == 0) {
+            return index;
+        }
+        return -1;
+    }
+
+    /**
+     * The index of the first entry with a key not less than the given one.
+     */
+    int lowerBound(String key) {
+        return lowerBound(key.getBytes(UTF8));
+    }
+
+    private int lowerBound(byte[] key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareKey(mid, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compare the key of the entry with the given one, byte by byte in
+     * place.
+     */
+    private int compareKey(int index, byte[] key) {
+        int pos = entryOffset(index);
+        int length = buffer.getShort(pos) & 0xffff;
+        pos += 2;
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int b1 = buffer.get(pos + i) & 0xff;
+            int b2 = key[i] & 0xff;
+            if (b1 != b2) {
+                return b1 - b2;
+            }
+        }
+        return length - key.length;
+    }
+
+    private boolean mayContain(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bits = (long) bloomSize * 64;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % bits;
+            long word = buffer.getLong(bloomOffset + (int) (bit >>> 6) * 8);
+            if ((word & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addToBloom(long[] bloom, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bits = (long) bloom.length * 64;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % bits;
+            bloom[(int) (bit >>> 6)] |= 1L << (bit & 63);
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a, mixed, split in two for double hashing.
+     */
+    private static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private int entryOffset(int index) {
+        return buffer.getInt(tableOffset + index * 4);
+    }
+}
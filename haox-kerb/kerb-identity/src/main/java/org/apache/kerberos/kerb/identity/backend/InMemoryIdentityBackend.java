@@ -3,16 +3,23 @@ package org.apache.kerberos.kerb.identity.backend;
 import org.apache.kerberos.kerb.identity.KrbIdentity;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Identities kept in a concurrent map, so KDC threads look them up without
+ * locking while they're changed by admin calls.
+ */
 public class InMemoryIdentityBackend extends AbstractIdentityBackend {
 
-    private Map<String, KrbIdentity> identities;
+    private ConcurrentMap<String, KrbIdentity> identities;
 
     public InMemoryIdentityBackend() {
-        this.identities = new HashMap<String, KrbIdentity>();
+        this.identities = new ConcurrentHashMap<String, KrbIdentity>();
     }
 
     public InMemoryIdentityBackend(Map<String, KrbIdentity> identities) {
@@ -27,6 +34,15 @@ public class InMemoryIdentityBackend extends AbstractIdentityBackend {
         return results;
     }
 
+    /**
+     * Iterate over the live map, seeing the identities as they are when the
+     * iteration gets to them, without copying.
+     */
+    @Override
+    public Iterator<KrbIdentity> iterateIdentities() {
+        return Collections.unmodifiableCollection(identities.values()).iterator();
+    }
+
     @Override
     public boolean checkIdentity(String name) {
         return identities.containsKey(name);
@@ -34,10 +50,7 @@ public class InMemoryIdentityBackend extends AbstractIdentityBackend {
 
     @Override
     public KrbIdentity getIdentity(String name) {
-        if (identities.containsKey(name)) {
-            return identities.get(name);
-        }
-        return null;
+        return identities.get(name);
     }
 
     @Override
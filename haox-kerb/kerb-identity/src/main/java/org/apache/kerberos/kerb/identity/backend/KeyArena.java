@@ -0,0 +1,124 @@
+package org.apache.kerberos.kerb.identity.backend;
+
+import org.apache.kerberos.kerb.spec.common.EncryptionKey;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Keys kept outside the heap, in direct buffers of fixed size records.
+ *
+ * A record is: enctype, kvno, key length (ints) and the key data,
+ * padded to {@link #MAX_KEY_SIZE}. Records are addressed by slot number and
+ * are zeroed when freed, so key material doesn't linger after a key is
+ * replaced or its principal deleted.
+ *
+ * The arena doesn't lock, callers have to, so that no slot is read while
+ * it's allocated, freed or cleared, see {@link OffHeapIdentityBackend}.
+ */
+class KeyArena {
+
+    static final int MAX_KEY_SIZE = 32;
+
+    private static final int RECORD_SIZE = 12 + MAX_KEY_SIZE;
+    private static final int SLAB_SHIFT = 16;
+    private static final int SLOTS_PER_SLAB = 1 << SLAB_SHIFT;
+    private static final int SLAB_MASK = SLOTS_PER_SLAB - 1;
+
+    private ByteBuffer[] slabs = new ByteBuffer[0];
+    private int nextSlot;
+    private int[] freeSlots = new int[64];
+    private int freeCount;
+
+    /**
+     * Copy the key into a free slot, returning the slot.
+     */
+    int allocate(EncryptionKey key) {
+        byte[] keyData = key.getKeyData();
+        if (keyData.length > MAX_KEY_SIZE) {
+            throw new IllegalArgumentException("Key too long for the key arena: "
+                    + keyData.length + " bytes of " + key.getKeyType());
+        }
+
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            slot = nextSlot++;
+            if ((slot >>> SLAB_SHIFT) == slabs.length) {
+                ByteBuffer[] newSlabs = Arrays.copyOf(slabs, slabs.length + 1);
+                newSlabs[slabs.length] = ByteBuffer.allocateDirect(
+                        SLOTS_PER_SLAB * RECORD_SIZE);
+                slabs = newSlabs;
+            }
+        }
+
+        ByteBuffer slab = slab(slot);
+        int pos = position(slot);
+        slab.putInt(pos, key.getKeyType().getValue());
+        slab.putInt(pos + 4, key.getKvno());
+        slab.putInt(pos + 8, keyData.length);
+        for (int i = 0; i < keyData.length; i++) {
+            slab.put(pos + 12 + i, keyData[i]);
+        }
+        return slot;
+    }
+
+    /**
+     * Zero the slot and make it available again.
+     */
+    void free(int slot) {
+        ByteBuffer slab = slab(slot);
+        int pos = position(slot);
+        for (int i = 0; i < RECORD_SIZE; i += 4) {
+            slab.putInt(pos + i, 0);
+        }
+
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    EncryptionKey getKey(int slot) {
+        ByteBuffer slab = slab(slot);
+        int pos = position(slot);
+        int length = slab.getInt(pos + 8);
+        byte[] keyData = new byte[length];
+        for (int i = 0; i < length; i++) {
+            keyData[i] = slab.get(pos + 12 + i);
+        }
+        return new EncryptionKey(EncryptionType.fromValue(slab.getInt(pos)),
+                keyData, slab.getInt(pos + 4));
+    }
+
+    /**
+     * Number of slots in use.
+     */
+    int size() {
+        return nextSlot - freeCount;
+    }
+
+    /**
+     * Zero all the keys and drop the buffers.
+     */
+    void clear() {
+        for (ByteBuffer slab : slabs) {
+            for (int i = 0; i < slab.capacity(); i += 8) {
+                slab.putLong(i, 0L);
+            }
+        }
+        slabs = new ByteBuffer[0];
+        nextSlot = 0;
+        freeCount = 0;
+    }
+
+    private ByteBuffer slab(int slot) {
+        return slabs[slot >>> SLAB_SHIFT];
+    }
+
+    private static int position(int slot) {
+        return (slot & SLAB_MASK) * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,568 @@
+package org.apache.kerberos.kerb.identity.backend;
+
+import org.apache.kerberos.kerb.identity.KrbIdentity;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Log-structured identity store in a directory, for realms too large to
+ * keep in memory and without a network dependency.
+ *
+ * Changes are appended to a write-ahead log, forced to disk, and kept in a
+ * sorted memtable. When the memtable gets big it's written out as a sorted,
+ * memory-mapped {@link IdentitySegment}; lookups go to the memtable, then
+ * the segments from newest to oldest, by binary search. When there are too
+ * many segments they're merged into one, dropping deleted identities.
+ *
+ * The live segments are listed in a manifest, replaced by rename, and the
+ * log is only cleared after the manifest has the segment with its changes,
+ * so a crash at any point loses nothing that was acknowledged: on load the
+ * log is replayed over the segments, which is harmless if they have it.
+ *
+ * Identities are keyed by realm then name, so {@link #scan(String, String)}
+ * goes through a realm, or the principals of a service, in order.
+ */
+public class LsmIdentityBackend extends AbstractIdentityBackend {
+
+    private static final String MANIFEST = "MANIFEST";
+    private static final String LOG = "identity.log";
+    private static final String SEGMENT_PREFIX = "identity-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    public static final int DEFAULT_MEMTABLE_SIZE = 64 * 1024;
+    private static final int MAX_SEGMENTS = 4;
+
+    private final File dir;
+    private final File logFile;
+    private final int memtableSize;
+
+    private volatile State state = new State(newMemtable(),
+            Collections.<IdentitySegment>emptyList());
+
+    private FileOutputStream log;
+    private int logRecords;
+    private int nextSegmentId;
+
+    public LsmIdentityBackend(File dir) {
+        this(dir, DEFAULT_MEMTABLE_SIZE);
+    }
+
+    /**
+     * @param dir the directory to keep the identities in
+     * @param memtableSize the number of changes to keep in memory before
+     *                     writing them out to a segment
+     */
+    public LsmIdentityBackend(File dir, int memtableSize) {
+        this.dir = dir;
+        this.logFile = new File(dir, LOG);
+        this.memtableSize = memtableSize;
+    }
+
+    /**
+     * Open the segments in the manifest and replay the log over them.
+     */
+    public synchronized void load() {
+        try {
+            dir.mkdirs();
+            logRecords = 0;
+            List<IdentitySegment> segments = loadManifest();
+            ConcurrentSkipListMap<String, ByteBuffer> memtable = newMemtable();
+            replayLog(memtable);
+            state = new State(memtable, segments);
+            removeUnlisted(segments);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load identities from " + dir, e);
+        }
+    }
+
+    public synchronized void close() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to close " + logFile, e);
+            } finally {
+                log = null;
+            }
+        }
+    }
+
+    @Override
+    public List<KrbIdentity> getIdentities() {
+        List<KrbIdentity> results = new ArrayList<KrbIdentity>();
+        Iterator<KrbIdentity> it = iterateIdentities();
+        while (it.hasNext()) {
+            results.add(it.next());
+        }
+        return results;
+    }
+
+    @Override
+    public Iterator<KrbIdentity> iterateIdentities() {
+        return new ScanIterator(state, "");
+    }
+
+    /**
+     * Go through the identities of a realm in order, optionally only those
+     * whose name (without the realm) starts with a prefix, like "HTTP/".
+     */
+    public Iterator<KrbIdentity> scan(String realm, String namePrefix) {
+        String prefix = realm + '\0' + (namePrefix != null ? namePrefix : "");
+        return new ScanIterator(state, prefix);
+    }
+
+    @Override
+    public boolean checkIdentity(String name) {
+        return getIdentity(name) != null;
+    }
+
+    @Override
+    public KrbIdentity getIdentity(String name) {
+        String key = toKey(name);
+        State current = state;
+
+        ByteBuffer record = current.memtable.get(key);
+        if (record != null) {
+            return decode(record, 0);
+        }
+
+        for (IdentitySegment segment : current.segments) {
+            int index = segment.find(key);
+            if (index >= 0) {
+                return decode(segment.getBuffer(), segment.getRecordPos(index));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void addIdentity(KrbIdentity identity) {
+        write(identity.getPrincipalName(), IdentityRecord.encodePut(identity));
+    }
+
+    @Override
+    public void updateIdentity(KrbIdentity identity) {
+        write(identity.getPrincipalName(), IdentityRecord.encodePut(identity));
+    }
+
+    @Override
+    public void deleteIdentity(KrbIdentity identity) {
+        write(identity.getPrincipalName(), IdentityRecord.encodeDelete(identity));
+    }
+
+    /**
+     * Add many identities, forcing the log to disk once for all of them
+     * rather than for each, as when importing a realm.
+     */
+    public synchronized void addIdentities(List<KrbIdentity> identities) {
+        try {
+            for (KrbIdentity identity : identities) {
+                append(identity.getPrincipalName(), IdentityRecord.encodePut(identity));
+            }
+            if (log != null) {
+                log.getChannel().force(false);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write identities", e);
+        }
+    }
+
+    private synchronized void write(String name, byte[] record) {
+        try {
+            append(name, record);
+            if (log != null) {
+                log.getChannel().force(false);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write identity " + name, e);
+        }
+    }
+
+    private void append(String name, byte[] record) throws IOException {
+        if (log == null) {
+            log = new FileOutputStream(logFile, true);
+        }
+        log.write(record);
+
+        state.memtable.put(toKey(name), ByteBuffer.wrap(record));
+        if (++logRecords >= memtableSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Write the memtable out to a new segment, and merge the segments if
+     * there are too many.
+     */
+    private void flush() throws IOException {
+        State current = state;
+        List<IdentitySegment> segments;
+        if (current.segments.size() < MAX_SEGMENTS) {
+            segments = new ArrayList<IdentitySegment>();
+            segments.add(writeSegment(current.memtable.entrySet().iterator()));
+            segments.addAll(current.segments);
+        } else {
+            // Everything is merged, so deleted identities can be dropped
+            segments = Collections.singletonList(
+                    writeSegment(new MergeIterator(current, "", true)));
+        }
+
+        saveManifest(segments);
+
+        // Readers see either the old memtable or the segment made of it
+        state = new State(newMemtable(), segments);
+
+        close();
+        new FileOutputStream(logFile).close();
+        logRecords = 0;
+        removeUnlisted(segments);
+    }
+
+    private IdentitySegment writeSegment(Iterator<Map.Entry<String, ByteBuffer>> entries)
+            throws IOException {
+        File file = new File(dir, SEGMENT_PREFIX + (nextSegmentId++) + SEGMENT_SUFFIX);
+        IdentitySegment.write(file, entries);
+        return IdentitySegment.open(file);
+    }
+
+    private List<IdentitySegment> loadManifest() throws IOException {
+        List<IdentitySegment> segments = new ArrayList<IdentitySegment>();
+        File manifest = new File(dir, MANIFEST);
+        if (! manifest.exists()) {
+            return segments;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(manifest), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                segments.add(IdentitySegment.open(new File(dir, line)));
+                int id = Integer.parseInt(line.substring(SEGMENT_PREFIX.length(),
+                        line.length() - SEGMENT_SUFFIX.length()));
+                nextSegmentId = Math.max(nextSegmentId, id + 1);
+            }
+        } finally {
+            reader.close();
+        }
+        return segments;
+    }
+
+    private void saveManifest(List<IdentitySegment> segments) throws IOException {
+        File tmpFile = new File(dir, MANIFEST + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmpFile);
+        try {
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+            for (IdentitySegment segment : segments) {
+                writer.write(segment.getFile().getName());
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+
+        File manifest = new File(dir, MANIFEST);
+        if (! tmpFile.renameTo(manifest)) {
+            // Can't rename over an existing file on some platforms
+            manifest.delete();
+            if (! tmpFile.renameTo(manifest)) {
+                throw new IOException("Failed to rename " + tmpFile + " to " + manifest);
+            }
+        }
+    }
+
+    /**
+     * Remove segments left over from merges or from a crash before they got
+     * in the manifest.
+     */
+    private void removeUnlisted(List<IdentitySegment> segments) {
+        List<String> live = new ArrayList<String>();
+        for (IdentitySegment segment : segments) {
+            live.add(segment.getFile().getName());
+        }
+
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)
+                    && ! live.contains(name)) {
+                file.delete();
+            }
+        }
+    }
+
+    private void replayLog(Map<String, ByteBuffer> memtable) throws IOException {
+        if (! logFile.exists()) {
+            return;
+        }
+
+        RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+            int pos = 0;
+            int size;
+            while ((size = IdentityRecord.recordSize(buffer, pos)) > 0) {
+                byte[] record = Arrays.copyOfRange(bytes, pos, pos + size);
+                memtable.put(toKey(IdentityRecord.getName(buffer, pos)),
+                        ByteBuffer.wrap(record));
+                pos += size;
+                logRecords++;
+            }
+
+            if (pos < bytes.length) {
+                // Partly written record from a crash, drop it
+                file.setLength(pos);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private static ConcurrentSkipListMap<String, ByteBuffer> newMemtable() {
+        return new ConcurrentSkipListMap<String, ByteBuffer>(IdentitySegment.KEY_ORDER);
+    }
+
+    private static KrbIdentity decode(ByteBuffer buffer, int pos) {
+        if (IdentityRecord.getOp(buffer, pos) == IdentityRecord.DELETE) {
+            return null;
+        }
+        return IdentityRecord.decode(buffer, pos);
+    }
+
+    /**
+     * "name@REALM" is kept as "REALM\0name", so a realm sorts together.
+     */
+    private static String toKey(String principalName) {
+        int at = principalName.lastIndexOf('@');
+        if (at < 0) {
+            return '\0' + principalName;
+        }
+        return principalName.substring(at + 1) + '\0' + principalName.substring(0, at);
+    }
+
+    private static class State {
+        private final ConcurrentSkipListMap<String, ByteBuffer> memtable;
+        // Newest first
+        private final List<IdentitySegment> segments;
+
+        State(ConcurrentSkipListMap<String, ByteBuffer> memtable,
+              List<IdentitySegment> segments) {
+            this.memtable = memtable;
+            this.segments = segments;
+        }
+    }
+
+    /**
+     * Merges the memtable and the segments in key order, taking the newest
+     * record for each key. Records are returned as buffers positioned at
+     * them.
+     */
+    private static class MergeIterator implements Iterator<Map.Entry<String, ByteBuffer>> {
+        private final String prefix;
+        private final boolean skipDeleted;
+        private final List<Cursor> cursors = new ArrayList<Cursor>();
+        private Map.Entry<String, ByteBuffer> next;
+
+        MergeIterator(State state, String prefix, boolean skipDeleted) {
+            this.prefix = prefix;
+            this.skipDeleted = skipDeleted;
+
+            NavigableMap<String, ByteBuffer> tail = state.memtable.tailMap(prefix, true);
+            cursors.add(new MemtableCursor(tail.entrySet().iterator()));
+            for (IdentitySegment segment : state.segments) {
+                cursors.add(new SegmentCursor(segment, segment.lowerBound(prefix)));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = findNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, ByteBuffer> next() {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, ByteBuffer> result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private Map.Entry<String, ByteBuffer> findNext() {
+            while (true) {
+                // The smallest key, from the newest source having it
+                Cursor newest = null;
+                for (Cursor cursor : cursors) {
+                    if (cursor.key != null && (newest == null
+                            || IdentitySegment.KEY_ORDER.compare(cursor.key, newest.key) < 0)) {
+                        newest = cursor;
+                    }
+                }
+                if (newest == null || ! newest.key.startsWith(prefix)) {
+                    return null;
+                }
+
+                String key = newest.key;
+                ByteBuffer record = newest.record();
+                for (Cursor cursor : cursors) {
+                    if (key.equals(cursor.key)) {
+                        cursor.advance();
+                    }
+                }
+
+                if (skipDeleted && IdentityRecord.getOp(record,
+                        record.position()) == IdentityRecord.DELETE) {
+                    continue;
+                }
+                return new Entry(key, record);
+            }
+        }
+    }
+
+    private abstract static class Cursor {
+        String key;
+
+        abstract ByteBuffer record();
+        abstract void advance();
+    }
+
+    private static class MemtableCursor extends Cursor {
+        private final Iterator<Map.Entry<String, ByteBuffer>> it;
+        private ByteBuffer current;
+
+        MemtableCursor(Iterator<Map.Entry<String, ByteBuffer>> it) {
+            this.it = it;
+            advance();
+        }
+
+        @Override
+        ByteBuffer record() {
+            return current;
+        }
+
+        @Override
+        void advance() {
+            if (it.hasNext()) {
+                Map.Entry<String, ByteBuffer> entry = it.next();
+                key = entry.getKey();
+                current = entry.getValue();
+            } else {
+                key = null;
+                current = null;
+            }
+        }
+    }
+
+    private static class SegmentCursor extends Cursor {
+        private final IdentitySegment segment;
+        private int index;
+
+        SegmentCursor(IdentitySegment segment, int index) {
+            this.segment = segment;
+            this.index = index - 1;
+            advance();
+        }
+
+        @Override
+        ByteBuffer record() {
+            ByteBuffer record = segment.getBuffer().duplicate();
+            record.position(segment.getRecordPos(index));
+            record.limit(record.position()
+                    + IdentityRecord.recordSize(record, record.position()));
+            return record;
+        }
+
+        @Override
+        void advance() {
+            index++;
+            key = index < segment.getCount() ? segment.getKey(index) : null;
+        }
+    }
+
+    private static class Entry implements Map.Entry<String, ByteBuffer> {
+        private final String key;
+        private final ByteBuffer value;
+
+        Entry(String key, ByteBuffer value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public ByteBuffer getValue() {
+            return value;
+        }
+
+        @Override
+        public ByteBuffer setValue(ByteBuffer value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class ScanIterator implements Iterator<KrbIdentity> {
+        private final MergeIterator entries;
+
+        ScanIterator(State state, String prefix) {
+            this.entries = new MergeIterator(state, prefix, true);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return entries.hasNext();
+        }
+
+        @Override
+        public KrbIdentity next() {
+            ByteBuffer record = entries.next().getValue();
+            return IdentityRecord.decode(record, record.position());
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
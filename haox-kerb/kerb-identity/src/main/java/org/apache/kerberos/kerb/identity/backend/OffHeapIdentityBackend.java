@@ -0,0 +1,195 @@
+package org.apache.kerberos.kerb.identity.backend;
+
+import org.apache.kerberos.kerb.identity.KrbIdentity;
+import org.apache.kerberos.kerb.spec.common.EncryptionKey;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Identities kept in memory like {@link InMemoryIdentityBackend}, but with
+ * their keys in a {@link KeyArena} outside the heap, so a big realm doesn't
+ * keep millions of key objects around for the collector to go through.
+ *
+ * Only the principal attributes stay on the heap. Lookups return a new
+ * identity with the keys copied out of the arena, which the caller can let
+ * go of soon after. Keys replaced or deleted are zeroed in the arena, as
+ * are all of them on {@link #close()}; the identities passed in to add or
+ * update are not kept.
+ *
+ * Lookups read the keys under a read lock, and changes take the write lock,
+ * so keys aren't freed or cleared while they're copied out.
+ */
+public class OffHeapIdentityBackend extends AbstractIdentityBackend {
+
+    private final ConcurrentMap<String, Entry> identities =
+            new ConcurrentHashMap<String, Entry>();
+    private final KeyArena keyArena = new KeyArena();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Override
+    public List<KrbIdentity> getIdentities() {
+        List<KrbIdentity> results = new ArrayList<KrbIdentity>(identities.size());
+        Iterator<KrbIdentity> it = iterateIdentities();
+        while (it.hasNext()) {
+            results.add(it.next());
+        }
+        return results;
+    }
+
+    @Override
+    public Iterator<KrbIdentity> iterateIdentities() {
+        final Iterator<String> names = identities.keySet().iterator();
+        return new Iterator<KrbIdentity>() {
+            private KrbIdentity next;
+
+            @Override
+            public boolean hasNext() {
+                // Skipping those deleted since
+                while (next == null && names.hasNext()) {
+                    next = getIdentity(names.next());
+                }
+                return next != null;
+            }
+
+            @Override
+            public KrbIdentity next() {
+                if (! hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                KrbIdentity result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public boolean checkIdentity(String name) {
+        return identities.containsKey(name);
+    }
+
+    @Override
+    public KrbIdentity getIdentity(String name) {
+        lock.readLock().lock();
+        try {
+            Entry entry = identities.get(name);
+            return entry != null ? toIdentity(entry) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void addIdentity(KrbIdentity identity) {
+        updateIdentity(identity);
+    }
+
+    @Override
+    public void updateIdentity(KrbIdentity identity) {
+        Collection<EncryptionKey> keys = identity.getKeys().values();
+        lock.writeLock().lock();
+        try {
+            int[] slots = new int[keys.size()];
+            int i = 0;
+            try {
+                for (EncryptionKey key : keys) {
+                    slots[i] = keyArena.allocate(key);
+                    i++;
+                }
+            } catch (RuntimeException e) {
+                free(slots, i);
+                throw e;
+            }
+
+            Entry old = identities.put(identity.getPrincipalName(),
+                    new Entry(copyAttributes(identity), slots));
+            if (old != null) {
+                free(old.slots, old.slots.length);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteIdentity(KrbIdentity identity) {
+        lock.writeLock().lock();
+        try {
+            Entry old = identities.remove(identity.getPrincipalName());
+            if (old != null) {
+                free(old.slots, old.slots.length);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Zero all the keys and drop the identities.
+     */
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            identities.clear();
+            keyArena.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The identity with its keys, under the read lock.
+     */
+    private KrbIdentity toIdentity(Entry entry) {
+        List<EncryptionKey> keys = new ArrayList<EncryptionKey>(entry.slots.length);
+        for (int slot : entry.slots) {
+            keys.add(keyArena.getKey(slot));
+        }
+
+        KrbIdentity identity = copyAttributes(entry.attributes);
+        identity.setKeys(keys);
+        return identity;
+    }
+
+    private void free(int[] slots, int count) {
+        for (int i = 0; i < count; i++) {
+            keyArena.free(slots[i]);
+        }
+    }
+
+    private static KrbIdentity copyAttributes(KrbIdentity identity) {
+        KrbIdentity copy = new KrbIdentity(identity.getPrincipalName());
+        copy.setPrincipal(identity.getPrincipal());
+        copy.setKeyVersion(identity.getKeyVersion());
+        copy.setKdcFlags(identity.getKdcFlags());
+        copy.setDisabled(identity.isDisabled());
+        copy.setLocked(identity.isLocked());
+        copy.setExpireTime(identity.getExpireTime());
+        copy.setCreatedTime(identity.getCreatedTime());
+        return copy;
+    }
+
+    private static class Entry {
+        // Without keys
+        private final KrbIdentity attributes;
+        private final int[] slots;
+
+        Entry(KrbIdentity attributes, int[] slots) {
+            this.attributes = attributes;
+            this.slots = slots;
+        }
+    }
+}
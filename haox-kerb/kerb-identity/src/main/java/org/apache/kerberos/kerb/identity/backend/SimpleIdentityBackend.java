@@ -1,27 +1,390 @@
 package org.apache.kerberos.kerb.identity.backend;
 
+import org.apache.kerberos.kerb.identity.KrbIdentity;
+
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Identities kept in a file, with changes appended to a log next to it.
+ *
+ * The identity file is a snapshot of all the identities, see
+ * {@link IdentityRecord} for the encoding. It's memory-mapped on load, and
+ * the index from principal to record is only built on the first lookup, so
+ * starting doesn't have to read it through. Identities are decoded when
+ * first looked up.
+ *
+ * Adds, updates and deletes are appended to the log file and kept in
+ * memory; on load the log is replayed over the snapshot. Once the log gets
+ * long compared to the snapshot, a new snapshot is written and the log
+ * starts over, which {@link #save()} also does.
+ */
+public class SimpleIdentityBackend extends AbstractIdentityBackend {
+
+    private static final int MAGIC = 0x48494431; // "HID1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int MIN_COMPACT_RECORDS = 10000;
+
+    private final File identityFile;
+    private final File logFile;
 
-public class SimpleIdentityBackend extends InMemoryIdentityBackend {
+    // Identities changed or looked up since the snapshot
+    private final ConcurrentMap<String, KrbIdentity> identities =
+            new ConcurrentHashMap<String, KrbIdentity>();
+    private volatile Snapshot snapshot = new Snapshot(null, 0);
 
-    private File identityFile;
+    private FileOutputStream log;
+    private int logRecords;
 
     public SimpleIdentityBackend(File identityFile) {
         super();
         this.identityFile = identityFile;
+        this.logFile = new File(identityFile.getPath() + ".log");
     }
 
     /**
      * Load identities from file
      */
-    public void load() {
-        // todo
+    public synchronized void load() {
+        try {
+            identities.clear();
+            snapshot = openSnapshot();
+            replayLog();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load identities from " + identityFile, e);
+        }
     }
 
     /**
-     * Persist the updated identities back
+     * Persist the updated identities back, writing a new snapshot and
+     * starting the log over.
      */
-    public void save() {
-        // todo
+    public synchronized void save() {
+        try {
+            compact();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to save identities to " + identityFile, e);
+        }
+    }
+
+    public synchronized void close() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to close " + logFile, e);
+            } finally {
+                log = null;
+            }
+        }
+    }
+
+    @Override
+    public List<KrbIdentity> getIdentities() {
+        List<KrbIdentity> results = new ArrayList<KrbIdentity>();
+        Iterator<KrbIdentity> it = iterateIdentities();
+        while (it.hasNext()) {
+            results.add(it.next());
+        }
+        return results;
+    }
+
+    /**
+     * Go through the snapshot file in order, decoding each identity as it
+     * gets to it, then the ones added since. Decoded identities are not
+     * kept, so exporting them all doesn't fill the heap.
+     */
+    @Override
+    public Iterator<KrbIdentity> iterateIdentities() {
+        return new IdentityIterator(snapshot);
+    }
+
+    @Override
+    public boolean checkIdentity(String name) {
+        return getIdentity(name) != null;
+    }
+
+    @Override
+    public KrbIdentity getIdentity(String name) {
+        KrbIdentity identity = identities.get(name);
+        if (identity != null) {
+            return identity;
+        }
+
+        Snapshot current = snapshot;
+        if (current.deleted.contains(name)) {
+            return null;
+        }
+        Integer pos = current.getIndex().get(name);
+        if (pos == null) {
+            return null;
+        }
+
+        identity = IdentityRecord.decode(current.buffer, pos);
+        KrbIdentity existing = identities.putIfAbsent(name, identity);
+        if (existing != null) {
+            return existing;
+        }
+        if (current.deleted.contains(name)) {
+            // Deleted while decoding
+            identities.remove(name, identity);
+            return null;
+        }
+        return identity;
+    }
+
+    @Override
+    public synchronized void addIdentity(KrbIdentity identity) {
+        updateIdentity(identity);
+    }
+
+    @Override
+    public synchronized void updateIdentity(KrbIdentity identity) {
+        appendLog(IdentityRecord.encodePut(identity));
+        identities.put(identity.getPrincipalName(), identity);
+        snapshot.deleted.remove(identity.getPrincipalName());
+    }
+
+    @Override
+    public synchronized void deleteIdentity(KrbIdentity identity) {
+        appendLog(IdentityRecord.encodeDelete(identity));
+        // Mark it first, so a concurrent lookup doesn't bring it back
+        snapshot.deleted.add(identity.getPrincipalName());
+        identities.remove(identity.getPrincipalName());
+    }
+
+    private Snapshot openSnapshot() throws IOException {
+        if (! identityFile.exists() || identityFile.length() == 0) {
+            return new Snapshot(null, 0);
+        }
+
+        RandomAccessFile file = new RandomAccessFile(identityFile, "r");
+        try {
+            ByteBuffer buffer = file.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                    || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not an identity file: " + identityFile);
+            }
+            return new Snapshot(buffer, buffer.getInt(8));
+        } finally {
+            // The mapping stays valid after closing
+            file.close();
+        }
+    }
+
+    private void replayLog() throws IOException {
+        if (! logFile.exists()) {
+            return;
+        }
+
+        RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+            int pos = 0;
+            int size;
+            logRecords = 0;
+            while ((size = IdentityRecord.recordSize(buffer, pos)) > 0) {
+                String name = IdentityRecord.getName(buffer, pos);
+                if (IdentityRecord.getOp(buffer, pos) == IdentityRecord.PUT) {
+                    identities.put(name, IdentityRecord.decode(buffer, pos));
+                    snapshot.deleted.remove(name);
+                } else {
+                    snapshot.deleted.add(name);
+                    identities.remove(name);
+                }
+                pos += size;
+                logRecords++;
+            }
+
+            if (pos < bytes.length) {
+                // Partly written record from a crash, drop it
+                file.setLength(pos);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private void appendLog(byte[] record) {
+        try {
+            if (log == null) {
+                log = new FileOutputStream(logFile, true);
+            }
+            log.write(record);
+            log.getChannel().force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write " + logFile, e);
+        }
+
+        if (++logRecords > Math.max(MIN_COMPACT_RECORDS, snapshot.count / 2)) {
+            save();
+        }
+    }
+
+    private void compact() throws IOException {
+        File tmpFile = new File(identityFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmpFile);
+        int count = 0;
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(0).flip();
+            channel.write(header);
+
+            Iterator<KrbIdentity> it = iterateIdentities();
+            while (it.hasNext()) {
+                channel.write(ByteBuffer.wrap(IdentityRecord.encodePut(it.next())));
+                count++;
+            }
+
+            header.clear();
+            header.putInt(count).flip();
+            channel.write(header, 8);
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+
+        if (! tmpFile.renameTo(identityFile)) {
+            // Can't rename over an existing file on some platforms
+            identityFile.delete();
+            if (! tmpFile.renameTo(identityFile)) {
+                throw new IOException("Failed to rename " + tmpFile + " to " + identityFile);
+            }
+        }
+
+        // The new snapshot has all of the log, start it over
+        close();
+        new FileOutputStream(logFile).close();
+        logRecords = 0;
+
+        snapshot = openSnapshot();
+    }
+
+    private static class Snapshot {
+        private final ByteBuffer buffer;
+        private final int count;
+        // Names deleted since this snapshot
+        private final Set<String> deleted =
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private volatile Map<String, Integer> index;
+
+        Snapshot(ByteBuffer buffer, int count) {
+            this.buffer = buffer;
+            this.count = count;
+        }
+
+        Map<String, Integer> getIndex() {
+            Map<String, Integer> result = index;
+            if (result == null) {
+                synchronized (this) {
+                    result = index;
+                    if (result == null) {
+                        result = buildIndex();
+                        index = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private Map<String, Integer> buildIndex() {
+            if (buffer == null) {
+                return Collections.emptyMap();
+            }
+
+            Map<String, Integer> result = new HashMap<String, Integer>(count * 4 / 3 + 1);
+            int pos = HEADER_SIZE;
+            int size;
+            while ((size = IdentityRecord.recordSize(buffer, pos)) > 0) {
+                result.put(IdentityRecord.getName(buffer, pos), pos);
+                pos += size;
+            }
+            return result;
+        }
+    }
+
+    private class IdentityIterator implements Iterator<KrbIdentity> {
+        private final Snapshot snapshot;
+        private int pos = HEADER_SIZE;
+        private Iterator<KrbIdentity> added;
+        private KrbIdentity next;
+
+        IdentityIterator(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = findNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public KrbIdentity next() {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            KrbIdentity result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private KrbIdentity findNext() {
+            ByteBuffer buffer = snapshot.buffer;
+            int size;
+            while (buffer != null && (size = IdentityRecord.recordSize(buffer, pos)) > 0) {
+                int recordPos = pos;
+                pos += size;
+
+                String name = IdentityRecord.getName(buffer, recordPos);
+                KrbIdentity identity = identities.get(name);
+                if (identity != null) {
+                    return identity;
+                }
+                if (! snapshot.deleted.contains(name)) {
+                    return IdentityRecord.decode(buffer, recordPos);
+                }
+            }
+
+            // Then the ones not in the snapshot
+            if (added == null) {
+                added = identities.values().iterator();
+            }
+            Map<String, Integer> index = snapshot.getIndex();
+            while (added.hasNext()) {
+                KrbIdentity identity = added.next();
+                if (! index.containsKey(identity.getPrincipalName())) {
+                    return identity;
+                }
+            }
+            return null;
+        }
     }
 }
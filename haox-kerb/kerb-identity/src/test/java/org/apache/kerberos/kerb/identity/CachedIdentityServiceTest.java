@@ -0,0 +1,74 @@
+package org.apache.kerberos.kerb.identity;
+
+import org.apache.kerberos.kerb.identity.backend.InMemoryIdentityBackend;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachedIdentityServiceTest {
+
+    private static final String CLIENT = "client@EXAMPLE.COM";
+
+    private CountingBackend backend;
+    private CachedIdentityService identityService;
+
+    @Before
+    public void setUp() {
+        backend = new CountingBackend();
+        identityService = new CachedIdentityService(backend, 100, 60 * 1000L, 60 * 1000L);
+    }
+
+    @Test
+    public void testReadThrough() {
+        identityService.addIdentity(new KrbIdentity(CLIENT));
+
+        Assert.assertNotNull(identityService.getIdentity(CLIENT));
+        Assert.assertNotNull(identityService.getIdentity(CLIENT));
+        Assert.assertEquals(1, backend.lookups);
+    }
+
+    @Test
+    public void testNegativeCaching() {
+        Assert.assertNull(identityService.getIdentity(CLIENT));
+        Assert.assertFalse(identityService.checkIdentity(CLIENT));
+        Assert.assertEquals(1, backend.lookups);
+
+        // Adding it drops the negative entry
+        identityService.addIdentity(new KrbIdentity(CLIENT));
+        Assert.assertNotNull(identityService.getIdentity(CLIENT));
+    }
+
+    @Test
+    public void testInvalidation() {
+        KrbIdentity identity = new KrbIdentity(CLIENT);
+        identityService.addIdentity(identity);
+        Assert.assertNotNull(identityService.getIdentity(CLIENT));
+
+        KrbIdentity updated = new KrbIdentity(CLIENT);
+        updated.setKeyVersion(2);
+        identityService.updateIdentity(updated);
+        Assert.assertEquals(2, identityService.getIdentity(CLIENT).getKeyVersion());
+
+        identityService.deleteIdentity(updated);
+        Assert.assertNull(identityService.getIdentity(CLIENT));
+    }
+
+    @Test
+    public void testBounded() {
+        for (int i = 0; i < 1000; i++) {
+            identityService.getIdentity("user" + i + "@EXAMPLE.COM");
+        }
+        identityService.addIdentity(new KrbIdentity(CLIENT));
+        Assert.assertNotNull(identityService.getIdentity(CLIENT));
+    }
+
+    private static class CountingBackend extends InMemoryIdentityBackend {
+        private int lookups;
+
+        @Override
+        public KrbIdentity getIdentity(String name) {
+            lookups++;
+            return super.getIdentity(name);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.apache.kerberos.kerb.identity.backend;
+
+import org.apache.kerberos.kerb.identity.KrbIdentity;
+import org.apache.kerberos.kerb.spec.common.EncryptionKey;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+public class InMemoryIdentityBackendTest {
+
+    @Test
+    public void testIterate() {
+        InMemoryIdentityBackend backend = new InMemoryIdentityBackend();
+        for (int i = 0; i < 100; i++) {
+            backend.addIdentity(new KrbIdentity("user" + i + "@EXAMPLE.COM"));
+        }
+
+        int count = 0;
+        Iterator<KrbIdentity> it = backend.iterateIdentities();
+        while (it.hasNext()) {
+            KrbIdentity identity = it.next();
+            // Changes while iterating are fine
+            backend.deleteIdentity(identity);
+            count++;
+        }
+        Assert.assertEquals(100, count);
+        Assert.assertTrue(backend.getIdentities().isEmpty());
+    }
+
+    @Test
+    public void testKeysSnapshot() {
+        KrbIdentity identity = new KrbIdentity("user@EXAMPLE.COM");
+        identity.addKey(new EncryptionKey(EncryptionType.AES128_CTS_HMAC_SHA1_96, new byte[16], 1));
+        identity.addKey(new EncryptionKey(EncryptionType.DES3_CBC_SHA1_KD, new byte[24], 1));
+
+        Map<EncryptionType, EncryptionKey> keys = identity.getKeys();
+        identity.setKeys(Arrays.asList(
+                new EncryptionKey(EncryptionType.AES256_CTS_HMAC_SHA1_96, new byte[32], 2)));
+
+        Assert.assertEquals(2, keys.size());
+        Assert.assertEquals(1, identity.getKeys().size());
+        Assert.assertEquals(2, identity.getKey(EncryptionType.AES256_CTS_HMAC_SHA1_96).getKvno());
+        Assert.assertNull(identity.getKey(EncryptionType.AES128_CTS_HMAC_SHA1_96));
+    }
+}
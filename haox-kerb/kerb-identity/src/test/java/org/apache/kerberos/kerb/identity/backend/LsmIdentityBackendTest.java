@@ -0,0 +1,103 @@
+package org.apache.kerberos.kerb.identity.backend;
+
+import org.apache.kerberos.kerb.identity.KrbIdentity;
+import org.apache.kerberos.kerb.spec.common.EncryptionKey;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+public class LsmIdentityBackendTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("identities", "");
+        dir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testLookupAcrossSegments() {
+        // Small memtable, so there are flushes and merges
+        LsmIdentityBackend backend = newBackend();
+        for (int i = 0; i < 200; i++) {
+            backend.addIdentity(newIdentity("user" + i + "@EXAMPLE.COM", 1));
+        }
+        backend.updateIdentity(newIdentity("user5@EXAMPLE.COM", 2));
+        backend.deleteIdentity(newIdentity("user7@EXAMPLE.COM", 1));
+
+        Assert.assertEquals(2, backend.getIdentity("user5@EXAMPLE.COM").getKeyVersion());
+        Assert.assertNull(backend.getIdentity("user7@EXAMPLE.COM"));
+        Assert.assertNotNull(backend.getIdentity("user199@EXAMPLE.COM"));
+        Assert.assertNull(backend.getIdentity("nobody@EXAMPLE.COM"));
+        Assert.assertEquals(199, backend.getIdentities().size());
+        backend.close();
+
+        backend = newBackend();
+        Assert.assertEquals(2, backend.getIdentity("user5@EXAMPLE.COM").getKeyVersion());
+        Assert.assertNull(backend.getIdentity("user7@EXAMPLE.COM"));
+        Assert.assertArrayEquals(new byte[16], backend.getIdentity("user0@EXAMPLE.COM")
+                .getKey(EncryptionType.AES128_CTS_HMAC_SHA1_96).getKeyData());
+        Assert.assertEquals(199, backend.getIdentities().size());
+        backend.close();
+    }
+
+    @Test
+    public void testScan() {
+        LsmIdentityBackend backend = newBackend();
+        backend.addIdentity(newIdentity("HTTP/www.example.com@EXAMPLE.COM", 1));
+        backend.addIdentity(newIdentity("HTTP/www.example.org@EXAMPLE.ORG", 1));
+        for (int i = 0; i < 30; i++) {
+            backend.addIdentity(newIdentity("user" + i + "@EXAMPLE.COM", 1));
+        }
+        backend.addIdentity(newIdentity("HTTP/api.example.com@EXAMPLE.COM", 1));
+
+        Assert.assertEquals(32, count(backend.scan("EXAMPLE.COM", null)));
+        Assert.assertEquals(1, count(backend.scan("EXAMPLE.ORG", null)));
+
+        Iterator<KrbIdentity> it = backend.scan("EXAMPLE.COM", "HTTP/");
+        Assert.assertEquals("HTTP/api.example.com@EXAMPLE.COM", it.next().getPrincipalName());
+        Assert.assertEquals("HTTP/www.example.com@EXAMPLE.COM", it.next().getPrincipalName());
+        Assert.assertFalse(it.hasNext());
+        backend.close();
+    }
+
+    private LsmIdentityBackend newBackend() {
+        LsmIdentityBackend backend = new LsmIdentityBackend(dir, 16);
+        backend.load();
+        return backend;
+    }
+
+    private int count(Iterator<KrbIdentity> it) {
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
+    private KrbIdentity newIdentity(String name, int kvno) {
+        KrbIdentity identity = new KrbIdentity(name);
+        identity.setKeyVersion(kvno);
+        identity.addKey(new EncryptionKey(EncryptionType.AES128_CTS_HMAC_SHA1_96, new byte[16], kvno));
+        return identity;
+    }
+}
@@ -0,0 +1,72 @@
+package org.apache.kerberos.kerb.identity.backend;
+
+import org.apache.kerberos.kerb.identity.KrbIdentity;
+import org.apache.kerberos.kerb.spec.common.EncryptionKey;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class OffHeapIdentityBackendTest {
+
+    @Test
+    public void testIdentity() {
+        OffHeapIdentityBackend backend = new OffHeapIdentityBackend();
+        byte[] aesKey = new byte[16];
+        Arrays.fill(aesKey, (byte) 1);
+
+        KrbIdentity identity = new KrbIdentity("user@EXAMPLE.COM");
+        identity.setKeyVersion(2);
+        identity.addKey(new EncryptionKey(EncryptionType.AES128_CTS_HMAC_SHA1_96, aesKey, 2));
+        identity.addKey(new EncryptionKey(EncryptionType.DES3_CBC_SHA1_KD, new byte[24], 2));
+        backend.addIdentity(identity);
+
+        KrbIdentity found = backend.getIdentity("user@EXAMPLE.COM");
+        Assert.assertEquals(2, found.getKeyVersion());
+        Assert.assertEquals(2, found.getKeys().size());
+        EncryptionKey key = found.getKey(EncryptionType.AES128_CTS_HMAC_SHA1_96);
+        Assert.assertArrayEquals(aesKey, key.getKeyData());
+        Assert.assertEquals(2, key.getKvno());
+
+        // Replacing the keys frees the old ones
+        identity.setKeys(Arrays.asList(
+                new EncryptionKey(EncryptionType.AES256_CTS_HMAC_SHA1_96, new byte[32], 3)));
+        backend.updateIdentity(identity);
+        found = backend.getIdentity("user@EXAMPLE.COM");
+        Assert.assertEquals(1, found.getKeys().size());
+        Assert.assertEquals(3, found.getKey(EncryptionType.AES256_CTS_HMAC_SHA1_96).getKvno());
+
+        backend.deleteIdentity(identity);
+        Assert.assertNull(backend.getIdentity("user@EXAMPLE.COM"));
+        Assert.assertTrue(backend.getIdentities().isEmpty());
+    }
+
+    @Test
+    public void testKeyArena() {
+        KeyArena arena = new KeyArena();
+        byte[] keyData = new byte[16];
+        Arrays.fill(keyData, (byte) 7);
+
+        int slot = arena.allocate(new EncryptionKey(
+                EncryptionType.AES128_CTS_HMAC_SHA1_96, keyData, 1));
+        Assert.assertEquals(1, arena.getKey(slot).getKvno());
+        Assert.assertArrayEquals(keyData, arena.getKey(slot).getKeyData());
+
+        // Freed keys are zeroed, and the slot used again
+        arena.free(slot);
+        Assert.assertEquals(0, arena.getKey(slot).getKvno());
+        Assert.assertEquals(0, arena.getKey(slot).getKeyData().length);
+        Assert.assertEquals(slot, arena.allocate(new EncryptionKey(
+                EncryptionType.DES3_CBC_SHA1_KD, new byte[24], 1)));
+        Assert.assertEquals(1, arena.size());
+
+        for (int i = 0; i < 100000; i++) {
+            arena.allocate(new EncryptionKey(
+                    EncryptionType.AES128_CTS_HMAC_SHA1_96, keyData, 1));
+        }
+        Assert.assertEquals(100001, arena.size());
+        arena.clear();
+        Assert.assertEquals(0, arena.size());
+    }
+}
@@ -0,0 +1,106 @@
+package org.apache.kerberos.kerb.identity.backend;
+
+import org.apache.kerberos.kerb.identity.KrbIdentity;
+import org.apache.kerberos.kerb.spec.common.EncryptionKey;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class SimpleIdentityBackendTest {
+
+    private File identityFile;
+
+    @Before
+    public void setUp() throws IOException {
+        identityFile = File.createTempFile("simplekdb", ".dat");
+        identityFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        identityFile.delete();
+        new File(identityFile.getPath() + ".log").delete();
+    }
+
+    @Test
+    public void testLoadFromLog() {
+        SimpleIdentityBackend backend = newBackend();
+        backend.addIdentity(newIdentity("alice@EXAMPLE.COM", 1));
+        backend.addIdentity(newIdentity("bob@EXAMPLE.COM", 1));
+        backend.updateIdentity(newIdentity("alice@EXAMPLE.COM", 2));
+        backend.deleteIdentity(newIdentity("bob@EXAMPLE.COM", 1));
+        backend.close();
+
+        backend = newBackend();
+        KrbIdentity alice = backend.getIdentity("alice@EXAMPLE.COM");
+        Assert.assertEquals(2, alice.getKeyVersion());
+        Assert.assertArrayEquals(new byte[] {2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2},
+                alice.getKey(EncryptionType.AES128_CTS_HMAC_SHA1_96).getKeyData());
+        Assert.assertNull(backend.getIdentity("bob@EXAMPLE.COM"));
+        Assert.assertEquals(1, backend.getIdentities().size());
+    }
+
+    @Test
+    public void testLoadFromSnapshot() {
+        SimpleIdentityBackend backend = newBackend();
+        for (int i = 0; i < 100; i++) {
+            backend.addIdentity(newIdentity("user" + i + "@EXAMPLE.COM", 1));
+        }
+        backend.save();
+        Assert.assertEquals(0, new File(identityFile.getPath() + ".log").length());
+
+        // Changes after the snapshot go to the log
+        backend.deleteIdentity(newIdentity("user0@EXAMPLE.COM", 1));
+        backend.addIdentity(newIdentity("user100@EXAMPLE.COM", 1));
+        backend.close();
+
+        backend = newBackend();
+        Assert.assertNull(backend.getIdentity("user0@EXAMPLE.COM"));
+        Assert.assertNotNull(backend.getIdentity("user1@EXAMPLE.COM"));
+        Assert.assertNotNull(backend.getIdentity("user100@EXAMPLE.COM"));
+        Assert.assertEquals(100, backend.getIdentities().size());
+        backend.close();
+    }
+
+    @Test
+    public void testPartialLogRecord() throws IOException {
+        SimpleIdentityBackend backend = newBackend();
+        backend.addIdentity(newIdentity("alice@EXAMPLE.COM", 1));
+        backend.close();
+
+        FileOutputStream log = new FileOutputStream(identityFile.getPath() + ".log", true);
+        log.write(new byte[] {0, 0, 0, 100, 1});
+        log.close();
+
+        backend = newBackend();
+        Assert.assertNotNull(backend.getIdentity("alice@EXAMPLE.COM"));
+        backend.addIdentity(newIdentity("bob@EXAMPLE.COM", 1));
+        backend.close();
+
+        backend = newBackend();
+        Assert.assertNotNull(backend.getIdentity("bob@EXAMPLE.COM"));
+        backend.close();
+    }
+
+    private SimpleIdentityBackend newBackend() {
+        SimpleIdentityBackend backend = new SimpleIdentityBackend(identityFile);
+        backend.load();
+        return backend;
+    }
+
+    private KrbIdentity newIdentity(String name, int kvno) {
+        KrbIdentity identity = new KrbIdentity(name);
+        identity.setKeyVersion(kvno);
+        byte[] keyData = new byte[16];
+        Arrays.fill(keyData, (byte) kvno);
+        identity.addKey(new EncryptionKey(EncryptionType.AES128_CTS_HMAC_SHA1_96, keyData, kvno));
+        return identity;
+    }
+}
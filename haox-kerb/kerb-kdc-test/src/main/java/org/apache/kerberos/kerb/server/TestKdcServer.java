@@ -12,9 +12,11 @@ import org.apache.kerberos.kerb.spec.common.PrincipalName;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.UUID;
 
 public class TestKdcServer extends SimpleKdcServer {
 
@@ -49,7 +51,9 @@ public class TestKdcServer extends SimpleKdcServer {
     public void init() {
         super.init();
 
+        long start = System.nanoTime();
         createPrincipals("krbtgt");
+        profileStep("init.principals", start);
     }
 
     public String getKdcRealm() {
@@ -69,11 +73,49 @@ public class TestKdcServer extends SimpleKdcServer {
         getIdentityService().addIdentity(identity);
     }
 
+    /**
+     * Create principals with random keys, as their passwords would be
+     * random and not kept anyway, without the string2key work.
+     */
     public void createPrincipals(String ... principals) {
-        String passwd;
+        List<EncryptionType> encTypes = getConfig().getEncryptionTypes();
         for (String principal : principals) {
-            passwd = UUID.randomUUID().toString();
-            createPrincipal(fixPrincipal(principal), passwd);
+            KrbIdentity identity = new KrbIdentity(fixPrincipal(principal));
+            try {
+                identity.addKeys(EncryptionUtil.generateKeys(encTypes));
+            } catch (KrbException e) {
+                throw new RuntimeException("Failed to generate encryption keys", e);
+            }
+            synchronized (this) {
+                getIdentityService().addIdentity(identity);
+            }
+        }
+    }
+
+    /**
+     * Create principals in bulk, with keys generated in parallel.
+     * @param passwords passwords by principal name
+     */
+    public void createPrincipals(Map<String, String> passwords) {
+        Map<String, String> fixedPasswords = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : passwords.entrySet()) {
+            fixedPasswords.put(fixPrincipal(entry.getKey()), entry.getValue());
+        }
+
+        List<EncryptionType> encTypes = getConfig().getEncryptionTypes();
+        Map<String, List<EncryptionKey>> encKeys = null;
+        try {
+            encKeys = EncryptionUtil.generateKeys(fixedPasswords, encTypes);
+        } catch (KrbException e) {
+            throw new RuntimeException("Failed to generate encryption keys", e);
+        }
+
+        synchronized (this) {
+            for (Map.Entry<String, List<EncryptionKey>> entry : encKeys.entrySet()) {
+                KrbIdentity identity = new KrbIdentity(entry.getKey());
+                identity.addKeys(entry.getValue());
+                getIdentityService().addIdentity(identity);
+            }
         }
     }
 
@@ -87,12 +129,12 @@ public class TestKdcServer extends SimpleKdcServer {
     public void exportPrincipals(File keytabFile) throws IOException {
         Keytab keytab = new Keytab();
 
-        List<KrbIdentity> identities = getIdentityService().getIdentities();
-        for (KrbIdentity identity : identities) {
+        Iterator<KrbIdentity> identities = getIdentityService().iterateIdentities();
+        while (identities.hasNext()) {
+            KrbIdentity identity = identities.next();
             PrincipalName principal = identity.getPrincipal();
             KerberosTime timestamp = new KerberosTime();
-            for (EncryptionType encType : identity.getKeys().keySet()) {
-                EncryptionKey ekey = identity.getKeys().get(encType);
+            for (EncryptionKey ekey : identity.getKeys().values()) {
                 int keyVersion = ekey.getKvno();
                 keytab.addEntry(new KeytabEntry(principal, timestamp, keyVersion, ekey));
             }
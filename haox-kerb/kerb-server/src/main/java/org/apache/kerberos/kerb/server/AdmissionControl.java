@@ -0,0 +1,178 @@
+package org.apache.kerberos.kerb.server;
+
+import org.apache.kerberos.kerb.server.metrics.KdcMetrics;
+import org.apache.kerberos.kerb.server.request.AsRequest;
+import org.apache.kerberos.kerb.server.request.KdcRequest;
+
+import java.net.InetAddress;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sheds requests when they wait too long to be worked on, so when the KDC
+ * is overloaded the requests it takes are still answered in time, rather
+ * than all of them getting slower until clients time out and retry.
+ *
+ * The time a request waited in the queue of the first worker stage is fed
+ * to CoDel (RFC 8289): once the waits have been over the target for an
+ * interval, requests are shed, more often the longer it lasts, until a
+ * wait is under the target again.
+ *
+ * A shed falls on the next request of a kind that may be shed, by default
+ * retries (a request seen before from the same address with the same
+ * nonce, which the client already has another copy of in flight) and AS
+ * requests, leaving TGS requests, of clients already logged in, alone.
+ * Any request that waited longer than the interval is shed though, so the
+ * wait stays bounded.
+ *
+ * A request run by the stage before, as the queue was full, didn't wait,
+ * so it's kept out of the control law, but a shed due may still fall on
+ * it, see {@link #shouldShedPending(KdcRequest)}.
+ */
+class AdmissionControl {
+
+    static enum Kind {
+        RETRY,
+        AS,
+        TGS
+    }
+
+    private static final int RECENT_REQUESTS = 1 << 14;
+
+    private final long target;
+    private final long interval;
+    private final Set<Kind> sheddable = EnumSet.noneOf(Kind.class);
+    private final KdcMetrics metrics;
+
+    // Fingerprints of address and nonce of the requests seen lately, lossy
+    private final AtomicLongArray recentRequests = new AtomicLongArray(RECENT_REQUESTS);
+
+    // CoDel state, guarded by this
+    private long firstAboveTime;
+    private long dropNext;
+    private int count;
+    private boolean dropping;
+    // Sheds due but not yet done, for want of a request that may be shed
+    private int pending;
+
+    /**
+     * @param target the wait in nanoseconds over which to start shedding
+     * @param interval how long the waits have to be over the target first,
+     *                 in nanoseconds
+     * @param kinds the kinds of requests to shed, by name
+     */
+    AdmissionControl(long target, long interval, List<String> kinds, KdcMetrics metrics) {
+        this.target = target;
+        this.interval = interval;
+        for (String kind : kinds) {
+            sheddable.add(Kind.valueOf(kind.trim().toUpperCase()));
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * Whether to shed the request, having waited so long in the queue.
+     */
+    boolean shouldShed(KdcRequest kdcRequest, long waitNanos) {
+        Kind kind = getKind(kdcRequest);
+        return countShed(kind, shouldShed(kind, waitNanos, System.nanoTime()));
+    }
+
+    /**
+     * Whether to shed the request, not having waited in the queue, for a
+     * shed due.
+     */
+    boolean shouldShedPending(KdcRequest kdcRequest) {
+        Kind kind = getKind(kdcRequest);
+        return countShed(kind, shouldShedPending(kind));
+    }
+
+    private boolean countShed(Kind kind, boolean shed) {
+        if (shed) {
+            metrics.countShed(kind.name().toLowerCase());
+        }
+        return shed;
+    }
+
+    synchronized boolean shouldShed(Kind kind, long wait, long now) {
+        if (wait > interval) {
+            return true;
+        }
+        if (isDropDue(wait, now)) {
+            // Don't let them pile up while there's nothing to shed
+            pending = Math.min(pending + 1, 2);
+        }
+        return shouldShedPending(kind);
+    }
+
+    synchronized boolean shouldShedPending(Kind kind) {
+        if (pending > 0 && sheddable.contains(kind)) {
+            pending--;
+            return true;
+        }
+        return false;
+    }
+
+    // The CoDel control law on dequeue, with drops counted as done
+    private boolean isDropDue(long wait, long now) {
+        boolean okToDrop = false;
+        if (wait < target) {
+            firstAboveTime = 0;
+        } else if (firstAboveTime == 0) {
+            firstAboveTime = now + interval;
+        } else if (now - firstAboveTime >= 0) {
+            okToDrop = true;
+        }
+
+        if (dropping) {
+            if (! okToDrop) {
+                dropping = false;
+                pending = 0;
+                return false;
+            }
+            if (now - dropNext >= 0) {
+                count++;
+                dropNext = controlLaw(dropNext);
+                return true;
+            }
+            return false;
+        }
+
+        if (okToDrop) {
+            dropping = true;
+            // Start from about where the last run of drops ended if recent
+            count = count > 2 && now - dropNext < 16 * interval ? count - 2 : 1;
+            dropNext = controlLaw(now);
+            return true;
+        }
+        return false;
+    }
+
+    private long controlLaw(long time) {
+        return time + (long) (interval / Math.sqrt(count));
+    }
+
+    Kind getKind(KdcRequest kdcRequest) {
+        if (isRetry(kdcRequest)) {
+            return Kind.RETRY;
+        }
+        return kdcRequest instanceof AsRequest ? Kind.AS : Kind.TGS;
+    }
+
+    /**
+     * Whether the same request was seen lately, remembering it if not.
+     */
+    boolean isRetry(KdcRequest kdcRequest) {
+        InetAddress address = kdcRequest.getClientAddress();
+        int nonce = kdcRequest.getKdcReq().getReqBody().getNonce();
+        long fingerprint = ((long) (address != null ? address.hashCode() : 0) << 32)
+                | (nonce & 0xffffffffL);
+        // Not 0, which is an empty slot
+        fingerprint |= 1L << 63;
+
+        int slot = (int) ((fingerprint * 0x9e3779b97f4a7c15L) >>> 50) & (RECENT_REQUESTS - 1);
+        return recentRequests.getAndSet(slot, fingerprint) == fingerprint;
+    }
+}
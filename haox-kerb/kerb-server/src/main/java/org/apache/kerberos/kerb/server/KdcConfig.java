@@ -4,6 +4,7 @@ import org.apache.haox.config.Conf;
 import org.apache.kerberos.kerb.common.KrbConfHelper;
 import org.apache.kerberos.kerb.spec.common.EncryptionType;
 
+import java.util.Collections;
 import java.util.List;
 
 public class KdcConfig {
@@ -42,6 +43,17 @@ public class KdcConfig {
         return conf.getString(KdcConfigKey.KDC_REALM);
     }
 
+    /**
+     * The other realms served besides {@link #getKdcRealm()}, if any.
+     */
+    public List<String> getKdcRealms() {
+        List<String> realms = conf.getList(KdcConfigKey.KDC_REALMS);
+        if (realms == null) {
+            return Collections.emptyList();
+        }
+        return realms;
+    }
+
     public String getKdcDomain() {
         return conf.getString(KdcConfigKey.KDC_DOMAIN);
     }
@@ -58,6 +70,178 @@ public class KdcConfig {
         return conf.getLong(KdcConfigKey.ALLOWABLE_CLOCKSKEW);
     }
 
+    public String getReplayCacheType() {
+        return conf.getString(KdcConfigKey.REPLAY_CACHE_TYPE);
+    }
+
+    /**
+     * The requests the replay cache holds, which bounds the rate of TGS
+     * requests taken: the cache needs room for those of the clock skew
+     * window, with headroom, and turns away the ones past that. The default
+     * is good for about 1300 a second with the default clock skew of 5
+     * minutes; scale it with the rate and the skew.
+     */
+    public int getReplayCacheSize() {
+        return conf.getInt(KdcConfigKey.REPLAY_CACHE_SIZE);
+    }
+
+    public int getIdentityCacheSize() {
+        return conf.getInt(KdcConfigKey.IDENTITY_CACHE_SIZE);
+    }
+
+    public long getIdentityCacheTtl() {
+        return conf.getLong(KdcConfigKey.IDENTITY_CACHE_TTL);
+    }
+
+    public long getIdentityCacheNegativeTtl() {
+        return conf.getLong(KdcConfigKey.IDENTITY_CACHE_NEGATIVE_TTL);
+    }
+
+    public boolean isIdentityOffHeapKeys() {
+        return conf.getBoolean(KdcConfigKey.IDENTITY_OFF_HEAP_KEYS);
+    }
+
+    public int getDecodeThreads() {
+        return conf.getInt(KdcConfigKey.DECODE_THREADS);
+    }
+
+    public int getLookupThreads() {
+        return conf.getInt(KdcConfigKey.LOOKUP_THREADS);
+    }
+
+    public int getVerifyThreads() {
+        return conf.getInt(KdcConfigKey.VERIFY_THREADS);
+    }
+
+    public int getIssueThreads() {
+        return conf.getInt(KdcConfigKey.ISSUE_THREADS);
+    }
+
+    public int getSendThreads() {
+        return conf.getInt(KdcConfigKey.SEND_THREADS);
+    }
+
+    public int getStageQueueSize() {
+        return conf.getInt(KdcConfigKey.STAGE_QUEUE_SIZE);
+    }
+
+    /**
+     * The time in milliseconds requests may wait for a worker before some
+     * are shed, when it's been longer for a while, or 0 not to shed any.
+     */
+    public long getQueueTargetMillis() {
+        return conf.getLong(KdcConfigKey.QUEUE_TARGET_MILLIS);
+    }
+
+    /**
+     * How long in milliseconds requests have to wait longer than the target
+     * before some are shed. Requests waiting longer than this are always
+     * shed.
+     */
+    public long getQueueIntervalMillis() {
+        return conf.getLong(KdcConfigKey.QUEUE_INTERVAL_MILLIS);
+    }
+
+    /**
+     * The kinds of requests shed when waiting too long: "retry", "as" or
+     * "tgs".
+     */
+    public List<String> getShedKinds() {
+        return conf.getList(KdcConfigKey.SHED_KINDS);
+    }
+
+    /**
+     * The most requests of one realm in process at once, so a busy realm
+     * leaves the stages to the others, or 0 for no limit.
+     */
+    public int getRealmMaxRequests() {
+        return conf.getInt(KdcConfigKey.REALM_MAX_REQUESTS);
+    }
+
+    /**
+     * Whether the same TGS requests in process at once share the ticket
+     * issued, see TicketCoalescer.
+     */
+    public boolean isTgsCoalescing() {
+        return conf.getBoolean(KdcConfigKey.TGS_COALESCING);
+    }
+
+    /**
+     * The replies kept for requests sent again, or 0 to keep none, see
+     * LookasideCache. Each takes the bytes of the request and the reply.
+     */
+    public int getLookasideSize() {
+        return conf.getInt(KdcConfigKey.LOOKASIDE_SIZE);
+    }
+
+    /**
+     * The requests a second let through from one client address, or 0 for
+     * no limit.
+     */
+    public int getClientRateLimit() {
+        return conf.getInt(KdcConfigKey.CLIENT_RATE_LIMIT);
+    }
+
+    /**
+     * The requests a second let through for one principal, or 0 for no
+     * limit.
+     */
+    public int getPrincipalRateLimit() {
+        return conf.getInt(KdcConfigKey.PRINCIPAL_RATE_LIMIT);
+    }
+
+    /**
+     * The requests let through at once over the rate limits, after a quiet
+     * while.
+     */
+    public int getRateLimitBurst() {
+        return conf.getInt(KdcConfigKey.RATE_LIMIT_BURST);
+    }
+
+    /**
+     * The buckets kept by each rate limit, which bounds its memory.
+     */
+    public int getRateLimitBuckets() {
+        return conf.getInt(KdcConfigKey.RATE_LIMIT_BUCKETS);
+    }
+
+    /**
+     * How long in milliseconds stopping waits for the requests in process
+     * to be answered and the replies to be written.
+     */
+    public long getDrainTimeoutMillis() {
+        return conf.getLong(KdcConfigKey.DRAIN_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Whether to accept on the listening socket inherited from the process
+     * that launched the KDC, as with systemd or inetd socket activation,
+     * rather than binding one, so the socket stays open across restarts.
+     */
+    public boolean isInheritChannel() {
+        return conf.getBoolean(KdcConfigKey.INHERIT_CHANNEL);
+    }
+
+    /**
+     * Whether to keep the time taken by each step of starting, see
+     * {@link StartupProfile}.
+     */
+    public boolean isStartupProfile() {
+        return conf.getBoolean(KdcConfigKey.STARTUP_PROFILE);
+    }
+
+    /**
+     * Whether to run the crypto of the enctypes once when starting, in the
+     * background, so the first requests don't pay for loading it.
+     */
+    public boolean isCryptoWarmUp() {
+        return conf.getBoolean(KdcConfigKey.CRYPTO_WARMUP);
+    }
+
+    public String getMetricsRegistry() {
+        return conf.getString(KdcConfigKey.METRICS_REGISTRY);
+    }
+
     public boolean isEmptyAddressesAllowed() {
         return conf.getBoolean(KdcConfigKey.EMPTY_ADDRESSES_ALLOWED);
     }
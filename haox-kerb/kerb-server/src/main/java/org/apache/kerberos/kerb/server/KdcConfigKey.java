@@ -10,6 +10,7 @@ public enum KdcConfigKey implements ConfigKey {
     KDC_PORT(8015),
     KDC_DOMAIN("example.com"),
     KDC_REALM("EXAMPLE.COM"),
+    KDC_REALMS,
     TGS_PRINCIPAL("krbtgt@EXAMPLE.COM"),
     PREAUTH_REQUIRED(true),
     ALLOWABLE_CLOCKSKEW(5 * 60L),
@@ -23,6 +24,33 @@ public enum KdcConfigKey implements ConfigKey {
     PROXIABLE_ALLOWED(true),
     RENEWABLE_ALLOWED(true),
     VERIFY_BODY_CHECKSUM(true),
+    REPLAY_CACHE_TYPE("file"),
+    REPLAY_CACHE_SIZE(1 << 20),
+    IDENTITY_CACHE_SIZE(10000),
+    IDENTITY_CACHE_TTL(5 * 60L),
+    IDENTITY_CACHE_NEGATIVE_TTL(30L),
+    IDENTITY_OFF_HEAP_KEYS(false),
+    DECODE_THREADS(0),
+    LOOKUP_THREADS(8),
+    VERIFY_THREADS(4),
+    ISSUE_THREADS(4),
+    SEND_THREADS(0),
+    STAGE_QUEUE_SIZE(1024),
+    QUEUE_TARGET_MILLIS(10L),
+    QUEUE_INTERVAL_MILLIS(100L),
+    SHED_KINDS(new String[] { "retry", "as" }),
+    REALM_MAX_REQUESTS(0),
+    TGS_COALESCING(true),
+    LOOKASIDE_SIZE(4096),
+    CLIENT_RATE_LIMIT(0),
+    PRINCIPAL_RATE_LIMIT(0),
+    RATE_LIMIT_BURST(20),
+    RATE_LIMIT_BUCKETS(1 << 16),
+    DRAIN_TIMEOUT_MILLIS(5000L),
+    INHERIT_CHANNEL(false),
+    STARTUP_PROFILE(false),
+    CRYPTO_WARMUP(true),
+    METRICS_REGISTRY("jmx"),
     ENCRYPTION_TYPES(new String[] { "aes128-cts-hmac-sha1-96", "des3-cbc-sha1-kd" });
 
     private Object defaultValue;
@@ -1,11 +1,32 @@
 package org.apache.kerberos.kerb.server;
 
+import org.apache.kerberos.kerb.KrbErrorCode;
+import org.apache.kerberos.kerb.identity.CachedIdentityService;
 import org.apache.kerberos.kerb.identity.IdentityService;
+import org.apache.kerberos.kerb.identity.KrbIdentity;
+import org.apache.kerberos.kerb.server.metrics.KdcMetrics;
 import org.apache.kerberos.kerb.server.preauth.PreauthHandler;
 import org.apache.kerberos.kerb.server.replay.ReplayCheckService;
+import org.apache.kerberos.kerb.server.request.TicketCoalescer;
+import org.apache.kerberos.kerb.spec.KerberosTime;
+import org.apache.kerberos.kerb.spec.common.EncryptionKey;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+import org.apache.kerberos.kerb.spec.common.KrbError;
+import org.apache.kerberos.kerb.spec.common.PrincipalName;
 
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * The state of one realm served by the KDC: its identity service, replay
+ * cache and the keys and encodings kept for it. Each realm has its own, so
+ * realms don't see each other's principals or share caches, and each has a
+ * share of the requests in process, see {@link #startRequest()}.
+ */
 public class KdcContext {
     private KdcConfig config;
     private List<String> supportedKdcRealms;
@@ -13,9 +34,128 @@ public class KdcContext {
     private IdentityService identityService;
     private ReplayCheckService replayCache;
     private PreauthHandler preauthHandler;
+    private KdcMetrics metrics;
+    // Encoded METHOD-DATA of the PREAUTH_REQUIRED errors, by the enctypes in it
+    private final ConcurrentMap<List<EncryptionType>, byte[]> preauthRequiredEdata =
+            new ConcurrentHashMap<List<EncryptionType>, byte[]>();
+    private static final int MAX_PREAUTH_REQUIRED_EDATA = 64;
+
+    private TicketCoalescer ticketCoalescer;
+    private int maxRequests;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    // Don't reload the krbtgt entry for unknown kvnos more often than this
+    private static final long TGS_RELOAD_INTERVAL = 10 * 1000L;
+
+    private volatile PrincipalName tgsPrincipal;
+    private String tgsPrincipalName;
+    private volatile TgsEntry tgsEntry;
 
     public void init(KdcConfig config) {
         this.config = config;
+        this.maxRequests = config.getRealmMaxRequests();
+        if (config.isTgsCoalescing()) {
+            this.ticketCoalescer = new TicketCoalescer();
+        }
+    }
+
+    /**
+     * Shares the tickets of the same TGS requests of the realm in process
+     * at once, or null if they're not shared.
+     */
+    public TicketCoalescer getTicketCoalescer() {
+        return ticketCoalescer;
+    }
+
+    /**
+     * Count a request of the realm as in process, unless there are already
+     * as many as the realm is allowed, when it should be turned away. Each
+     * one started must be ended with {@link #requestDone()}.
+     */
+    public boolean startRequest() {
+        int count = requests.incrementAndGet();
+        if (maxRequests > 0 && count > maxRequests) {
+            requests.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public void requestDone() {
+        requests.decrementAndGet();
+    }
+
+    /**
+     * The requests of the realm in process.
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * The krbtgt principal of the realm. It's shared by all the requests,
+     * so it must not be changed.
+     */
+    public PrincipalName getTgsPrincipal() {
+        if (tgsPrincipal == null) {
+            PrincipalName principal = new PrincipalName(config.getTgsPrincipal());
+            principal.setRealm(getKdcRealm());
+            tgsPrincipalName = principal.getName();
+            tgsPrincipal = principal;
+        }
+        return tgsPrincipal;
+    }
+
+    /**
+     * The krbtgt identity, loaded once and kept for the requests to share,
+     * or null if it isn't there.
+     */
+    public KrbIdentity getTgsEntry() {
+        TgsEntry entry = tgsEntry;
+        if (entry == null || (entry.identity == null && entry.isReloadable())) {
+            entry = loadTgsEntry();
+        }
+        return entry.identity;
+    }
+
+    /**
+     * Get the krbtgt key for an enctype and the kvno a ticket was sealed
+     * with. A newer kvno than the one held, or a missing key, means the keys
+     * may have been rotated, so the entry is loaded again, though not more
+     * often than every {@link #TGS_RELOAD_INTERVAL}.
+     */
+    public EncryptionKey getTgsKey(EncryptionType encType, int kvno) {
+        TgsEntry entry = tgsEntry;
+        if (entry == null) {
+            entry = loadTgsEntry();
+        }
+
+        EncryptionKey key = entry.keys.get(encType);
+        boolean stale = key == null || (kvno > 0 && kvno > key.getKvno());
+        if (stale && entry.isReloadable()) {
+            entry = loadTgsEntry();
+            key = entry.keys.get(encType);
+        }
+        return key;
+    }
+
+    /**
+     * Load the krbtgt entry from the identity service again, as after its
+     * keys are changed.
+     */
+    public void reloadTgsEntry() {
+        loadTgsEntry();
+    }
+
+    private synchronized TgsEntry loadTgsEntry() {
+        getTgsPrincipal();
+        // From the backend, as the cache would give the old keys for its TTL
+        if (identityService instanceof CachedIdentityService) {
+            ((CachedIdentityService) identityService).invalidate(tgsPrincipalName);
+        }
+        TgsEntry entry = new TgsEntry(identityService.getIdentity(tgsPrincipalName));
+        this.tgsEntry = entry;
+        return entry;
     }
 
     public KdcConfig getConfig() {
@@ -43,7 +183,7 @@ public class KdcContext {
     }
 
     public String getServerRealm() {
-        return config.getKdcRealm();
+        return getKdcRealm();
     }
 
     public String getKdcRealm() {
@@ -53,6 +193,48 @@ public class KdcContext {
         return config.getKdcRealm();
     }
 
+    /**
+     * An error reply from the KDC of the realm, to fill in further.
+     */
+    public KrbError makeError(KrbErrorCode errorCode) {
+        KrbError krbError = new KrbError();
+        long now = System.currentTimeMillis();
+        krbError.setStime(new KerberosTime(now));
+        krbError.setSusec((int) (now % 1000) * 1000);
+        krbError.setErrorCode(errorCode);
+        krbError.setRealm(getKdcRealm());
+        krbError.setSname(getTgsPrincipal());
+        return krbError;
+    }
+
+    /**
+     * The encoded METHOD-DATA of the PREAUTH_REQUIRED errors listing the
+     * enctypes, or null if not made yet. Principals with keys of the same
+     * enctypes share it, so there are only a few of them.
+     */
+    public byte[] getPreauthRequiredEdata(List<EncryptionType> encryptionTypes) {
+        return preauthRequiredEdata.get(encryptionTypes);
+    }
+
+    public void setPreauthRequiredEdata(List<EncryptionType> encryptionTypes, byte[] edata) {
+        if (preauthRequiredEdata.size() >= MAX_PREAUTH_REQUIRED_EDATA) {
+            // Just start over, they're cheap to make again
+            preauthRequiredEdata.clear();
+        }
+        preauthRequiredEdata.put(encryptionTypes, edata);
+    }
+
+    public void setMetrics(KdcMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * The metrics to record to, or null if not kept.
+     */
+    public KdcMetrics getMetrics() {
+        return metrics;
+    }
+
     public void setReplayCache(ReplayCheckService replayCache) {
         this.replayCache = replayCache;
     }
@@ -65,8 +247,26 @@ public class KdcContext {
         this.identityService = identityService;
     }
 
-
     public IdentityService getIdentityService() {
         return identityService;
     }
+
+    private static class TgsEntry {
+        private final KrbIdentity identity;
+        private final Map<EncryptionType, EncryptionKey> keys;
+        private final long loadTime;
+
+        TgsEntry(KrbIdentity identity) {
+            this.identity = identity;
+            this.keys = new EnumMap<EncryptionType, EncryptionKey>(EncryptionType.class);
+            if (identity != null) {
+                keys.putAll(identity.getKeys());
+            }
+            this.loadTime = System.currentTimeMillis();
+        }
+
+        boolean isReloadable() {
+            return System.currentTimeMillis() - loadTime > TGS_RELOAD_INTERVAL;
+        }
+    }
 }
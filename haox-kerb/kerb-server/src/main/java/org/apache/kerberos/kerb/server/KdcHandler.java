@@ -2,22 +2,28 @@ package org.apache.kerberos.kerb.server;
 
 import org.apache.kerberos.kerb.common.KrbUtil;
 import org.apache.kerberos.kerb.identity.IdentityService;
+import org.apache.kerberos.kerb.server.metrics.DefaultMetricsRegistry;
+import org.apache.kerberos.kerb.server.metrics.KdcMetrics;
 import org.apache.kerberos.kerb.server.preauth.PreauthHandler;
 import org.apache.kerberos.kerb.server.replay.ReplayCheckService;
 import org.apache.kerberos.kerb.server.request.AsRequest;
 import org.apache.kerberos.kerb.server.request.KdcRequest;
 import org.apache.kerberos.kerb.server.request.TgsRequest;
+import org.apache.kerberos.kerb.KrbErrorCode;
 import org.apache.kerberos.kerb.KrbException;
+import org.apache.kerberos.kerb.spec.common.KrbError;
 import org.apache.kerberos.kerb.spec.common.KrbMessage;
 import org.apache.kerberos.kerb.spec.common.KrbMessageType;
+import org.apache.kerberos.kerb.spec.common.PrincipalName;
 import org.apache.kerberos.kerb.spec.kdc.AsReq;
-import org.apache.kerberos.kerb.spec.kdc.KdcReq;
+import org.apache.kerberos.kerb.spec.kdc.KdcReqBody;
 import org.apache.kerberos.kerb.spec.kdc.TgsReq;
 import org.apache.haox.transport.MessageHandler;
 import org.apache.haox.transport.Transport;
 import org.apache.haox.transport.event.MessageEvent;
 import org.apache.haox.transport.tcp.TcpTransport;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -28,14 +34,24 @@ import java.util.Map;
 public class KdcHandler extends MessageHandler {
 
     private List<String> kdcRealms = new ArrayList<String>(1);
+    // Not changed after init, so read without locking
     private Map<String, KdcContext> kdcContexts;
 
     private KdcConfig kdcConfig;
     private PreauthHandler preauthHandler;
+    private KdcPipeline pipeline;
+    private KdcMetrics metrics;
+    // Null when not limited
+    private RateLimiter clientRateLimiter;
+    private RateLimiter principalRateLimiter;
 
-    // TODO: per realm for below
+    // Of the realms with none of their own
     private IdentityService identityService;
     private ReplayCheckService replayCheckService;
+    private Map<String, IdentityService> identityServices =
+            new HashMap<String, IdentityService>();
+    private Map<String, ReplayCheckService> replayCheckServices =
+            new HashMap<String, ReplayCheckService>();
 
     /**
      * Should be called when all the necessary properties are set
@@ -43,87 +59,225 @@ public class KdcHandler extends MessageHandler {
     public void init() {
         loadKdcRealms();
 
+        if (metrics == null) {
+            metrics = new KdcMetrics(new DefaultMetricsRegistry());
+        }
+
+        int burst = kdcConfig.getRateLimitBurst();
+        int buckets = kdcConfig.getRateLimitBuckets();
+        if (kdcConfig.getClientRateLimit() > 0) {
+            clientRateLimiter = new RateLimiter(kdcConfig.getClientRateLimit(), burst, buckets);
+        }
+        if (kdcConfig.getPrincipalRateLimit() > 0) {
+            principalRateLimiter = new RateLimiter(kdcConfig.getPrincipalRateLimit(),
+                    burst, buckets);
+        }
+
         preauthHandler = new PreauthHandler();
         preauthHandler.init(kdcConfig);
 
-        kdcContexts = new HashMap<String, KdcContext>(1);
+        Map<String, KdcContext> contexts = new HashMap<String, KdcContext>(kdcRealms.size());
         for (String realm : kdcRealms) {
-            initRealmContext(realm);
+            contexts.put(realm, makeRealmContext(realm));
         }
+        kdcContexts = contexts;
+
+        pipeline = new KdcPipeline(this, kdcConfig, metrics);
     }
 
-    private void initRealmContext(String kdcRealm) {
+    private KdcContext makeRealmContext(String kdcRealm) {
+        IdentityService realmIdentityService = identityServices.get(kdcRealm);
+        if (realmIdentityService == null) {
+            realmIdentityService = identityService;
+        }
+        ReplayCheckService realmReplayCheckService = replayCheckServices.get(kdcRealm);
+        if (realmReplayCheckService == null) {
+            realmReplayCheckService = replayCheckService;
+        }
+
         KdcContext kdcContext = new KdcContext();
         kdcContext.init(kdcConfig);
         kdcContext.setKdcRealm(kdcRealm);
         kdcContext.setPreauthHandler(preauthHandler);
-        kdcContext.setIdentityService(identityService);
-        kdcContext.setReplayCache(replayCheckService);
-
-        kdcContexts.put(kdcRealm, kdcContext);
+        kdcContext.setIdentityService(realmIdentityService);
+        kdcContext.setReplayCache(realmReplayCheckService);
+        kdcContext.setMetrics(metrics);
+        try {
+            kdcContext.reloadTgsEntry();
+        } catch (RuntimeException e) {
+            // The backend may not be up yet; it's loaded on first use then
+        }
+        return kdcContext;
     }
 
+    /**
+     * Add a realm to serve. Without any, the one configured is served.
+     */
     public void setKdcRealm(String realm) {
-        this.kdcRealms.add(realm);
+        if (! kdcRealms.contains(realm)) {
+            this.kdcRealms.add(realm);
+        }
+    }
+
+    /**
+     * The context of the realm, or null if it's not served.
+     */
+    public KdcContext getKdcContext(String realm) {
+        return kdcContexts.get(realm);
     }
 
     public void setConfig(KdcConfig config) {
         this.kdcConfig = config;
     }
 
+    /**
+     * The identity service of the realms not given one of their own.
+     */
     public void setIdentityService(IdentityService identityService) {
         this.identityService = identityService;
     }
 
+    public void setIdentityService(String realm, IdentityService identityService) {
+        identityServices.put(realm, identityService);
+    }
+
+    public void setMetrics(KdcMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * The replay cache of the realms not given one of their own.
+     */
+    public void setReplayCheckService(ReplayCheckService replayCheckService) {
+        this.replayCheckService = replayCheckService;
+    }
+
+    public void setReplayCheckService(String realm, ReplayCheckService replayCheckService) {
+        replayCheckServices.put(realm, replayCheckService);
+    }
+
+    /**
+     * Stop the stages, waiting for the requests in process to be answered
+     * up to the timeout.
+     *
+     * @return whether all the requests were answered
+     */
+    public boolean stop(long timeout) throws InterruptedException {
+        if (pipeline != null) {
+            return pipeline.stop(timeout);
+        }
+        return true;
+    }
+
     @Override
     protected void handleMessage(MessageEvent event) throws Exception {
-        ByteBuffer message = event.getMessage();
-        Transport transport = event.getTransport();
-
-        KrbMessage krbRequest = KrbUtil.decodeMessage(message);
-        KdcRequest kdcRequest = null;
+        pipeline.submit(event.getMessage(), event.getTransport());
+    }
 
-        KrbMessageType messageType = krbRequest.getMsgType();
-        if (messageType == KrbMessageType.TGS_REQ || messageType == KrbMessageType.AS_REQ) {
-            KdcReq kdcReq = (KdcReq) krbRequest;
-            String realm = getRequestRealm(kdcReq);
-            if (realm == null || !kdcContexts.containsKey(realm)) {
-                throw new KrbException("Invalid realm from kdc request: " + realm);
+    /**
+     * Make the request for the context of its realm, found before decoding
+     * the message, so a request of a realm with its share of requests in
+     * process is turned away before any work is done for it. A request made
+     * is counted as in process for the realm until the reply is sent.
+     */
+    KdcRequest makeRequest(ByteBuffer message, Transport transport)
+            throws KrbException, IOException {
+        String realm = RealmSniffer.sniffRealm(message);
+        KdcContext kdcContext = realm != null ? kdcContexts.get(realm) : null;
+        if (kdcContext == null) {
+            // Decoding tells what's wrong if it's not a KDC request at all
+            KrbMessageType messageType = KrbUtil.decodeMessage(message).getMsgType();
+            if (messageType != KrbMessageType.TGS_REQ && messageType != KrbMessageType.AS_REQ) {
+                throw new KrbException(KrbErrorCode.KRB_AP_ERR_MSG_TYPE);
             }
+            throw new KrbException(KrbErrorCode.WRONG_REALM,
+                    "Invalid realm from kdc request: " + realm);
+        }
 
-            KdcContext kdcContext = kdcContexts.get(realm);
-            if (messageType == KrbMessageType.TGS_REQ) {
-                kdcRequest = new TgsRequest((TgsReq) kdcReq, kdcContext);
-            } else if (messageType == KrbMessageType.AS_REQ) {
-                kdcRequest = new AsRequest((AsReq) kdcReq, kdcContext);
+        if (! kdcContext.startRequest()) {
+            throw new KrbException(KrbErrorCode.KDC_ERR_SVC_UNAVAILABLE,
+                    "Too many requests in process for realm " + realm);
+        }
+        boolean started = false;
+        try {
+            KdcRequest kdcRequest = makeRequest(KrbUtil.decodeMessage(message), kdcContext);
+            InetSocketAddress clientAddress = transport.getRemoteAddress();
+            kdcRequest.setClientAddress(clientAddress.getAddress());
+            boolean isTcp = (transport instanceof TcpTransport);
+            kdcRequest.isTcp(isTcp);
+            started = true;
+            return kdcRequest;
+        } finally {
+            if (! started) {
+                kdcContext.requestDone();
             }
         }
+    }
 
-        InetSocketAddress clientAddress = transport.getRemoteAddress();
-        kdcRequest.setClientAddress(clientAddress.getAddress());
-        boolean isTcp = (transport instanceof TcpTransport);
-        kdcRequest.isTcp(isTcp);
+    private KdcRequest makeRequest(KrbMessage krbRequest, KdcContext kdcContext)
+            throws KrbException {
+        KrbMessageType messageType = krbRequest.getMsgType();
+        if (messageType == KrbMessageType.TGS_REQ) {
+            return new TgsRequest((TgsReq) krbRequest, kdcContext);
+        } else if (messageType == KrbMessageType.AS_REQ) {
+            return new AsRequest((AsReq) krbRequest, kdcContext);
+        }
+        throw new KrbException(KrbErrorCode.KRB_AP_ERR_MSG_TYPE);
+    }
 
-        kdcRequest.process();
+    /**
+     * Check the request against the rate limits by client address and by
+     * principal, before any lookup or crypto is done for it. A request over
+     * either gets a KDC_ERR_SVC_UNAVAILABLE error set, to be sent back as
+     * is, so clients try another KDC or back off.
+     *
+     * The principal is the client of an AS request, as password guessing
+     * goes at one, or the server of a TGS request, whose client is only
+     * known after opening the ticket.
+     */
+    boolean checkRateLimits(KdcRequest kdcRequest) {
+        if (clientRateLimiter != null && kdcRequest.getClientAddress() != null
+                && ! clientRateLimiter.tryAcquire(kdcRequest.getClientAddress())) {
+            metrics.countClientRateLimited();
+            kdcRequest.setError(kdcRequest.makeError(KrbErrorCode.KDC_ERR_SVC_UNAVAILABLE));
+            return false;
+        }
 
-        KrbMessage krbResponse = kdcRequest.getReply();
-        KrbUtil.sendMessage(krbResponse, transport);
+        if (principalRateLimiter != null) {
+            String principal = getLimitedPrincipal(kdcRequest);
+            if (principal != null && ! principalRateLimiter.tryAcquire(principal)) {
+                metrics.countPrincipalRateLimited();
+                kdcRequest.setError(kdcRequest.makeError(KrbErrorCode.KDC_ERR_SVC_UNAVAILABLE));
+                return false;
+            }
+        }
+        return true;
     }
 
-    private void loadKdcRealms() {
-        if (kdcRealms.isEmpty()) {
-            kdcRealms.add(kdcConfig.getKdcRealm());
+    private static String getLimitedPrincipal(KdcRequest kdcRequest) {
+        KdcReqBody body = kdcRequest.getKdcReq().getReqBody();
+        PrincipalName principal = kdcRequest instanceof AsRequest
+                ? body.getCname() : body.getSname();
+        if (principal == null) {
+            return null;
         }
+        return principal.getName() + "@" + body.getRealm();
     }
 
-    private String getRequestRealm(KdcReq kdcReq) {
-        String realm = kdcReq.getReqBody().getRealm();
-        if (realm == null && kdcReq.getReqBody().getCname() != null) {
-            realm = kdcReq.getReqBody().getCname().getRealm();
+    /**
+     * An error reply to the request, or from the default realm if there's
+     * no request, as when the message couldn't be decoded.
+     */
+    KrbError makeError(KdcRequest kdcRequest, KrbErrorCode errorCode) {
+        if (kdcRequest != null) {
+            return kdcRequest.makeError(errorCode);
         }
-        if (realm == null || realm.isEmpty()) {
-            realm = "NULL-KDC-REALM";
+        return kdcContexts.get(kdcRealms.get(0)).makeError(errorCode);
+    }
+
+    private void loadKdcRealms() {
+        if (kdcRealms.isEmpty()) {
+            kdcRealms.add(kdcConfig.getKdcRealm());
         }
-        return realm;
     }
 }
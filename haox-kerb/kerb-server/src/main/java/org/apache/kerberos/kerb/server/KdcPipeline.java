@@ -0,0 +1,377 @@
+package org.apache.kerberos.kerb.server;
+
+import org.apache.haox.transport.Transport;
+import org.apache.kerberos.kerb.KrbErrorCode;
+import org.apache.kerberos.kerb.KrbException;
+import org.apache.kerberos.kerb.common.KrbUtil;
+import org.apache.kerberos.kerb.server.metrics.KdcMetrics;
+import org.apache.kerberos.kerb.server.metrics.KdcMetrics.Phase;
+import org.apache.kerberos.kerb.server.request.KdcRequest;
+import org.apache.kerberos.kerb.spec.common.KrbError;
+import org.apache.kerberos.kerb.spec.common.KrbMessage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes KDC requests in stages, each with its own threads:
+ *
+ * decode: decode the message, make the request for its realm and check
+ * it against the rate limits,
+ * lookup: check the request and look up the principals,
+ * verify: check the preauth and the policy,
+ * issue: issue and seal the ticket and make the reply,
+ * send: encode and send the reply.
+ *
+ * A request is handed on to the next stage when it's done with one, so a
+ * thread waiting on the identity backend doesn't hold up the crypto of
+ * other requests. A stage with no threads runs on the thread of the stage
+ * before it. Each stage has a bounded queue; when it's full the stage
+ * before runs the work itself, which slows down the taking of new requests.
+ *
+ * A request that ends in an error, set on it or thrown, goes straight to
+ * the send stage to be answered with the KRB-ERROR.
+ *
+ * The stages are shared by all the realms; a realm that has as many
+ * requests in process as it's allowed gets the new ones turned away when
+ * they're made, see {@link KdcContext#startRequest()}.
+ *
+ * Requests that wait too long for a worker of the lookup stage, the first
+ * with its own threads by default, are shed by the {@link AdmissionControl}
+ * and answered with KDC_ERR_SVC_UNAVAILABLE, so clients try another KDC.
+ *
+ * A request sent again as is, as clients do when the reply is slow, is
+ * answered with the reply to the first from the {@link LookasideCache}
+ * before it's decoded.
+ *
+ * The time of each stage goes to the {@link KdcMetrics}, as do the errors
+ * by code.
+ */
+class KdcPipeline {
+
+    private static final long DRAIN_POLL_MILLIS = 5L;
+
+    private final KdcHandler kdcHandler;
+    private final KdcMetrics metrics;
+    // Null when not shedding
+    private final AdmissionControl admissionControl;
+    // Null when not kept
+    private final LookasideCache lookaside;
+
+    private final Stage decodeStage;
+    private final Stage lookupStage;
+    private final Stage verifyStage;
+    private final Stage issueStage;
+    private final Stage sendStage;
+
+    // Requests taken and not yet answered
+    private final AtomicInteger inProcess = new AtomicInteger();
+
+    KdcPipeline(KdcHandler kdcHandler, KdcConfig config, KdcMetrics metrics) {
+        this.kdcHandler = kdcHandler;
+        this.metrics = metrics;
+
+        long target = config.getQueueTargetMillis();
+        if (target > 0) {
+            admissionControl = new AdmissionControl(target * 1000000L,
+                    config.getQueueIntervalMillis() * 1000000L, config.getShedKinds(), metrics);
+        } else {
+            admissionControl = null;
+        }
+
+        int lookasideSize = config.getLookasideSize();
+        lookaside = lookasideSize > 0 ? new LookasideCache(lookasideSize) : null;
+
+        int queueSize = config.getStageQueueSize();
+        decodeStage = new Stage("decode", config.getDecodeThreads(), queueSize);
+        lookupStage = new Stage("lookup", config.getLookupThreads(), queueSize);
+        verifyStage = new Stage("verify", config.getVerifyThreads(), queueSize);
+        issueStage = new Stage("issue", config.getIssueThreads(), queueSize);
+        sendStage = new Stage("send", config.getSendThreads(), queueSize);
+    }
+
+    void submit(final ByteBuffer message, final Transport transport) throws Exception {
+        metrics.requestStarted();
+        inProcess.incrementAndGet();
+        decodeStage.execute(new Task() {
+            @Override
+            void run() throws Exception {
+                long start = System.nanoTime();
+                LookasideCache.Entry entry = null;
+                if (lookaside != null) {
+                    entry = lookaside.start(message, transport);
+                    if (entry == null) {
+                        // Sent again, answered with the reply of the first
+                        inProcess.decrementAndGet();
+                        metrics.requestDone();
+                        metrics.countLookasideHit();
+                        return;
+                    }
+                }
+
+                KdcRequest kdcRequest;
+                try {
+                    kdcRequest = kdcHandler.makeRequest(message, transport);
+                } catch (Exception e) {
+                    failed(null, transport, entry, e);
+                    return;
+                }
+                metrics.record(Phase.DECODE, start);
+                if (kdcHandler.checkRateLimits(kdcRequest)) {
+                    lookup(kdcRequest, transport, entry);
+                } else {
+                    send(kdcRequest, transport, entry);
+                }
+            }
+        });
+    }
+
+    private void lookup(final KdcRequest kdcRequest, final Transport transport,
+                        final LookasideCache.Entry entry) throws Exception {
+        final long queued = System.nanoTime();
+        lookupStage.execute(new Task() {
+            @Override
+            void run() throws Exception {
+                long start = System.nanoTime();
+                metrics.record(Phase.QUEUE, queued);
+                // Run by the caller when the queue is full, so it didn't
+                // wait, which isn't the wait that tells of a standing queue,
+                // but it can still take a shed due
+                if (admissionControl != null && (isQueued()
+                        ? admissionControl.shouldShed(kdcRequest, start - queued)
+                        : admissionControl.shouldShedPending(kdcRequest))) {
+                    kdcRequest.setError(kdcRequest.makeError(KrbErrorCode.KDC_ERR_SVC_UNAVAILABLE));
+                    send(kdcRequest, transport, entry);
+                    return;
+                }
+
+                try {
+                    kdcRequest.lookup();
+                } catch (Exception e) {
+                    failed(kdcRequest, transport, entry, e);
+                    return;
+                }
+                metrics.record(Phase.LOOKUP, start);
+                if (kdcRequest.getError() != null) {
+                    send(kdcRequest, transport, entry);
+                } else {
+                    verify(kdcRequest, transport, entry);
+                }
+            }
+        });
+    }
+
+    private void verify(final KdcRequest kdcRequest, final Transport transport,
+                        final LookasideCache.Entry entry) throws Exception {
+        verifyStage.execute(new Task() {
+            @Override
+            void run() throws Exception {
+                long start = System.nanoTime();
+                try {
+                    kdcRequest.verify();
+                } catch (Exception e) {
+                    failed(kdcRequest, transport, entry, e);
+                    return;
+                }
+                metrics.record(Phase.VERIFY, start);
+                if (kdcRequest.getError() != null) {
+                    send(kdcRequest, transport, entry);
+                } else {
+                    issue(kdcRequest, transport, entry);
+                }
+            }
+        });
+    }
+
+    private void issue(final KdcRequest kdcRequest, final Transport transport,
+                        final LookasideCache.Entry entry) throws Exception {
+        issueStage.execute(new Task() {
+            @Override
+            void run() throws Exception {
+                long start = System.nanoTime();
+                try {
+                    kdcRequest.issue();
+                } catch (Exception e) {
+                    failed(kdcRequest, transport, entry, e);
+                    return;
+                }
+                metrics.record(Phase.ISSUE, start);
+                metrics.countEncryptionType(kdcRequest.getEncryptionType());
+                send(kdcRequest, transport, entry);
+            }
+        });
+    }
+
+    private void send(final KdcRequest kdcRequest, final Transport transport,
+                      final LookasideCache.Entry entry) throws Exception {
+        sendStage.execute(new Task() {
+            @Override
+            void run() throws Exception {
+                KrbError error = kdcRequest.getError();
+                if (error != null) {
+                    metrics.countError(error.getErrorCode());
+                }
+                try {
+                    sendReply(kdcRequest.getReply(), transport, entry);
+                } finally {
+                    kdcRequest.getKdcContext().requestDone();
+                }
+            }
+        });
+    }
+
+    private void sendReply(KrbMessage reply, Transport transport, LookasideCache.Entry entry) {
+        try {
+            long start = System.nanoTime();
+            ByteBuffer message = KrbUtil.encodeMessage(reply);
+            metrics.record(Phase.ENCODE, start);
+            if (entry != null) {
+                lookaside.done(entry, message, isFinal(reply));
+            }
+
+            start = System.nanoTime();
+            transport.sendMessage(message);
+            metrics.record(Phase.SEND, start);
+        } finally {
+            inProcess.decrementAndGet();
+            metrics.requestDone();
+        }
+    }
+
+    /**
+     * Whether the reply is the answer to the request however often it's
+     * sent, so it's kept for the request sent again; not so for turning it
+     * away for now or for a failure of the backend.
+     */
+    private static boolean isFinal(KrbMessage reply) {
+        if (reply instanceof KrbError) {
+            KrbErrorCode errorCode = ((KrbError) reply).getErrorCode();
+            return errorCode != KrbErrorCode.KDC_ERR_SVC_UNAVAILABLE
+                    && errorCode != KrbErrorCode.KRB_ERR_GENERIC;
+        }
+        return true;
+    }
+
+    /**
+     * Answer a request that failed with an exception with an error reply.
+     * A KrbException is an answer to the request like any other; anything
+     * else is thrown on after answering, as it's a bug or a failing backend.
+     */
+    private void failed(KdcRequest kdcRequest, Transport transport,
+                        LookasideCache.Entry entry, Exception e) throws Exception {
+        KrbErrorCode errorCode = null;
+        if (e instanceof KrbException) {
+            errorCode = ((KrbException) e).getErrorCode();
+        }
+        if (errorCode == null) {
+            errorCode = KrbErrorCode.KRB_ERR_GENERIC;
+        }
+
+        KrbError error = kdcHandler.makeError(kdcRequest, errorCode);
+        if (kdcRequest != null) {
+            kdcRequest.setError(error);
+            send(kdcRequest, transport, entry);
+        } else {
+            metrics.countError(errorCode);
+            sendReply(error, transport, entry);
+        }
+
+        if (! (e instanceof KrbException)) {
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for the requests in process to be answered, up to the timeout,
+     * then stop the stages. Requests still coming in on the connections
+     * open are taken as usual until then.
+     *
+     * @return whether all the requests were answered
+     */
+    boolean stop(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (inProcess.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(DRAIN_POLL_MILLIS);
+        }
+        boolean drained = inProcess.get() == 0;
+
+        for (Stage stage : new Stage[] {
+                decodeStage, lookupStage, verifyStage, issueStage, sendStage}) {
+            stage.stop(deadline);
+        }
+        return drained;
+    }
+
+    private abstract static class Task {
+        private boolean fromQueue;
+
+        abstract void run() throws Exception;
+
+        /**
+         * Whether run by a worker of the stage, after waiting in its queue,
+         * rather than by the caller, as when the queue is full.
+         */
+        boolean isQueued() {
+            return fromQueue;
+        }
+    }
+
+    private static class Stage {
+        // Null when run on the thread of the stage before
+        private final ThreadPoolExecutor executor;
+
+        Stage(final String name, int threads, int queueSize) {
+            if (threads <= 0) {
+                executor = null;
+                return;
+            }
+
+            executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "kdc-" + name + "-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+
+        void execute(final Task task) throws Exception {
+            if (executor == null) {
+                task.run();
+                return;
+            }
+
+            final Thread caller = Thread.currentThread();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    task.fromQueue = Thread.currentThread() != caller;
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+
+        void stop(long deadline) throws InterruptedException {
+            if (executor != null) {
+                executor.shutdown();
+                executor.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
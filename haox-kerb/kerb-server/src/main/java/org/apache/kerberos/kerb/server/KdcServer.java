@@ -1,14 +1,46 @@
 package org.apache.kerberos.kerb.server;
 
 import org.apache.haox.event.EventHub;
+import org.apache.kerberos.kerb.KrbException;
 import org.apache.kerberos.kerb.common.KrbStreamingDecoder;
+import org.apache.kerberos.kerb.crypto.EncryptionHandler;
+import org.apache.kerberos.kerb.identity.CachedIdentityService;
 import org.apache.kerberos.kerb.identity.IdentityService;
-import org.apache.haox.transport.Acceptor;
+import org.apache.kerberos.kerb.identity.backend.InMemoryIdentityBackend;
+import org.apache.kerberos.kerb.identity.backend.OffHeapIdentityBackend;
+import org.apache.kerberos.kerb.server.metrics.DefaultMetricsRegistry;
+import org.apache.kerberos.kerb.server.metrics.JmxMetricsRegistry;
+import org.apache.kerberos.kerb.server.metrics.KdcMetrics;
+import org.apache.kerberos.kerb.server.metrics.MetricsRegistry;
+import org.apache.kerberos.kerb.server.replay.CacheService;
+import org.apache.kerberos.kerb.server.replay.MappedCacheService;
+import org.apache.kerberos.kerb.server.replay.ReplayCheckServiceImpl;
+import org.apache.kerberos.kerb.server.replay.TimeWindowCacheService;
+import org.apache.kerberos.kerb.spec.common.EncryptedData;
+import org.apache.kerberos.kerb.spec.common.EncryptionKey;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+import org.apache.kerberos.kerb.spec.common.KeyUsage;
 import org.apache.haox.transport.tcp.TcpAcceptor;
 
+import javax.management.ObjectName;
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channel;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 public class KdcServer {
+    // The prefix of the steps of init loading identities, which starting
+    // and the identity services wait for
+    protected static final String IDENTITY_STEP = "init.identity";
+
     private String kdcHost;
     private short kdcPort;
     private String kdcRealm;
@@ -18,19 +50,180 @@ public class KdcServer {
 
     private KdcHandler kdcHandler;
     private EventHub eventHub;
+    private TcpAcceptor acceptor;
+    // Those of the server taken over from, if any
+    private List<ServerSocketChannel> takenOverChannels;
+    // Whether the listening sockets went to another server
+    private boolean handedOver;
+    // The server taken over from, while initializing
+    private KdcServer takenOver;
+    // Null unless kdc.startup_profile is set
+    private StartupProfile startupProfile;
+    // The steps of init done in the background, by name
+    private final Map<String, FutureTask<Object>> backgroundSteps =
+            new LinkedHashMap<String, FutureTask<Object>>();
+    // The steps of init put off until accepting
+    private final Map<String, Runnable> deferredSteps = new LinkedHashMap<String, Runnable>();
 
     protected KdcConfig kdcConfig;
-    protected IdentityService identityService;
+    // By realm
+    protected Map<String, IdentityService> identityServices =
+            new HashMap<String, IdentityService>();
+    protected Map<String, CacheService> replayCaches = new HashMap<String, CacheService>();
     protected File workDir;
+    protected KdcMetrics metrics;
 
     public KdcServer() {
         kdcConfig = new KdcConfig();
     }
 
+    /**
+     * Only what's needed to start is done here. The metrics MBean, whose
+     * registration takes a while the first time in a JVM, is registered in
+     * the background once accepting, and so is the crypto warmed up, so
+     * they don't take the processors from starting.
+     */
     public void init() {
         initConfig();
+        if (kdcConfig.isStartupProfile()) {
+            startupProfile = new StartupProfile();
+        }
 
+        long start = System.nanoTime();
         initWorkDir();
+        profileStep("init.workdir", start);
+
+        start = System.nanoTime();
+        initReplayCache();
+        profileStep("init.replaycache", start);
+
+        start = System.nanoTime();
+        initMetrics();
+        profileStep("init.metrics", start);
+    }
+
+    /**
+     * Put off a step of init until the server is accepting, then do it in
+     * the background, for one that serving doesn't need.
+     */
+    protected void deferInit(String step, Runnable task) {
+        deferredSteps.put(step, task);
+    }
+
+    /**
+     * Do a step of init on a thread of its own, alongside the others, for
+     * one that takes a while and that the rest of init doesn't need. What
+     * needs it waits for it with {@link #awaitInit(String)}; stopping waits
+     * for all.
+     */
+    protected void initInBackground(final String step, final Runnable task) {
+        FutureTask<Object> future = new FutureTask<Object>(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                task.run();
+                profileStep(step, start);
+            }
+        }, null);
+        synchronized (backgroundSteps) {
+            backgroundSteps.put(step, future);
+        }
+
+        Thread thread = new Thread(future, "kdc-" + step);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Wait for the steps of init done in the background whose names start
+     * with the prefix, or for all with "", throwing what one failed with.
+     */
+    protected void awaitInit(String prefix) {
+        for (FutureTask<Object> step : getBackgroundSteps(prefix)) {
+            try {
+                step.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted initializing " + getServiceName(), e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Failed to init " + getServiceName(), e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Wait for all the steps of init done in the background, failed or not,
+     * so stopping doesn't race them, nor give up on a failed one.
+     */
+    private void awaitInitQuietly() {
+        for (FutureTask<Object> step : getBackgroundSteps("")) {
+            try {
+                step.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // Done, which is all stopping needs
+            }
+        }
+    }
+
+    private List<FutureTask<Object>> getBackgroundSteps(String prefix) {
+        List<FutureTask<Object>> steps = new ArrayList<FutureTask<Object>>();
+        synchronized (backgroundSteps) {
+            for (Map.Entry<String, FutureTask<Object>> entry : backgroundSteps.entrySet()) {
+                if (entry.getKey().startsWith(prefix)) {
+                    steps.add(entry.getValue());
+                }
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * Run the crypto of the configured enctypes once on a thread of its
+     * own, as loading the JCE providers and ciphers takes a while the first
+     * time, so the first requests don't pay for it. Done once accepting,
+     * and not waited for.
+     */
+    private void warmUpCrypto() {
+        final List<EncryptionType> encryptionTypes = kdcConfig.getEncryptionTypes();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    for (EncryptionType encryptionType : encryptionTypes) {
+                        EncryptionKey key = EncryptionHandler.random2Key(encryptionType);
+                        EncryptedData encrypted = EncryptionHandler.encrypt(new byte[16],
+                                key, KeyUsage.KDC_REP_TICKET);
+                        EncryptionHandler.decrypt(encrypted, key, KeyUsage.KDC_REP_TICKET);
+                    }
+                } catch (KrbException e) {
+                    // Only warming up, the requests will fail the same way
+                }
+                profileStep("crypto.warmup", start);
+            }
+        }, "kdc-crypto-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Record the step of starting in the startup profile, if kept.
+     */
+    protected void profileStep(String step, long start) {
+        if (startupProfile != null) {
+            startupProfile.record(step, start);
+        }
+    }
+
+    /**
+     * The time taken by the steps of starting, or null unless
+     * kdc.startup_profile is set.
+     */
+    public StartupProfile getStartupProfile() {
+        return startupProfile;
     }
 
     protected void initWorkDir() {
@@ -46,6 +239,88 @@ public class KdcServer {
         this.workDir = file;
     }
 
+    /**
+     * Each realm has its own replay cache, either kept in memory, or by
+     * default in the work dir when one is configured, so a restart doesn't
+     * forget the requests seen within the clock skew. Taking over, the
+     * realm keeps the one of the server taken over from, as it is.
+     */
+    protected void initReplayCache() {
+        for (String realm : getKdcRealms()) {
+            CacheService replayCache = null;
+            if (takenOver != null) {
+                replayCache = takenOver.replayCaches.remove(realm);
+            }
+            replayCaches.put(realm, replayCache != null ? replayCache : makeReplayCache(realm));
+        }
+    }
+
+    private CacheService makeReplayCache(String realm) {
+        long clockSkew = kdcConfig.getAllowableClockSkew() * 1000;
+        String cacheType = kdcConfig.getReplayCacheType();
+        if ("memory".equals(cacheType) || kdcConfig.getWorkDir() == null) {
+            // The window spans about 6 buckets, leave some headroom
+            int bucketCapacity = kdcConfig.getReplayCacheSize() / 4;
+            return new TimeWindowCacheService(clockSkew, bucketCapacity);
+        }
+        if (! "file".equals(cacheType)) {
+            throw new RuntimeException("Unknown replay cache type " + cacheType);
+        }
+
+        File cacheFile = new File(workDir, getRealmFileName("replay", realm, "cache"));
+        try {
+            return new MappedCacheService(cacheFile, clockSkew, kdcConfig.getReplayCacheSize());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open replay cache " + cacheFile, e);
+        }
+    }
+
+    /**
+     * The name of a file kept in the work dir for the realm, as "name.ext"
+     * for the default realm, so it's the same as with one realm, and
+     * "name-REALM.ext" for the others.
+     */
+    protected String getRealmFileName(String name, String realm, String ext) {
+        if (realm.equals(getKdcRealm())) {
+            return name + "." + ext;
+        }
+        return name + "-" + realm + "." + ext;
+    }
+
+    /**
+     * The metrics are published over JMX by default, or only kept in memory
+     * with "memory", or go to the {@link MetricsRegistry} class named.
+     */
+    protected void initMetrics() {
+        String registryType = kdcConfig.getMetricsRegistry();
+        MetricsRegistry registry;
+        if ("jmx".equals(registryType)) {
+            final JmxMetricsRegistry jmxRegistry = new JmxMetricsRegistry(
+                    "org.apache.kerberos.kerb:type=KdcMetrics,name="
+                            + ObjectName.quote(getServiceName()), false);
+            deferInit("init.jmx", new Runnable() {
+                @Override
+                public void run() {
+                    jmxRegistry.register();
+                }
+            });
+            registry = jmxRegistry;
+        } else if ("memory".equals(registryType)) {
+            registry = new DefaultMetricsRegistry();
+        } else {
+            try {
+                registry = (MetricsRegistry) Class.forName(registryType).newInstance();
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to make metrics registry " + registryType, e);
+            }
+        }
+        metrics = new KdcMetrics(registry);
+    }
+
+    public KdcMetrics getMetrics() {
+        return metrics;
+    }
+
     protected void initConfig() {}
 
     public void start() {
@@ -65,6 +340,20 @@ public class KdcServer {
         return kdcConfig.getKdcRealm();
     }
 
+    /**
+     * The realms served, the default one first.
+     */
+    public List<String> getKdcRealms() {
+        List<String> realms = new ArrayList<String>();
+        realms.add(getKdcRealm());
+        for (String realm : kdcConfig.getKdcRealms()) {
+            if (! realms.contains(realm)) {
+                realms.add(realm);
+            }
+        }
+        return realms;
+    }
+
     private String getKdcHost() {
         if (kdcHost != null) {
             return kdcHost;
@@ -96,25 +385,107 @@ public class KdcServer {
     }
 
     protected void doStart() throws Exception {
+        long start = System.nanoTime();
+        awaitInit(IDENTITY_STEP);
+        profileStep("start.awaitidentity", start);
+
+        start = System.nanoTime();
         prepareHandler();
+        profileStep("start.handler", start);
 
+        start = System.nanoTime();
         this.eventHub = new EventHub();
 
         eventHub.register(kdcHandler);
 
-        Acceptor acceptor = new TcpAcceptor(new KrbStreamingDecoder());
+        acceptor = new TcpAcceptor(new KrbStreamingDecoder());
         eventHub.register(acceptor);
 
         eventHub.start();
-        acceptor.listen(getKdcHost(), getKdcPort());
+        profileStep("start.eventhub", start);
+
+        start = System.nanoTime();
+        List<ServerSocketChannel> serverChannels = getListeningChannels();
+        if (serverChannels.isEmpty()) {
+            acceptor.listen(getKdcHost(), getKdcPort());
+        } else {
+            for (ServerSocketChannel serverChannel : serverChannels) {
+                acceptor.listen(serverChannel);
+            }
+        }
+        profileStep("start.listen", start);
+        if (startupProfile != null) {
+            startupProfile.recordSinceCreated("bind");
+        }
+
+        for (Map.Entry<String, Runnable> entry : deferredSteps.entrySet()) {
+            initInBackground(entry.getKey(), entry.getValue());
+        }
+        deferredSteps.clear();
+        if (kdcConfig.isCryptoWarmUp()) {
+            warmUpCrypto();
+        }
+    }
+
+    /**
+     * The listening sockets already open to accept on: those of the server
+     * taken over from, or the one inherited from the launching process if
+     * so configured. None if one is to be bound, as when there's nothing
+     * inherited, so the KDC can still be run by hand.
+     */
+    private List<ServerSocketChannel> getListeningChannels() throws IOException {
+        if (takenOverChannels != null) {
+            return takenOverChannels;
+        }
+        if (kdcConfig.isInheritChannel()) {
+            Channel channel = System.inheritedChannel();
+            if (channel instanceof ServerSocketChannel) {
+                return Collections.singletonList((ServerSocketChannel) channel);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Start accepting on the listening sockets of the running server, then
+     * have it stop, draining, as a restart with new config that doesn't
+     * refuse a connection nor drop a request: both accept for a moment,
+     * then the other only answers what it has taken. This server should be
+     * configured and not initialized; it's initialized here with the replay
+     * caches and identity services of the realms the other serves, which
+     * are handed over rather than opened again.
+     *
+     * Rolling a new build is done by launching it with the listening socket
+     * inherited, see {@link KdcConfig#isInheritChannel()}.
+     */
+    public void takeOver(KdcServer previous) {
+        takenOver = previous;
+        try {
+            init();
+        } finally {
+            takenOver = null;
+        }
+
+        takenOverChannels = previous.acceptor.getServerChannels();
+        start();
+
+        previous.handedOver = true;
+        previous.stop();
     }
 
     private void prepareHandler() {
         this.kdcHandler = new KdcHandler();
         kdcHandler.setConfig(kdcConfig);
-        kdcHandler.setIdentityService(identityService);
-        if (kdcRealm != null) {
-            kdcHandler.setKdcRealm(kdcRealm);
+        kdcHandler.setIdentityService(getIdentityService());
+        kdcHandler.setMetrics(metrics);
+        for (String realm : getKdcRealms()) {
+            kdcHandler.setKdcRealm(realm);
+            IdentityService identityService = identityServices.get(realm);
+            if (identityService != null) {
+                kdcHandler.setIdentityService(realm, identityService);
+            }
+            kdcHandler.setReplayCheckService(realm,
+                    new ReplayCheckServiceImpl(replayCaches.get(realm)));
         }
         kdcHandler.init();
     }
@@ -123,12 +494,28 @@ public class KdcServer {
         try {
             doStop();
         } catch (Exception e) {
-            throw new RuntimeException("Failed to stop " + getServiceName());
+            throw new RuntimeException("Failed to stop " + getServiceName(), e);
         }
     }
 
+    /**
+     * Stop accepting, then wait for the requests in process to be answered
+     * and the replies written before stopping, up to the drain timeout.
+     * The listening sockets are closed, unless handed over to another
+     * server.
+     */
     protected void doStop() throws Exception {
-        eventHub.stop();
+        awaitInitQuietly();
+        long deadline = System.currentTimeMillis() + kdcConfig.getDrainTimeoutMillis();
+        acceptor.stopAccepting(! handedOver);
+        kdcHandler.stop(Math.max(0, deadline - System.currentTimeMillis()));
+        eventHub.stop(Math.max(0, deadline - System.currentTimeMillis()));
+        metrics.getRegistry().close();
+        for (CacheService replayCache : replayCaches.values()) {
+            if (replayCache instanceof MappedCacheService) {
+                ((MappedCacheService) replayCache).close();
+            }
+        }
     }
 
     public KdcConfig getConfig() {
@@ -154,11 +541,70 @@ public class KdcServer {
         return kdcConfig.getKdcServiceName();
     }
 
+    /**
+     * The identity service of the default realm, which is also that of the
+     * realms without one of their own.
+     */
     public IdentityService getIdentityService() {
+        awaitInit(IDENTITY_STEP);
+        return identityServices.get(getKdcRealm());
+    }
+
+    public IdentityService getIdentityService(String realm) {
+        awaitInit(IDENTITY_STEP);
+        IdentityService identityService = identityServices.get(realm);
+        if (identityService == null) {
+            identityService = getIdentityService();
+        }
         return identityService;
     }
 
+    /**
+     * The identity service of the realm handed over by the server taken
+     * over from, which this server closes from then on, or null if there's
+     * none. For initializing identity services.
+     */
+    protected IdentityService takeOverIdentityService(String realm) {
+        if (takenOver == null) {
+            return null;
+        }
+        return takenOver.identityServices.remove(realm);
+    }
+
+    /**
+     * The server taken over from, while initializing, or null.
+     */
+    protected KdcServer getTakenOver() {
+        return takenOver;
+    }
+
     protected void setIdentityService(IdentityService identityService) {
-        this.identityService = identityService;
+        setIdentityService(getKdcRealm(), identityService);
+    }
+
+    /**
+     * Set the identity backend of the realm, which is put behind a cache
+     * unless the identity cache size is configured as 0, or the backend
+     * keeps its identities in memory already.
+     */
+    protected void setIdentityService(String realm, IdentityService identityService) {
+        int cacheSize = kdcConfig.getIdentityCacheSize();
+        if (cacheSize > 0 && ! isInMemory(identityService)) {
+            identityService = new CachedIdentityService(identityService, cacheSize,
+                    kdcConfig.getIdentityCacheTtl() * 1000,
+                    kdcConfig.getIdentityCacheNegativeTtl() * 1000);
+        }
+        identityServices.put(realm, identityService);
+    }
+
+    /**
+     * Whether a cache in front of the backend would only hold copies of
+     * what it has in memory, or for the off-heap one, put keys back on the
+     * heap.
+     */
+    private static boolean isInMemory(IdentityService identityService) {
+        return identityService instanceof CachedIdentityService
+                || identityService instanceof InMemoryIdentityBackend
+                || identityService instanceof OffHeapIdentityBackend;
     }
 }
@@ -0,0 +1,120 @@
+package org.apache.kerberos.kerb.server;
+
+import org.apache.haox.transport.Transport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The replies sent lately by the bytes of the requests they answer, as the
+ * lookaside cache of the MIT KDC. A client that gets no reply in time sends
+ * the same request again; that's answered with the reply of the first
+ * rather than processed again, where the TGS would take its authenticator
+ * for a replay.
+ *
+ * A request sent again while the first is still in process gets the reply
+ * of the first when it's done. Replies are kept for {@link #STALE_MILLIS}
+ * at most, and the oldest go first when there are as many as the size.
+ */
+class LookasideCache {
+
+    // Clients give up on a KDC well before then
+    static final long STALE_MILLIS = 2 * 60 * 1000L;
+
+    private final int size;
+    private final Map<ByteBuffer, Entry> entries = new LinkedHashMap<ByteBuffer, Entry>();
+
+    LookasideCache(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Start on a request. If it's new, returns the entry to give to
+     * {@link #done} with the reply. If it's been seen, returns null and the
+     * transport gets the reply of the one seen, now or when it's done.
+     */
+    Entry start(ByteBuffer request, Transport transport) {
+        return start(request, transport, System.currentTimeMillis());
+    }
+
+    Entry start(ByteBuffer request, Transport transport, long now) {
+        byte[] reply;
+        synchronized (this) {
+            expire(now);
+            Entry entry = entries.get(request);
+            if (entry == null) {
+                ByteBuffer key = ByteBuffer.allocate(request.remaining());
+                key.put(request.duplicate()).flip();
+                entry = new Entry(key, now);
+                entries.put(key, entry);
+                if (entries.size() > size) {
+                    Iterator<Entry> eldest = entries.values().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+                return entry;
+            }
+            if (entry.reply == null) {
+                entry.waiting.add(transport);
+                return null;
+            }
+            reply = entry.reply;
+        }
+        transport.sendMessage(ByteBuffer.wrap(reply));
+        return null;
+    }
+
+    /**
+     * Done with the request of the entry: send the reply to the transports
+     * of the same request that came meanwhile, and keep it for those to
+     * come unless told not to, as for an error to be tried again.
+     */
+    void done(Entry entry, ByteBuffer reply, boolean keep) {
+        byte[] bytes = new byte[reply.remaining()];
+        reply.duplicate().get(bytes);
+
+        List<Transport> waiting;
+        synchronized (this) {
+            if (keep) {
+                entry.reply = bytes;
+            } else if (entries.get(entry.request) == entry) {
+                entries.remove(entry.request);
+            }
+            waiting = entry.waiting;
+            entry.waiting = Collections.emptyList();
+        }
+        for (Transport transport : waiting) {
+            transport.sendMessage(ByteBuffer.wrap(bytes));
+        }
+    }
+
+    // The entries are in the order made, so the stale ones are first
+    private void expire(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now - entry.time < STALE_MILLIS) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    static class Entry {
+        private final ByteBuffer request;
+        private final long time;
+        // Null while in process
+        private byte[] reply;
+        private List<Transport> waiting = new ArrayList<Transport>(1);
+
+        Entry(ByteBuffer request, long time) {
+            this.request = request;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.apache.kerberos.kerb.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Token buckets for any number of keys in a fixed table, without locking.
+ *
+ * Each bucket is kept as the time it will be full again (as in GCRA): a
+ * request takes a token by moving that time on by the interval between
+ * tokens, and is let through if it's then no more than a burst ahead of
+ * now. A key has two buckets at places picked by its hash, and goes by the
+ * fuller one, updating both, as in a count-min sketch; keys that share a
+ * bucket only hold each other back when they share both. Only the keys
+ * seen within a burst's time are in the buckets, so the table needs to be
+ * several times the number of those, not of all the keys, and the memory
+ * is fixed.
+ *
+ * Buckets are updated with compare and set; requests racing on one may
+ * get through a token or so over the rate, which is fine for this.
+ */
+class RateLimiter {
+
+    private final AtomicLongArray buckets;
+    private final int mask;
+    private final long interval;
+    private final long limit;
+    private final long origin = System.nanoTime();
+
+    /**
+     * @param rate tokens per second
+     * @param burst tokens a bucket holds
+     * @param size number of buckets, rounded up to a power of two
+     */
+    RateLimiter(int rate, int burst, int size) {
+        int tableSize = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        this.buckets = new AtomicLongArray(tableSize);
+        this.mask = tableSize - 1;
+        this.interval = 1000000000L / rate;
+        this.limit = interval * Math.max(1, burst);
+    }
+
+    boolean tryAcquire(Object key) {
+        // Times from 1 on, so 0 is a bucket never used
+        return tryAcquire(key.hashCode(), System.nanoTime() - origin + 1);
+    }
+
+    boolean tryAcquire(int hash, long now) {
+        long mixed = mix(hash);
+        int first = (int) mixed & mask;
+        int second = (int) (mixed >>> 32) & mask;
+
+        long full = Math.min(buckets.get(first), buckets.get(second));
+        long next = Math.max(full, now) + interval;
+        if (next - now > limit) {
+            return false;
+        }
+        moveTo(first, next);
+        moveTo(second, next);
+        return true;
+    }
+
+    private void moveTo(int index, long time) {
+        while (true) {
+            long current = buckets.get(index);
+            if (current >= time || buckets.compareAndSet(index, current, time)) {
+                return;
+            }
+        }
+    }
+
+    // Spreads the bits of the hash over a long, as in MurmurHash3
+    private static long mix(int hash) {
+        long h = hash * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,132 @@
+package org.apache.kerberos.kerb.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the realm of a KDC request, the realm field of its KDC-REQ-BODY,
+ * by stepping over the DER encoding without decoding the rest, so the
+ * request can be sent to its realm, or turned away, before the work of
+ * decoding it.
+ *
+ *   AS-REQ [APPLICATION 10] / TGS-REQ [APPLICATION 12]
+ *     SEQUENCE
+ *       [1] pvno, [2] msg-type, [3] padata OPTIONAL,
+ *       [4] req-body SEQUENCE
+ *             [0] kdc-options, [1] cname OPTIONAL,
+ *             [2] realm GeneralString
+ */
+class RealmSniffer {
+
+    private static final int AS_REQ_TAG = 0x6a;
+    private static final int TGS_REQ_TAG = 0x6c;
+    private static final int SEQUENCE_TAG = 0x30;
+    private static final int REQ_BODY_TAG = 0xa4;
+    private static final int REALM_TAG = 0xa2;
+    private static final int GENERAL_STRING_TAG = 0x1b;
+
+    private final ByteBuffer buffer;
+    private int pos;
+    private int end;
+    // Of the element last read
+    private int tag;
+    private int length;
+
+    private RealmSniffer(ByteBuffer buffer, int pos, int end) {
+        this.buffer = buffer;
+        this.pos = pos;
+        this.end = end;
+    }
+
+    /**
+     * The realm of the request, with the length in front as received, or
+     * null if it's not a KDC request or not well formed, which decoding it
+     * will tell more about. The buffer is not changed.
+     */
+    static String sniffRealm(ByteBuffer message) {
+        RealmSniffer sniffer = new RealmSniffer(message, message.position() + 4,
+                message.limit());
+        try {
+            return sniffer.sniff();
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private String sniff() {
+        if (! enter(AS_REQ_TAG, TGS_REQ_TAG) || ! enter(SEQUENCE_TAG, SEQUENCE_TAG)) {
+            return null;
+        }
+        if (! find(REQ_BODY_TAG) || ! enter(SEQUENCE_TAG, SEQUENCE_TAG)) {
+            return null;
+        }
+        if (! find(REALM_TAG) || ! next() || tag != GENERAL_STRING_TAG) {
+            return null;
+        }
+
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (buffer.get(pos + i) & 0xff);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Go into the element at the position if it has either of the tags.
+     */
+    private boolean enter(int oneTag, int otherTag) {
+        if (! next() || (tag != oneTag && tag != otherTag)) {
+            return false;
+        }
+        end = pos + length;
+        return true;
+    }
+
+    /**
+     * Step over the elements before the one with the tag, and into it.
+     * Fields are in tag order, so stop at a later one.
+     */
+    private boolean find(int fieldTag) {
+        while (next()) {
+            if (tag == fieldTag) {
+                end = pos + length;
+                return true;
+            }
+            if (tag > fieldTag) {
+                return false;
+            }
+            pos += length;
+        }
+        return false;
+    }
+
+    /**
+     * Read the tag and length of the element at the position, leaving the
+     * position at its content.
+     */
+    private boolean next() {
+        if (pos + 2 > end) {
+            return false;
+        }
+        tag = buffer.get(pos++) & 0xff;
+        if ((tag & 0x1f) == 0x1f) {
+            // Tag numbers this high aren't in a KDC request
+            return false;
+        }
+
+        int first = buffer.get(pos++) & 0xff;
+        if (first < 0x80) {
+            length = first;
+        } else {
+            int count = first & 0x7f;
+            if (count == 0 || count > 3) {
+                return false;
+            }
+            length = 0;
+            for (int i = 0; i < count; i++) {
+                length = (length << 8) | (buffer.get(pos++) & 0xff);
+            }
+        }
+
+        return pos + length <= end;
+    }
+}
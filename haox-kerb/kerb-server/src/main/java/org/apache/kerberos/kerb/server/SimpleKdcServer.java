@@ -1,24 +1,101 @@
 package org.apache.kerberos.kerb.server;
 
 import org.apache.kerberos.kerb.identity.IdentityService;
+import org.apache.kerberos.kerb.identity.backend.InMemoryIdentityBackend;
+import org.apache.kerberos.kerb.identity.backend.OffHeapIdentityBackend;
 import org.apache.kerberos.kerb.identity.backend.SimpleIdentityBackend;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 public class SimpleKdcServer extends KdcServer {
 
+    // By realm
+    private Map<String, SimpleIdentityBackend> identityBackends =
+            new HashMap<String, SimpleIdentityBackend>();
+    private Map<String, OffHeapIdentityBackend> offHeapBackends =
+            new HashMap<String, OffHeapIdentityBackend>();
+
     public SimpleKdcServer() {
         super();
     }
 
     public void init() {
         super.init();
+
+        long start = System.nanoTime();
         initIdentityService();
+        profileStep(IDENTITY_STEP, start);
     }
 
+    /**
+     * Each realm has its own identities, kept in the work dir when one is
+     * configured, and only in memory otherwise, with the keys off the heap
+     * if so configured. Those kept are loaded in the background, the realms
+     * at once. Taking over, those of the server taken over from are kept.
+     */
     protected void initIdentityService() {
-        File identityFile = new File(workDir, "simplekdb.dat");
-        IdentityService identityService = new SimpleIdentityBackend(identityFile);
-        setIdentityService(identityService);
+        for (String realm : getKdcRealms()) {
+            IdentityService identityService = takeOverIdentityService(realm);
+            if (identityService == null) {
+                identityService = makeIdentityService(realm);
+            }
+            setIdentityService(realm, identityService);
+        }
+    }
+
+    /**
+     * The backends of the realm go with its identity service, to be closed
+     * by this server.
+     */
+    @Override
+    protected IdentityService takeOverIdentityService(String realm) {
+        IdentityService identityService = super.takeOverIdentityService(realm);
+        if (identityService != null && getTakenOver() instanceof SimpleKdcServer) {
+            SimpleKdcServer previous = (SimpleKdcServer) getTakenOver();
+            SimpleIdentityBackend identityBackend = previous.identityBackends.remove(realm);
+            if (identityBackend != null) {
+                identityBackends.put(realm, identityBackend);
+            }
+            OffHeapIdentityBackend offHeapBackend = previous.offHeapBackends.remove(realm);
+            if (offHeapBackend != null) {
+                offHeapBackends.put(realm, offHeapBackend);
+            }
+        }
+        return identityService;
+    }
+
+    private IdentityService makeIdentityService(String realm) {
+        if (kdcConfig.getWorkDir() == null) {
+            if (kdcConfig.isIdentityOffHeapKeys()) {
+                OffHeapIdentityBackend offHeapBackend = new OffHeapIdentityBackend();
+                offHeapBackends.put(realm, offHeapBackend);
+                return offHeapBackend;
+            }
+            return new InMemoryIdentityBackend();
+        }
+
+        File identityFile = new File(workDir, getRealmFileName("simplekdb", realm, "dat"));
+        final SimpleIdentityBackend identityBackend = new SimpleIdentityBackend(identityFile);
+        initInBackground(IDENTITY_STEP + "." + realm, new Runnable() {
+            @Override
+            public void run() {
+                identityBackend.load();
+            }
+        });
+        identityBackends.put(realm, identityBackend);
+        return identityBackend;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        for (SimpleIdentityBackend identityBackend : identityBackends.values()) {
+            identityBackend.close();
+        }
+        for (OffHeapIdentityBackend offHeapBackend : offHeapBackends.values()) {
+            offHeapBackend.close();
+        }
     }
-}
\ No newline at end of file
+}
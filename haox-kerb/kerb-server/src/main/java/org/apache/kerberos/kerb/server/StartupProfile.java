@@ -0,0 +1,61 @@
+package org.apache.kerberos.kerb.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The time taken by each step of initializing and starting a KDC, kept
+ * when kdc.startup_profile is set, to see what makes starting slow, as
+ * when a test suite starts many embedded KDCs.
+ *
+ * Steps done in the background are timed on their own thread, so the
+ * times of steps may add up to more than it took. "bind" is from init
+ * until the server is accepting connections.
+ */
+public class StartupProfile {
+
+    private final long created = System.nanoTime();
+    private final Map<String, Long> steps = new LinkedHashMap<String, Long>();
+
+    /**
+     * Record the step, started at the given System.nanoTime().
+     */
+    public synchronized void record(String step, long start) {
+        steps.put(step, System.nanoTime() - start);
+    }
+
+    /**
+     * Record the time from the profile being made.
+     */
+    public void recordSinceCreated(String step) {
+        record(step, created);
+    }
+
+    /**
+     * The time in nanoseconds by step, in the order they ended.
+     */
+    public synchronized Map<String, Long> getSteps() {
+        return new LinkedHashMap<String, Long>(steps);
+    }
+
+    /**
+     * The time of the step in nanoseconds, or -1 if it wasn't done.
+     */
+    public synchronized long getNanos(String step) {
+        Long nanos = steps.get(step);
+        return nanos != null ? nanos : -1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> entry : steps.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(entry.getKey()).append(" ")
+                    .append(String.format("%.1f", entry.getValue() / 1000000.0)).append(" ms");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package org.apache.kerberos.kerb.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count that goes up, or up and down as a gauge of things in progress.
+ */
+public class Counter {
+
+    private final AtomicLong value = new AtomicLong();
+
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    public void decrement() {
+        value.decrementAndGet();
+    }
+
+    public void add(long delta) {
+        value.addAndGet(delta);
+    }
+
+    public long get() {
+        return value.get();
+    }
+}
@@ -0,0 +1,55 @@
+package org.apache.kerberos.kerb.server.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Metrics kept in memory only, for the caller to read.
+ */
+public class DefaultMetricsRegistry implements MetricsRegistry {
+
+    private final ConcurrentMap<String, Histogram> histograms =
+            new ConcurrentHashMap<String, Histogram>();
+    private final ConcurrentMap<String, Counter> counters =
+            new ConcurrentHashMap<String, Counter>();
+
+    @Override
+    public Histogram getHistogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = histograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    @Override
+    public Counter getCounter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter newCounter = new Counter();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    public Map<String, Histogram> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    public Map<String, Counter> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    @Override
+    public void close() {
+    }
+}
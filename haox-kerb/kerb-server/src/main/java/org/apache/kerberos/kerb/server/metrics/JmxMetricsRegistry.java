@@ -0,0 +1,171 @@
+package org.apache.kerberos.kerb.server.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metrics published as the attributes of one MBean, read only. A counter
+ * is an attribute by its name; a histogram is the attributes count, mean,
+ * max, p50, p90, p99 and p999 after its name, as in "lookup.nanos.p99".
+ * Attributes show up as the metrics are first used.
+ */
+public class JmxMetricsRegistry extends DefaultMetricsRegistry implements DynamicMBean {
+
+    private static final String[] HISTOGRAM_ATTRIBUTES = new String[] {
+            "count", "mean", "max", "p50", "p90", "p99", "p999"
+    };
+
+    // The registry of each name registered, so one replaced doesn't
+    // unregister the one that replaced it when closed, guarded by itself
+    private static final Map<ObjectName, JmxMetricsRegistry> registered =
+            new HashMap<ObjectName, JmxMetricsRegistry>();
+
+    private final ObjectName objectName;
+
+    /**
+     * @param name the name of the MBean, replacing one already registered
+     *             with it, as by an earlier server in the same JVM
+     */
+    public JmxMetricsRegistry(String name) {
+        this(name, true);
+    }
+
+    /**
+     * @param register whether to register now, or later with
+     *                 {@link #register()}, as the platform MBean server
+     *                 takes a while to make the first time
+     */
+    public JmxMetricsRegistry(String name, boolean register) {
+        try {
+            objectName = new ObjectName(name);
+        } catch (Exception e) {
+            throw new RuntimeException("Bad metrics MBean name " + name, e);
+        }
+        if (register) {
+            register();
+        }
+    }
+
+    public void register() {
+        synchronized (registered) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+                server.registerMBean(this, objectName);
+                registered.put(objectName, this);
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to register metrics MBean " + objectName, e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (registered) {
+            if (registered.get(objectName) != this) {
+                return;
+            }
+            registered.remove(objectName);
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to unregister metrics MBean " + objectName, e);
+            }
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Counter counter = getCounters().get(attribute);
+        if (counter != null) {
+            return counter.get();
+        }
+
+        int dot = attribute.lastIndexOf('.');
+        Histogram histogram = dot > 0 ? getHistograms().get(attribute.substring(0, dot)) : null;
+        if (histogram != null) {
+            String field = attribute.substring(dot + 1);
+            if (field.equals("count")) {
+                return histogram.getCount();
+            } else if (field.equals("mean")) {
+                return (long) histogram.getMean();
+            } else if (field.equals("max")) {
+                return histogram.getMax();
+            } else if (field.equals("p50")) {
+                return histogram.getPercentile(50);
+            } else if (field.equals("p90")) {
+                return histogram.getPercentile(90);
+            } else if (field.equals("p99")) {
+                return histogram.getPercentile(99);
+            } else if (field.equals("p999")) {
+                return histogram.getPercentile(99.9);
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList results = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                results.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Left out, as the interface has it
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for (String name : getCounters().keySet()) {
+            attributes.add(newAttributeInfo(name));
+        }
+        for (Map.Entry<String, Histogram> entry : getHistograms().entrySet()) {
+            for (String field : HISTOGRAM_ATTRIBUTES) {
+                attributes.add(newAttributeInfo(entry.getKey() + "." + field));
+            }
+        }
+
+        return new MBeanInfo(getClass().getName(), "KDC metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+                null, null, null);
+    }
+
+    private static MBeanAttributeInfo newAttributeInfo(String name) {
+        return new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false);
+    }
+}
@@ -0,0 +1,143 @@
+package org.apache.kerberos.kerb.server.metrics;
+
+import org.apache.kerberos.kerb.KrbErrorCode;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The metrics of the KDC, kept in a {@link MetricsRegistry}:
+ *
+ * a histogram of the time in nanoseconds of each {@link Phase} of the
+ * requests, named like "lookup.nanos";
+ * counters of the requests taken, "requests", and of those in progress,
+ * "requests.inflight";
+ * counters of the errors by error code, like "errors.KDC_ERR_PREAUTH_REQUIRED",
+ * and of the tickets issued by enctype, like
+ * "enctypes.AES128_CTS_HMAC_SHA1_96";
+ * counters of the requests turned away by the rate limits, by client
+ * address, "ratelimit.client", and by principal, "ratelimit.principal";
+ * a counter of the TGS requests that took the ticket issued for the same
+ * request in process, "tgs.coalesced";
+ * counters of the requests shed for waiting too long, by kind, like
+ * "shed.as";
+ * a counter of the TGS requests turned away as the replay cache had no
+ * room for them, "replay.full";
+ * a counter of the requests sent again and answered with the reply to the
+ * first, "lookaside.hits".
+ *
+ * The metrics are looked up once and kept, so recording is just the
+ * update.
+ */
+public class KdcMetrics {
+
+    public static enum Phase {
+        // Waiting for a worker of the lookup stage
+        QUEUE,
+        DECODE,
+        LOOKUP,
+        VERIFY,
+        ISSUE,
+        // Also counted in ISSUE
+        SEAL,
+        ENCODE,
+        SEND
+    }
+
+    private final MetricsRegistry registry;
+    private final Map<Phase, Histogram> phases = new EnumMap<Phase, Histogram>(Phase.class);
+    private final Counter requests;
+    private final Counter inFlight;
+    private final Counter clientRateLimited;
+    private final Counter principalRateLimited;
+    private final Counter tgsCoalesced;
+    private final Counter replayCacheFull;
+    private final Counter lookasideHits;
+    // Made on first use, so only the ones seen are published
+    private final Counter[] errors = new Counter[KrbErrorCode.values().length];
+    private final Counter[] encryptionTypes = new Counter[EncryptionType.values().length];
+
+    public KdcMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, registry.getHistogram(phase.name().toLowerCase() + ".nanos"));
+        }
+        this.requests = registry.getCounter("requests");
+        this.inFlight = registry.getCounter("requests.inflight");
+        this.clientRateLimited = registry.getCounter("ratelimit.client");
+        this.principalRateLimited = registry.getCounter("ratelimit.principal");
+        this.tgsCoalesced = registry.getCounter("tgs.coalesced");
+        this.replayCacheFull = registry.getCounter("replay.full");
+        this.lookasideHits = registry.getCounter("lookaside.hits");
+    }
+
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Record the time of the phase since the start, from System.nanoTime().
+     */
+    public void record(Phase phase, long startNanos) {
+        phases.get(phase).record(System.nanoTime() - startNanos);
+    }
+
+    public Histogram getHistogram(Phase phase) {
+        return phases.get(phase);
+    }
+
+    public void requestStarted() {
+        requests.increment();
+        inFlight.increment();
+    }
+
+    public void requestDone() {
+        inFlight.decrement();
+    }
+
+    public void countClientRateLimited() {
+        clientRateLimited.increment();
+    }
+
+    public void countPrincipalRateLimited() {
+        principalRateLimited.increment();
+    }
+
+    public void countTgsCoalesced() {
+        tgsCoalesced.increment();
+    }
+
+    public void countReplayCacheFull() {
+        replayCacheFull.increment();
+    }
+
+    public void countLookasideHit() {
+        lookasideHits.increment();
+    }
+
+    public void countShed(String kind) {
+        registry.getCounter("shed." + kind).increment();
+    }
+
+    public void countError(KrbErrorCode errorCode) {
+        int index = errorCode.ordinal();
+        Counter counter = errors[index];
+        if (counter == null) {
+            // Racing here is fine, the registry gives the same one
+            counter = registry.getCounter("errors." + errorCode.name());
+            errors[index] = counter;
+        }
+        counter.increment();
+    }
+
+    public void countEncryptionType(EncryptionType encryptionType) {
+        int index = encryptionType.ordinal();
+        Counter counter = encryptionTypes[index];
+        if (counter == null) {
+            counter = registry.getCounter("enctypes." + encryptionType.name());
+            encryptionTypes[index] = counter;
+        }
+        counter.increment();
+    }
+}
@@ -0,0 +1,17 @@
+package org.apache.kerberos.kerb.server.metrics;
+
+/**
+ * Where the KDC keeps its metrics, by name. The same name always gives
+ * the same metric.
+ */
+public interface MetricsRegistry {
+
+    public Histogram getHistogram(String name);
+
+    public Counter getCounter(String name);
+
+    /**
+     * Stop publishing the metrics.
+     */
+    public void close();
+}
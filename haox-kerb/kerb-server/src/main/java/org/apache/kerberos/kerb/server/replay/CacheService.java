@@ -2,6 +2,13 @@ package org.apache.kerberos.kerb.server.replay;
 
 public interface CacheService
 {
-    boolean checkAndCache(RequestRecord request);
+    /**
+     * Check whether a request was seen before, and remember it if not.
+     * @param fingerprint of the request, see {@link RequestRecord#fingerprint()}
+     * @param requestTime in milliseconds, as stated by the request
+     * @return true if it's a replay
+     * @throws ReplayCacheFullException if there's no room to remember it
+     */
+    boolean checkAndCache(long fingerprint, long requestTime) throws ReplayCacheFullException;
     void clear();
 }
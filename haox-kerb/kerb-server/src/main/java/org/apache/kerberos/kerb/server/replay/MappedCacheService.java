@@ -0,0 +1,157 @@
+package org.apache.kerberos.kerb.server.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replay cache in a memory-mapped file, so recent requests survive a KDC
+ * restart instead of opening a replay window as long as the clock skew.
+ *
+ * The file is a fixed size open-addressed table of (fingerprint, request
+ * time) slots, split in segments of {@link #SEGMENT_SIZE} slots. A request
+ * hashes to a segment and probes up to {@link #MAX_PROBES} slots within it,
+ * under the lock of the segment, reading and writing the mapped slots in
+ * place. Slots whose request time is out of the clock skew window count as
+ * free. If none of the probed slots is, the request is turned away with
+ * {@link ReplayCacheFullException} rather than take the slot of one that
+ * can still be replayed, so the capacity should be set for twice the
+ * requests of the clock skew at the expected rate; the probes start
+ * running out at about 0.6 full.
+ *
+ * Layout: magic, version, capacity, reserved (4 ints), then the slots of
+ * 2 longs each.
+ */
+public class MappedCacheService implements CacheService {
+
+    private static final int MAGIC = 0x48524331; // "HRC1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 16;
+    private static final int SEGMENT_SIZE = 1024;
+    private static final int MAX_PROBES = 64;
+
+    private final long clockSkew;
+    private final int segments;
+    private final Object[] locks;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    /**
+     * @param cacheFile the file to keep the cache in, created if not there
+     * @param clockSkew the allowable clock skew, in milliseconds
+     * @param capacity the number of requests to keep, rounded up to a
+     *                 multiple of the segment size
+     */
+    public MappedCacheService(File cacheFile, long clockSkew,
+                              int capacity) throws IOException {
+        this.clockSkew = clockSkew;
+        this.segments = Math.max(1, (capacity + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        if ((long) segments * SEGMENT_SIZE * SLOT_SIZE + HEADER_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Replay cache capacity too large: " + capacity);
+        }
+
+        this.locks = new Object[segments];
+        for (int i = 0; i < segments; i++) {
+            locks[i] = new Object();
+        }
+
+        open(cacheFile);
+    }
+
+    private void open(File cacheFile) throws IOException {
+        int capacity = segments * SEGMENT_SIZE;
+        long size = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+
+        file = new RandomAccessFile(cacheFile, "rw");
+        boolean reuse = file.length() == size && file.readInt() == MAGIC
+                && file.readInt() == VERSION && file.readInt() == capacity;
+        if (! reuse) {
+            // Different layout or sizing, start over
+            file.setLength(0);
+            file.setLength(size);
+        }
+
+        channel = file.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (! reuse) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, capacity);
+            buffer.putInt(12, 0);
+        }
+    }
+
+    @Override
+    public boolean checkAndCache(long fingerprint,
+                                 long requestTime) throws ReplayCacheFullException {
+        // 0 marks a free slot
+        if (fingerprint == 0) {
+            fingerprint = 1;
+        }
+
+        int segment = (int) ((fingerprint >>> 32) % segments);
+        int home = (int) fingerprint & (SEGMENT_SIZE - 1);
+        int base = HEADER_SIZE + segment * SEGMENT_SIZE * SLOT_SIZE;
+        long expiry = System.currentTimeMillis() - clockSkew;
+
+        synchronized (locks[segment]) {
+            int freeSlot = -1;
+
+            for (int i = 0; i < MAX_PROBES; i++) {
+                int slot = base + ((home + i) & (SEGMENT_SIZE - 1)) * SLOT_SIZE;
+                long current = buffer.getLong(slot);
+                if (current == 0) {
+                    // End of the probe run, not seen
+                    if (freeSlot < 0) {
+                        freeSlot = slot;
+                    }
+                    break;
+                }
+
+                long time = buffer.getLong(slot + 8);
+                if (current == fingerprint && time >= expiry) {
+                    return true;
+                }
+                if (time < expiry && freeSlot < 0) {
+                    freeSlot = slot;
+                }
+            }
+
+            if (freeSlot < 0) {
+                // All live
+                throw new ReplayCacheFullException();
+            }
+            buffer.putLong(freeSlot + 8, requestTime);
+            buffer.putLong(freeSlot, fingerprint);
+        }
+
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        for (int segment = 0; segment < segments; segment++) {
+            int base = HEADER_SIZE + segment * SEGMENT_SIZE * SLOT_SIZE;
+            synchronized (locks[segment]) {
+                for (int i = 0; i < SEGMENT_SIZE; i++) {
+                    buffer.putLong(base + i * SLOT_SIZE, 0);
+                    buffer.putLong(base + i * SLOT_SIZE + 8, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Flush the table to the file and close it.
+     */
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+        file.close();
+    }
+}
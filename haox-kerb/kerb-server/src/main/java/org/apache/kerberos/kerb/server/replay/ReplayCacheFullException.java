@@ -0,0 +1,17 @@
+package org.apache.kerberos.kerb.server.replay;
+
+import org.apache.kerberos.kerb.KrbErrorCode;
+import org.apache.kerberos.kerb.KrbException;
+
+/**
+ * The replay cache has no room left for a request still within the clock
+ * skew window, so it can't remember it, and the request is turned away
+ * rather than let in unchecked later. Answered as KDC_ERR_SVC_UNAVAILABLE,
+ * so the client tries again.
+ */
+public class ReplayCacheFullException extends KrbException {
+
+    public ReplayCacheFullException() {
+        super(KrbErrorCode.KDC_ERR_SVC_UNAVAILABLE, "Replay cache full");
+    }
+}
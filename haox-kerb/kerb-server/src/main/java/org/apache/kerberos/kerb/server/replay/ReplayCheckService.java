@@ -2,5 +2,6 @@ package org.apache.kerberos.kerb.server.replay;
 
 public interface ReplayCheckService
 {
-    boolean checkReplay(String clientPrincipal, String serverPrincipal, long requestTime, int microseconds);
+    boolean checkReplay(String clientPrincipal, String serverPrincipal, long requestTime,
+                        int microseconds) throws ReplayCacheFullException;
 }
@@ -9,13 +9,15 @@ public class ReplayCheckServiceImpl implements ReplayCheckService
     }
 
     public ReplayCheckServiceImpl() {
-        this(new SimpleCacheService());
+        this(new TimeWindowCacheService());
     }
 
     @Override
     public boolean checkReplay(String clientPrincipal, String serverPrincipal,
-                               long requestTime, int microseconds) {
-        RequestRecord record = new RequestRecord(clientPrincipal, serverPrincipal, requestTime, microseconds);
-        return cacheService.checkAndCache(record);
+                               long requestTime, int microseconds)
+            throws ReplayCacheFullException {
+        long fingerprint = RequestRecord.fingerprint(clientPrincipal,
+                serverPrincipal, requestTime, microseconds);
+        return cacheService.checkAndCache(fingerprint, requestTime);
     }
 }
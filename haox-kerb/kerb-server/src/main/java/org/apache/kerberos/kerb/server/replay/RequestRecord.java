@@ -13,6 +13,49 @@ public class RequestRecord {
         this.microseconds = microseconds;
     }
 
+    public long getRequestTime() {
+        return requestTime;
+    }
+
+    public long fingerprint() {
+        return fingerprint(clientPrincipal, serverPrincipal, requestTime, microseconds);
+    }
+
+    /**
+     * A 64 bits hash of the request, FNV-1a over the principals then mixed
+     * with the times, so a cache can keep just a long per request.
+     */
+    public static long fingerprint(String clientPrincipal, String serverPrincipal,
+                                   long requestTime, int microseconds) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv1a(hash, clientPrincipal);
+        hash = (hash ^ 0xff) * 0x100000001b3L;
+        hash = fnv1a(hash, serverPrincipal);
+
+        hash = mix(hash ^ requestTime);
+        hash = mix(hash ^ microseconds);
+        return hash;
+    }
+
+    private static long fnv1a(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * 0x100000001b3L;
+            hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // The finalizer of MurmurHash3
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
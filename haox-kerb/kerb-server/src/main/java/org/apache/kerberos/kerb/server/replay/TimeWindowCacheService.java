@@ -0,0 +1,142 @@
+package org.apache.kerberos.kerb.server.replay;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Replay cache over the clock skew window. A request can only be replayed
+ * while its time is within the allowable clock skew of now, so requests are
+ * kept in a ring of buckets by request time covering the window, and whole
+ * buckets are dropped as they age out.
+ *
+ * Each bucket is a fixed size open-addressed table of fingerprints, checked
+ * and filled with CAS, so check-and-insert is O(1) without locking and the
+ * memory is bounded by bucket count * bucket capacity * 8 bytes. A bucket
+ * holds the requests of {@link #getBucketSpan()}, so the capacity should be
+ * set for the expected request rate with headroom, as twice the rate times
+ * the span; the probes start running out at about 0.6 full. Past that a
+ * request finds no free slot among those probed
+ * and is turned away with {@link ReplayCacheFullException}, as remembering
+ * it would mean forgetting another one that can still be replayed.
+ *
+ * Requests outside the window are expected to be rejected for clock skew
+ * before getting here; ones older than the ring are not cached.
+ */
+public class TimeWindowCacheService implements CacheService {
+
+    public static final long DEFAULT_CLOCK_SKEW = 5 * 60 * 1000L;
+    public static final int DEFAULT_BUCKET_CAPACITY = 1 << 16;
+
+    private static final int BUCKET_COUNT = 8;
+    private static final int MAX_PROBES = 64;
+
+    private final long bucketSpan;
+    private final int bucketCapacity;
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    public TimeWindowCacheService() {
+        this(DEFAULT_CLOCK_SKEW, DEFAULT_BUCKET_CAPACITY);
+    }
+
+    /**
+     * @param clockSkew the allowable clock skew, in milliseconds
+     * @param bucketCapacity fingerprints per bucket, rounded up to a power of 2
+     */
+    public TimeWindowCacheService(long clockSkew, int bucketCapacity) {
+        // Requests are valid for 2 * clockSkew, plus slack of 2 buckets
+        this.bucketSpan = Math.max(1, 2 * clockSkew / (BUCKET_COUNT - 2));
+        int capacity = Integer.highestOneBit(Math.max(bucketCapacity, MAX_PROBES));
+        if (capacity < bucketCapacity) {
+            capacity <<= 1;
+        }
+        this.bucketCapacity = capacity;
+        this.buckets = new AtomicReferenceArray<Bucket>(BUCKET_COUNT);
+    }
+
+    /**
+     * The time in milliseconds of requests kept in a bucket.
+     */
+    public long getBucketSpan() {
+        return bucketSpan;
+    }
+
+    @Override
+    public boolean checkAndCache(long fingerprint,
+                                 long requestTime) throws ReplayCacheFullException {
+        Bucket bucket = getBucket(requestTime / bucketSpan);
+        if (bucket == null) {
+            return false;
+        }
+        return bucket.checkAndCache(fingerprint);
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, null);
+        }
+    }
+
+    /**
+     * Get the bucket for the epoch, replacing the one in its slot if that's
+     * older, or null if the slot has moved on to a later epoch already.
+     */
+    private Bucket getBucket(long epoch) {
+        int index = (int) (epoch % BUCKET_COUNT);
+        if (index < 0) {
+            index += BUCKET_COUNT;
+        }
+
+        while (true) {
+            Bucket bucket = buckets.get(index);
+            if (bucket != null && bucket.epoch == epoch) {
+                return bucket;
+            }
+            if (bucket != null && bucket.epoch > epoch) {
+                return null;
+            }
+
+            Bucket newBucket = new Bucket(epoch, bucketCapacity);
+            if (buckets.compareAndSet(index, bucket, newBucket)) {
+                return newBucket;
+            }
+        }
+    }
+
+    private static class Bucket {
+        private final long epoch;
+        private final AtomicLongArray fingerprints;
+        private final int mask;
+
+        Bucket(long epoch, int capacity) {
+            this.epoch = epoch;
+            this.fingerprints = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+        }
+
+        boolean checkAndCache(long fingerprint) throws ReplayCacheFullException {
+            // 0 marks a free slot
+            if (fingerprint == 0) {
+                fingerprint = 1;
+            }
+
+            int start = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+            for (int i = 0; i < MAX_PROBES; i++) {
+                int slot = (start + i) & mask;
+                long current = fingerprints.get(slot);
+                while (current == 0) {
+                    if (fingerprints.compareAndSet(slot, 0, fingerprint)) {
+                        return false;
+                    }
+                    current = fingerprints.get(slot);
+                }
+                if (current == fingerprint) {
+                    return true;
+                }
+            }
+
+            // Full around here, and all still live
+            throw new ReplayCacheFullException();
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package org.apache.kerberos.kerb.server.request;
 
 import org.apache.kerberos.kerb.KrbException;
-import org.apache.kerberos.kerb.common.EncryptionUtil;
 import org.apache.kerberos.kerb.server.KdcContext;
 import org.apache.kerberos.kerb.spec.KerberosTime;
 import org.apache.kerberos.kerb.spec.common.*;
@@ -29,7 +28,7 @@ public class AsRequest extends KdcRequest {
         reply.setEncPart(encKdcRepPart);
 
         EncryptionKey clientKey = getClientKey();
-        EncryptedData encryptedData = EncryptionUtil.seal(encKdcRepPart,
+        EncryptedData encryptedData = seal(encKdcRepPart,
                 clientKey, KeyUsage.AS_REP_ENCPART);
         reply.setEncryptedEncPart(encryptedData);
 
@@ -1,5 +1,6 @@
 package org.apache.kerberos.kerb.server.request;
 
+import org.apache.haox.asn1.type.AbstractAsn1Type;
 import org.apache.kerberos.kerb.KrbErrorCode;
 import org.apache.kerberos.kerb.codec.KrbCodec;
 import org.apache.kerberos.kerb.common.EncryptionUtil;
@@ -7,11 +8,11 @@ import org.apache.kerberos.kerb.crypto.EncryptionHandler;
 import org.apache.kerberos.kerb.identity.KrbIdentity;
 import org.apache.kerberos.kerb.server.KdcConfig;
 import org.apache.kerberos.kerb.server.KdcContext;
+import org.apache.kerberos.kerb.server.metrics.KdcMetrics;
 import org.apache.kerberos.kerb.server.preauth.FastContext;
 import org.apache.kerberos.kerb.server.preauth.PreauthContext;
 import org.apache.kerberos.kerb.server.preauth.PreauthHandler;
 import org.apache.kerberos.kerb.KrbConstant;
-import org.apache.kerberos.kerb.KrbErrorException;
 import org.apache.kerberos.kerb.KrbException;
 import org.apache.kerberos.kerb.spec.KerberosTime;
 import org.apache.kerberos.kerb.spec.common.*;
@@ -19,6 +20,7 @@ import org.apache.kerberos.kerb.spec.kdc.KdcOption;
 import org.apache.kerberos.kerb.spec.kdc.KdcOptions;
 import org.apache.kerberos.kerb.spec.kdc.KdcRep;
 import org.apache.kerberos.kerb.spec.kdc.KdcReq;
+import org.apache.kerberos.kerb.spec.kdc.KdcReqBody;
 import org.apache.kerberos.kerb.spec.pa.PaData;
 import org.apache.kerberos.kerb.spec.pa.PaDataEntry;
 import org.apache.kerberos.kerb.spec.pa.PaDataType;
@@ -29,8 +31,11 @@ import org.apache.kerberos.kerb.spec.ticket.TicketFlags;
 
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public abstract class KdcRequest {
 
@@ -40,6 +45,7 @@ public abstract class KdcRequest {
     private boolean isPreAuthenticated;
     private KdcReq kdcReq;
     private KdcRep reply;
+    private KrbError error;
     private InetAddress clientAddress;
     private boolean isTcp;
     private EncryptionType encryptionType;
@@ -69,13 +75,48 @@ public abstract class KdcRequest {
     }
 
     public void process() throws KrbException {
+        lookup();
+        if (getError() == null) {
+            verify();
+        }
+        if (getError() == null) {
+            issue();
+        }
+    }
+
+    /**
+     * Check the request and look up the client and server, which may have
+     * to wait on the identity backend.
+     */
+    public void lookup() throws KrbException {
         checkVersion();
-        checkClient();
-        checkServer();
+        if (getError() == null) {
+            checkClient();
+        }
+        if (getError() == null) {
+            checkServer();
+        }
+    }
+
+    /**
+     * Check the preauth and the policy.
+     */
+    public void verify() throws KrbException {
         preauth();
-        authenticate();
+        if (getError() == null) {
+            authenticate();
+        }
+    }
+
+    /**
+     * Issue the ticket and make the reply, unless the policy doesn't allow
+     * the ticket asked for.
+     */
+    public void issue() throws KrbException {
         issueTicket();
-        makeReply();
+        if (getError() == null) {
+            makeReply();
+        }
     }
 
     public KdcReq getKdcReq() {
@@ -98,8 +139,47 @@ public abstract class KdcRequest {
         this.isTcp = isTcp;
     }
 
+    /**
+     * The reply to send, which is the error if there is one.
+     */
     public KrbMessage getReply() {
-        return reply;
+        return error != null ? error : reply;
+    }
+
+    /**
+     * The error to reply with instead of a ticket, or null if none so far.
+     */
+    public KrbError getError() {
+        return error;
+    }
+
+    /**
+     * Answer with the error, skipping the rest of the request. The expected
+     * failures, as of an unknown principal or a missing preauth, are set
+     * here rather than thrown, so they cost no stack trace.
+     */
+    public void setError(KrbError error) {
+        this.error = error;
+    }
+
+    protected void setError(KrbErrorCode errorCode) {
+        setError(makeError(errorCode));
+    }
+
+    /**
+     * An error reply to the request, for the server asked for.
+     */
+    public KrbError makeError(KrbErrorCode errorCode) {
+        KrbError krbError = kdcContext.makeError(errorCode);
+        KdcReqBody body = kdcReq.getReqBody();
+        if (body.getCname() != null) {
+            krbError.setCname(body.getCname());
+            krbError.setCrealm(body.getRealm());
+        }
+        if (body.getSname() != null) {
+            krbError.setSname(body.getSname());
+        }
+        return krbError;
     }
 
     public void setReply(KdcRep reply) {
@@ -175,9 +255,7 @@ public abstract class KdcRequest {
     }
 
     public PrincipalName getTgsPrincipal() {
-        PrincipalName result = new PrincipalName(kdcContext.getConfig().getTgsPrincipal());
-        result.setRealm(kdcContext.getKdcRealm());
-        return result;
+        return kdcContext.getTgsPrincipal();
     }
 
     protected abstract void makeReply() throws KrbException;
@@ -187,23 +265,16 @@ public abstract class KdcRequest {
 
         int kerberosVersion = request.getPvno();
         if (kerberosVersion != KrbConstant.KRB_V5) {
-            throw new KrbException(KrbErrorCode.KDC_ERR_BAD_PVNO);
+            setError(KrbErrorCode.KDC_ERR_BAD_PVNO);
         }
     }
 
     protected void checkPolicy() throws KrbException {
         KrbIdentity entry = getClientEntry();
 
-        if (entry.isDisabled()) {
-            throw new KrbException(KrbErrorCode.KDC_ERR_CLIENT_REVOKED);
-        }
-
-        if (entry.isLocked()) {
-            throw new KrbException(KrbErrorCode.KDC_ERR_CLIENT_REVOKED);
-        }
-
-        if (entry.getExpireTime().lessThan(new Date().getTime())) {
-            throw new KrbException(KrbErrorCode.KDC_ERR_CLIENT_REVOKED);
+        if (entry.isDisabled() || entry.isLocked()
+                || entry.getExpireTime().lessThan(new Date().getTime())) {
+            setError(KrbErrorCode.KDC_ERR_CLIENT_REVOKED);
         }
     }
 
@@ -217,7 +288,11 @@ public abstract class KdcRequest {
         }
         clientPrincipal.setRealm(clientRealm);
 
-        KrbIdentity clientEntry = getEntry(clientPrincipal.getName());
+        KrbIdentity clientEntry = findEntry(clientPrincipal.getName());
+        if (clientEntry == null) {
+            setError(KrbErrorCode.KDC_ERR_C_PRINCIPAL_UNKNOWN);
+            return;
+        }
         setClientEntry(clientEntry);
 
         EncryptionType encType = request.getReqBody().getEtypes().listIterator().next();
@@ -232,8 +307,8 @@ public abstract class KdcRequest {
 
         if (preauthContext.isPreauthRequired()) {
             if (preAuthData == null || preAuthData.isEmpty()) {
-                KrbError krbError = makePreAuthenticationError(kdcContext);
-                throw new KrbErrorException(krbError);
+                setError(makePreAuthenticationError(kdcContext));
+                return;
             } else {
                 getPreauthHandler().verify(this, preAuthData);
             }
@@ -261,7 +336,8 @@ public abstract class KdcRequest {
                 kdcContext.getConfig().getEncryptionTypes());
 
         if (bestType == null) {
-            throw new KrbException(KrbErrorCode.KDC_ERR_ETYPE_NOSUPP);
+            setError(KrbErrorCode.KDC_ERR_ETYPE_NOSUPP);
+            return;
         }
 
         setEncryptionType(bestType);
@@ -269,7 +345,9 @@ public abstract class KdcRequest {
 
     protected void authenticate() throws KrbException {
         checkEncryptionType();
-        checkPolicy();
+        if (getError() == null) {
+            checkPolicy();
+        }
     }
 
     protected void issueTicket() throws KrbException {
@@ -293,7 +371,8 @@ public abstract class KdcRequest {
 
         if (request.getReqBody().getKdcOptions().isFlagSet(KdcOption.FORWARDABLE)) {
             if (!config.isForwardableAllowed()) {
-                throw new KrbException(KrbErrorCode.KDC_ERR_POLICY);
+                setError(KrbErrorCode.KDC_ERR_POLICY);
+                return;
             }
 
             ticketFlags.setFlag(TicketFlag.FORWARDABLE);
@@ -301,7 +380,8 @@ public abstract class KdcRequest {
 
         if (request.getReqBody().getKdcOptions().isFlagSet(KdcOption.PROXIABLE)) {
             if (!config.isProxiableAllowed()) {
-                throw new KrbException(KrbErrorCode.KDC_ERR_POLICY);
+                setError(KrbErrorCode.KDC_ERR_POLICY);
+                return;
             }
 
             ticketFlags.setFlag(TicketFlag.PROXIABLE);
@@ -309,7 +389,8 @@ public abstract class KdcRequest {
 
         if (request.getReqBody().getKdcOptions().isFlagSet(KdcOption.ALLOW_POSTDATE)) {
             if (!config.isPostdatedAllowed()) {
-                throw new KrbException(KrbErrorCode.KDC_ERR_POLICY);
+                setError(KrbErrorCode.KDC_ERR_POLICY);
+                return;
             }
 
             ticketFlags.setFlag(TicketFlag.MAY_POSTDATE);
@@ -338,12 +419,14 @@ public abstract class KdcRequest {
         if (krbStartTime.greaterThan(now)
                 && !krbStartTime.isInClockSkew(config.getAllowableClockSkew())
                 && !kdcOptions.isFlagSet(KdcOption.POSTDATED)) {
-            throw new KrbException(KrbErrorCode.KDC_ERR_CANNOT_POSTDATE);
+            setError(KrbErrorCode.KDC_ERR_CANNOT_POSTDATE);
+            return;
         }
 
         if (kdcOptions.isFlagSet(KdcOption.POSTDATED)) {
             if (!config.isPostdatedAllowed()) {
-                throw new KrbException(KrbErrorCode.KDC_ERR_POLICY);
+                setError(KrbErrorCode.KDC_ERR_POLICY);
+                return;
             }
 
             ticketFlags.setFlag(TicketFlag.POSTDATED);
@@ -354,13 +437,15 @@ public abstract class KdcRequest {
         if (krbEndTime == null) {
             krbEndTime = krbStartTime.extend(config.getMaximumTicketLifetime() * 1000);
         } else if (krbStartTime.greaterThan(krbEndTime)) {
-            throw new KrbException(KrbErrorCode.KDC_ERR_NEVER_VALID);
+            setError(KrbErrorCode.KDC_ERR_NEVER_VALID);
+            return;
         }
         encTicketPart.setEndTime(krbEndTime);
 
         long ticketLifeTime = Math.abs(krbEndTime.diff(krbStartTime));
         if (ticketLifeTime < config.getMinimumTicketLifetime()) {
-            throw new KrbException(KrbErrorCode.KDC_ERR_NEVER_VALID);
+            setError(KrbErrorCode.KDC_ERR_NEVER_VALID);
+            return;
         }
 
         KerberosTime krbRtime = request.getReqBody().getRtime();
@@ -369,7 +454,8 @@ public abstract class KdcRequest {
         }
         if (kdcOptions.isFlagSet(KdcOption.RENEWABLE)) {
             if (!config.isRenewableAllowed()) {
-                throw new KrbException(KrbErrorCode.KDC_ERR_POLICY);
+                setError(KrbErrorCode.KDC_ERR_POLICY);
+                return;
             }
 
             ticketFlags.setFlag(TicketFlag.RENEWABLE);
@@ -388,13 +474,14 @@ public abstract class KdcRequest {
         HostAddresses hostAddresses = request.getReqBody().getAddresses();
         if (hostAddresses == null || hostAddresses.isEmpty()) {
             if (!config.isEmptyAddressesAllowed()) {
-                throw new KrbException(KrbErrorCode.KDC_ERR_POLICY);
+                setError(KrbErrorCode.KDC_ERR_POLICY);
+                return;
             }
         } else {
             encTicketPart.setClientAddresses(hostAddresses);
         }
 
-        EncryptedData encryptedData = EncryptionUtil.seal(encTicketPart,
+        EncryptedData encryptedData = seal(encTicketPart,
                 serverKey, KeyUsage.KDC_REP_TICKET);
 
         Ticket newTicket = new Ticket();
@@ -409,7 +496,10 @@ public abstract class KdcRequest {
     private void checkServer() throws KrbException {
         KdcReq request = getKdcReq();
 
-        KrbIdentity tgsEntry = getEntry(getTgsPrincipal().getName());
+        KrbIdentity tgsEntry = kdcContext.getTgsEntry();
+        if (tgsEntry == null) {
+            throw new KrbException(KrbErrorCode.KDC_ERR_C_PRINCIPAL_UNKNOWN);
+        }
         setTgsEntry(tgsEntry);
 
         PrincipalName principal = request.getReqBody().getSname();
@@ -419,7 +509,11 @@ public abstract class KdcRequest {
         }
         principal.setRealm(serverRealm);
 
-        KrbIdentity serverEntry = getEntry(principal.getName());
+        KrbIdentity serverEntry = findEntry(principal.getName());
+        if (serverEntry == null) {
+            setError(KrbErrorCode.KDC_ERR_S_PRINCIPAL_UNKNOWN);
+            return;
+        }
         setServerEntry(serverEntry);
 
         EncryptionType encType = request.getReqBody().getEtypes().listIterator().next();
@@ -427,65 +521,91 @@ public abstract class KdcRequest {
         setServerKey(serverKey);
     }
 
+    /**
+     * The PREAUTH_REQUIRED error. Its e-data lists the enctypes the client
+     * has keys of, and only depends on those, so it's encoded once for each
+     * set of them in the realm and kept in the context. A key change gives
+     * a new set, and so new e-data.
+     *
+     * The keys are all of the default salt, which the client works out by
+     * itself, so the ETYPE-INFO2 entries have no salt.
+     */
     protected KrbError makePreAuthenticationError(KdcContext kdcContext) throws KrbException {
-        EncryptionType requestedType = getEncryptionType();
-        List<EncryptionType> encryptionTypes = kdcContext.getConfig().getEncryptionTypes();
-        boolean isNewEtype = true;
+        List<EncryptionType> encryptionTypes = getPreauthEncryptionTypes();
+        byte[] edata = kdcContext.getPreauthRequiredEdata(encryptionTypes);
+        if (edata == null) {
+            edata = encodePreauthRequiredEdata(encryptionTypes);
+            kdcContext.setPreauthRequiredEdata(encryptionTypes, edata);
+        }
 
-        EtypeInfo2 eTypeInfo2 = new EtypeInfo2();
+        KrbError krbError = makeError(KrbErrorCode.KDC_ERR_PREAUTH_REQUIRED);
+        krbError.setEdata(edata);
+        return krbError;
+    }
 
-        EtypeInfo eTypeInfo = new EtypeInfo();
+    /**
+     * The configured enctypes, in order, that the client asked for and has
+     * keys of, or all of the configured ones if none. Matched by value, as
+     * decoded enctypes are the first of the names for it.
+     */
+    private List<EncryptionType> getPreauthEncryptionTypes() {
+        List<EncryptionType> configured = kdcContext.getConfig().getEncryptionTypes();
+        Set<Integer> requested = new HashSet<Integer>();
+        for (EncryptionType encryptionType : getKdcReq().getReqBody().getEtypes()) {
+            requested.add(encryptionType.getValue());
+        }
+        Set<Integer> keys = new HashSet<Integer>();
+        for (EncryptionType encryptionType : getClientEntry().getKeys().keySet()) {
+            keys.add(encryptionType.getValue());
+        }
 
-        for (EncryptionType encryptionType : encryptionTypes) {
-            if (!isNewEtype) {
-                EtypeInfoEntry etypeInfoEntry = new EtypeInfoEntry();
-                etypeInfoEntry.setEtype(encryptionType);
-                etypeInfoEntry.setSalt(null);
-                eTypeInfo.add(etypeInfoEntry);
+        List<EncryptionType> results = new ArrayList<EncryptionType>(configured.size());
+        for (EncryptionType encryptionType : configured) {
+            if (keys.contains(encryptionType.getValue())
+                    && requested.contains(encryptionType.getValue())) {
+                results.add(encryptionType);
             }
+        }
+        return results.isEmpty() ? configured : results;
+    }
 
+    private static byte[] encodePreauthRequiredEdata(List<EncryptionType> encryptionTypes)
+            throws KrbException {
+        EtypeInfo2 eTypeInfo2 = new EtypeInfo2();
+        for (EncryptionType encryptionType : encryptionTypes) {
             EtypeInfo2Entry etypeInfo2Entry = new EtypeInfo2Entry();
             etypeInfo2Entry.setEtype(encryptionType);
             eTypeInfo2.add(etypeInfo2Entry);
         }
 
-        byte[] encTypeInfo = null;
-        byte[] encTypeInfo2 = null;
-        if (!isNewEtype) {
-            encTypeInfo = KrbCodec.encode(eTypeInfo);
-        }
-        encTypeInfo2 = KrbCodec.encode(eTypeInfo2);
-
         MethodData methodData = new MethodData();
-        methodData.add(new PaDataEntry(PaDataType.ENC_TIMESTAMP, null));
-        if (!isNewEtype) {
-            methodData.add(new PaDataEntry(PaDataType.ETYPE_INFO, encTypeInfo));
+        methodData.add(new PaDataEntry(PaDataType.ENC_TIMESTAMP, new byte[0]));
+        methodData.add(new PaDataEntry(PaDataType.ETYPE_INFO2, KrbCodec.encode(eTypeInfo2)));
+        return KrbCodec.encode(methodData);
+    }
+
+    /**
+     * Seal the part with the key, timing it in the metrics.
+     */
+    protected EncryptedData seal(AbstractAsn1Type<?> part, EncryptionKey key,
+                                 KeyUsage usage) throws KrbException {
+        long start = System.nanoTime();
+        EncryptedData encryptedData = EncryptionUtil.seal(part, key, usage);
+        KdcMetrics metrics = kdcContext.getMetrics();
+        if (metrics != null) {
+            metrics.record(KdcMetrics.Phase.SEAL, start);
         }
-        methodData.add(new PaDataEntry(PaDataType.ETYPE_INFO2, encTypeInfo2));
-
-        KrbError krbError = new KrbError();
-        krbError.setErrorCode(KrbErrorCode.KDC_ERR_PREAUTH_REQUIRED);
-        byte[] encodedData = KrbCodec.encode(methodData);
-        krbError.setEdata(encodedData);
-
-        return krbError;
+        return encryptedData;
     }
 
-    protected KrbIdentity getEntry(String principal) throws KrbException {
-        KrbIdentity entry = null;
-        KrbErrorCode krbErrorCode = KrbErrorCode.KDC_ERR_C_PRINCIPAL_UNKNOWN;
-
-        try {
-            entry = kdcContext.getIdentityService().getIdentity(principal);
-        } catch (Exception e) {
-            throw new KrbException(krbErrorCode, e);
-        }
-
-        if (entry == null) {
-            throw new KrbException(krbErrorCode);
-        }
-
-        return entry;
+    /**
+     * The identity of the principal, or null if there's none, which the
+     * caller answers with its own error. A failing identity backend is
+     * thrown as is, so it's answered with a generic error and not taken
+     * for an unknown principal.
+     */
+    protected KrbIdentity findEntry(String principal) {
+        return kdcContext.getIdentityService().getIdentity(principal);
     }
 
     public ByteBuffer getRequestBody() throws KrbException {
@@ -4,6 +4,8 @@ import org.apache.kerberos.kerb.KrbErrorCode;
 import org.apache.kerberos.kerb.codec.KrbCodec;
 import org.apache.kerberos.kerb.common.EncryptionUtil;
 import org.apache.kerberos.kerb.server.KdcContext;
+import org.apache.kerberos.kerb.server.replay.ReplayCacheFullException;
+import org.apache.kerberos.kerb.server.replay.ReplayCheckService;
 import org.apache.kerberos.kerb.KrbConstant;
 import org.apache.kerberos.kerb.KrbException;
 import org.apache.kerberos.kerb.spec.KerberosTime;
@@ -18,6 +20,7 @@ import org.apache.kerberos.kerb.spec.ticket.Ticket;
 import org.apache.kerberos.kerb.spec.ticket.TicketFlag;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class TgsRequest extends KdcRequest {
 
@@ -48,16 +51,20 @@ public class TgsRequest extends KdcRequest {
             throw new KrbException(KrbErrorCode.KRB_AP_ERR_MSG_TYPE);
         }
 
-        EncryptionType encType = getKdcReq().getReqBody().getEtypes().listIterator().next();
-        EncryptionKey tgsKey = getTgsEntry().getKeys().get(encType);
-
         Ticket ticket = apReq.getTicket();
         if (ticket.getTktvno() != KrbConstant.KRB_V5) {
             throw new KrbException(KrbErrorCode.KRB_AP_ERR_BADVERSION);
         }
 
-        EncTicketPart encPart = EncryptionUtil.unseal(ticket.getEncryptedEncPart(),
-                tgsKey, KeyUsage.KDC_REP_TICKET, EncTicketPart.class);
+        EncryptedData encryptedTicket = ticket.getEncryptedEncPart();
+        EncryptionKey tgsKey = kdcContext.getTgsKey(encryptedTicket.getEType(),
+                encryptedTicket.getKvno());
+        if (tgsKey == null) {
+            throw new KrbException(KrbErrorCode.KRB_AP_ERR_BADKEYVER);
+        }
+
+        EncTicketPart encPart = EncryptionUtil.unseal(encryptedTicket, tgsKey,
+                KeyUsage.KDC_REP_TICKET, EncTicketPart.class);
         ticket.setEncPart(encPart);
 
         EncryptionKey encKey = null;
@@ -93,6 +100,22 @@ public class TgsRequest extends KdcRequest {
             throw new KrbException(KrbErrorCode.KRB_AP_ERR_SKEW);
         }
 
+        ReplayCheckService replayCache = kdcContext.getReplayCache();
+        boolean replay;
+        try {
+            replay = replayCache != null && replayCache.checkReplay(clientPrincipal.getName(),
+                    serverPrincipal.getName(), authenticator.getCtime().getTime(),
+                    authenticator.getCusec());
+        } catch (ReplayCacheFullException e) {
+            if (kdcContext.getMetrics() != null) {
+                kdcContext.getMetrics().countReplayCacheFull();
+            }
+            throw e;
+        }
+        if (replay) {
+            throw new KrbException(KrbErrorCode.KRB_AP_ERR_REPEAT);
+        }
+
         KerberosTime now = KerberosTime.now();
         KerberosTime startTime = ticket.getEncPart().getStartTime();
         if (startTime == null) {
@@ -112,6 +135,56 @@ public class TgsRequest extends KdcRequest {
         setTgtSessionKey(ticket.getEncPart().getKey());
     }
 
+    /**
+     * Issue the ticket, or take the one being issued for the same request
+     * with the same TGT, if shared in the realm. The nonce isn't part of
+     * the ticket, so it doesn't keep requests apart.
+     */
+    @Override
+    protected void issueTicket() throws KrbException {
+        TicketCoalescer coalescer = kdcContext.getTicketCoalescer();
+        if (coalescer == null || getTgtSessionKey() == null) {
+            super.issueTicket();
+            return;
+        }
+
+        TicketCoalescer.Result result = coalescer.issue(getCoalescingKey(),
+                new TicketCoalescer.Issuer() {
+                    @Override
+                    public Ticket issue() throws KrbException {
+                        TgsRequest.super.issueTicket();
+                        return getTicket();
+                    }
+                });
+        if (result.isShared()) {
+            setTicket(result.getTicket());
+            if (kdcContext.getMetrics() != null) {
+                kdcContext.getMetrics().countTgsCoalesced();
+            }
+        }
+    }
+
+    private Object getCoalescingKey() throws KrbException {
+        KdcReqBody body = getKdcReq().getReqBody();
+        PrincipalName clientPrincipal = body.getCname();
+        HostAddresses addresses = body.getAddresses();
+        return Arrays.asList(
+                ByteBuffer.wrap(getTgtSessionKey().getKeyData()),
+                getEncryptionType(),
+                clientPrincipal != null ? clientPrincipal.getName() : null,
+                body.getSname().getName(),
+                body.getRealm(),
+                body.getKdcOptions().getFlags(),
+                getTime(body.getFrom()),
+                getTime(body.getTill()),
+                getTime(body.getRtime()),
+                addresses != null ? ByteBuffer.wrap(KrbCodec.encode(addresses)) : null);
+    }
+
+    private static Long getTime(KerberosTime time) {
+        return time != null ? time.getTime() : null;
+    }
+
     @Override
     protected void makeReply() throws KrbException {
         Ticket ticket = getTicket();
@@ -126,7 +199,7 @@ public class TgsRequest extends KdcRequest {
         reply.setEncPart(encKdcRepPart);
 
         EncryptionKey sessionKey = getTgtSessionKey();
-        EncryptedData encryptedData = EncryptionUtil.seal(encKdcRepPart,
+        EncryptedData encryptedData = seal(encKdcRepPart,
                 sessionKey, KeyUsage.TGS_REP_ENCPART_SESSKEY);
         reply.setEncryptedEncPart(encryptedData);
 
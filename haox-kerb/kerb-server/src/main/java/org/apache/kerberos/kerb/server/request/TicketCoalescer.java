@@ -0,0 +1,104 @@
+package org.apache.kerberos.kerb.server.request;
+
+import org.apache.kerberos.kerb.KrbException;
+import org.apache.kerberos.kerb.spec.ticket.Ticket;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the ticket issued for a request with the same requests that come
+ * in while it's being issued, as when many tasks of a job ask for the same
+ * service ticket at once with the same TGT.
+ *
+ * The first request for a key issues the ticket; the others wait for it
+ * and take it as theirs. Each request is still checked on its own, and
+ * gets its own reply, with its nonce, sealed in its session key; only the
+ * ticket, with its session key, is shared, as if the client had asked once
+ * and used the ticket for all of them. A request that has waited too long,
+ * or whose first failed, issues its own.
+ *
+ * Only requests in progress are shared, nothing is kept after.
+ */
+public class TicketCoalescer {
+
+    public static interface Issuer {
+        Ticket issue() throws KrbException;
+    }
+
+    // Longer than any issue should take, so only a stuck one is given up on
+    private static final long WAIT_TIMEOUT = 1000L;
+
+    private final ConcurrentMap<Object, Flight> flights = new ConcurrentHashMap<Object, Flight>();
+
+    /**
+     * Issue the ticket for the key, or take the one being issued for it.
+     *
+     * @param key what makes two requests get the same ticket, with equals
+     *            and hashCode by value
+     * @return the ticket, and whether it was taken from another request
+     */
+    public Result issue(Object key, Issuer issuer) throws KrbException {
+        Flight flight = new Flight();
+        Flight first = flights.putIfAbsent(key, flight);
+        if (first != null) {
+            Ticket ticket = first.await();
+            if (ticket != null) {
+                return new Result(ticket, true);
+            }
+            return new Result(issuer.issue(), false);
+        }
+
+        Ticket ticket = null;
+        try {
+            ticket = issuer.issue();
+            return new Result(ticket, false);
+        } finally {
+            flights.remove(key, flight);
+            flight.done(ticket);
+        }
+    }
+
+    public static class Result {
+        private final Ticket ticket;
+        private final boolean shared;
+
+        Result(Ticket ticket, boolean shared) {
+            this.ticket = ticket;
+            this.shared = shared;
+        }
+
+        public Ticket getTicket() {
+            return ticket;
+        }
+
+        public boolean isShared() {
+            return shared;
+        }
+    }
+
+    private static class Flight {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile Ticket ticket;
+
+        void done(Ticket ticket) {
+            this.ticket = ticket;
+            latch.countDown();
+        }
+
+        // Null if failed or not done in time
+        Ticket await() {
+            try {
+                if (! latch.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    return null;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return ticket;
+        }
+    }
+}
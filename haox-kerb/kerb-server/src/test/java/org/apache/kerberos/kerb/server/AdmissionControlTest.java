@@ -0,0 +1,134 @@
+package org.apache.kerberos.kerb.server;
+
+import org.apache.kerberos.kerb.server.AdmissionControl.Kind;
+import org.apache.kerberos.kerb.server.metrics.DefaultMetricsRegistry;
+import org.apache.kerberos.kerb.server.metrics.KdcMetrics;
+import org.apache.kerberos.kerb.server.preauth.PreauthHandler;
+import org.apache.kerberos.kerb.server.request.AsRequest;
+import org.apache.kerberos.kerb.spec.common.PrincipalName;
+import org.apache.kerberos.kerb.spec.kdc.AsReq;
+import org.apache.kerberos.kerb.spec.kdc.KdcOptions;
+import org.apache.kerberos.kerb.spec.kdc.KdcReqBody;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+public class AdmissionControlTest {
+
+    private static final long MILLIS = 1000000L;
+    private static final long TARGET = 10 * MILLIS;
+    private static final long INTERVAL = 100 * MILLIS;
+
+    private final AdmissionControl admissionControl = new AdmissionControl(TARGET, INTERVAL,
+            Arrays.asList("retry", "as"), new KdcMetrics(new DefaultMetricsRegistry()));
+
+    @Test
+    public void testShedding() {
+        long now = MILLIS;
+
+        // Under the target nothing is shed
+        for (int i = 0; i < 100; i++) {
+            Assert.assertFalse(admissionControl.shouldShed(Kind.AS, TARGET / 2, now));
+            now += MILLIS;
+        }
+
+        // Nor over it for less than the interval
+        for (int i = 0; i < 90; i++) {
+            Assert.assertFalse(admissionControl.shouldShed(Kind.AS, 2 * TARGET, now));
+            now += MILLIS;
+        }
+
+        // Then a shed falls on the next request that may be shed
+        now += 20 * MILLIS;
+        Assert.assertFalse(admissionControl.shouldShed(Kind.TGS, 2 * TARGET, now));
+        Assert.assertTrue(admissionControl.shouldShed(Kind.AS, 2 * TARGET, now));
+        Assert.assertFalse(admissionControl.shouldShed(Kind.AS, 2 * TARGET, now));
+
+        // And the next comes sooner than the interval while it lasts
+        int shed = 0;
+        for (int i = 0; i < 400; i++) {
+            now += MILLIS;
+            if (admissionControl.shouldShed(Kind.AS, 2 * TARGET, now)) {
+                shed++;
+            }
+        }
+        Assert.assertTrue("Shed " + shed, shed > 2);
+
+        // Until the waits are under the target again
+        now += MILLIS;
+        Assert.assertFalse(admissionControl.shouldShed(Kind.AS, TARGET / 2, now));
+        for (int i = 0; i < 50; i++) {
+            now += MILLIS;
+            Assert.assertFalse(admissionControl.shouldShed(Kind.AS, 2 * TARGET, now));
+        }
+    }
+
+    @Test
+    public void testPendingShed() {
+        long now = MILLIS;
+        for (int i = 0; i < 120; i++) {
+            admissionControl.shouldShed(Kind.TGS, 2 * TARGET, now);
+            now += MILLIS;
+        }
+
+        // A shed is due, and falls on a request that didn't wait as well
+        Assert.assertFalse(admissionControl.shouldShedPending(Kind.TGS));
+        Assert.assertTrue(admissionControl.shouldShedPending(Kind.AS));
+        Assert.assertFalse(admissionControl.shouldShedPending(Kind.AS));
+    }
+
+    @Test
+    public void testWaitBound() {
+        // Any request that waited longer than the interval is shed
+        Assert.assertTrue(admissionControl.shouldShed(Kind.TGS, 2 * INTERVAL, MILLIS));
+        Assert.assertFalse(admissionControl.shouldShed(Kind.TGS, INTERVAL / 2, MILLIS));
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        KdcContext kdcContext = makeKdcContext();
+
+        AsRequest request = makeAsRequest(kdcContext, "10.0.0.1", 1);
+        Assert.assertEquals(Kind.AS, admissionControl.getKind(request));
+
+        // The same request again from the same address
+        request = makeAsRequest(kdcContext, "10.0.0.1", 1);
+        Assert.assertEquals(Kind.RETRY, admissionControl.getKind(request));
+
+        // Another nonce or address isn't
+        request = makeAsRequest(kdcContext, "10.0.0.1", 2);
+        Assert.assertEquals(Kind.AS, admissionControl.getKind(request));
+        request = makeAsRequest(kdcContext, "10.0.0.2", 1);
+        Assert.assertEquals(Kind.AS, admissionControl.getKind(request));
+    }
+
+    private static KdcContext makeKdcContext() {
+        KdcConfig config = new KdcConfig();
+        PreauthHandler preauthHandler = new PreauthHandler();
+        preauthHandler.init(config);
+
+        KdcContext kdcContext = new KdcContext();
+        kdcContext.init(config);
+        kdcContext.setKdcRealm("EXAMPLE.COM");
+        kdcContext.setPreauthHandler(preauthHandler);
+        return kdcContext;
+    }
+
+    private static AsRequest makeAsRequest(KdcContext kdcContext, String address,
+                                           int nonce) throws Exception {
+        KdcReqBody body = new KdcReqBody();
+        body.setCname(new PrincipalName("alice"));
+        body.setSname(new PrincipalName("krbtgt"));
+        body.setRealm("EXAMPLE.COM");
+        body.setKdcOptions(new KdcOptions());
+        body.setNonce(nonce);
+
+        AsReq asReq = new AsReq();
+        asReq.setReqBody(body);
+        AsRequest request = new AsRequest(asReq, kdcContext);
+        request.setClientAddress(InetAddress.getByName(address));
+        return request;
+    }
+}
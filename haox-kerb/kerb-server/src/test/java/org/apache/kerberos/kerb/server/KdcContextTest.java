@@ -0,0 +1,39 @@
+package org.apache.kerberos.kerb.server;
+
+import org.apache.kerberos.kerb.identity.CachedIdentityService;
+import org.apache.kerberos.kerb.identity.KrbIdentity;
+import org.apache.kerberos.kerb.identity.backend.InMemoryIdentityBackend;
+import org.apache.kerberos.kerb.spec.common.EncryptionKey;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KdcContextTest {
+
+    private static final String TGS = "krbtgt@EXAMPLE.COM";
+    private static final EncryptionType ENC_TYPE = EncryptionType.AES128_CTS_HMAC_SHA1_96;
+
+    @Test
+    public void testTgsKeysRotatedBehindCache() {
+        InMemoryIdentityBackend backend = new InMemoryIdentityBackend();
+        backend.addIdentity(makeTgs(1));
+
+        KdcContext kdcContext = new KdcContext();
+        kdcContext.init(new KdcConfig());
+        kdcContext.setKdcRealm("EXAMPLE.COM");
+        kdcContext.setIdentityService(new CachedIdentityService(backend));
+        Assert.assertEquals(1, kdcContext.getTgsKey(ENC_TYPE, 1).getKvno());
+
+        // Changed in the backend, not through the cache
+        backend.updateIdentity(makeTgs(2));
+        kdcContext.reloadTgsEntry();
+        Assert.assertEquals(2, kdcContext.getTgsKey(ENC_TYPE, 2).getKvno());
+    }
+
+    private static KrbIdentity makeTgs(int kvno) {
+        KrbIdentity identity = new KrbIdentity(TGS);
+        identity.setKeyVersion(kvno);
+        identity.addKey(new EncryptionKey(ENC_TYPE, new byte[16], kvno));
+        return identity;
+    }
+}
@@ -0,0 +1,174 @@
+package org.apache.kerberos.kerb.server;
+
+import org.apache.haox.transport.Transport;
+import org.apache.kerberos.kerb.KrbErrorCode;
+import org.apache.kerberos.kerb.KrbException;
+import org.apache.kerberos.kerb.common.KrbUtil;
+import org.apache.kerberos.kerb.identity.KrbIdentity;
+import org.apache.kerberos.kerb.identity.backend.InMemoryIdentityBackend;
+import org.apache.kerberos.kerb.server.metrics.DefaultMetricsRegistry;
+import org.apache.kerberos.kerb.server.metrics.KdcMetrics;
+import org.apache.kerberos.kerb.server.request.KdcRequest;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+import org.apache.kerberos.kerb.spec.common.PrincipalName;
+import org.apache.kerberos.kerb.spec.kdc.AsReq;
+import org.apache.kerberos.kerb.spec.kdc.KdcOptions;
+import org.apache.kerberos.kerb.spec.kdc.KdcReqBody;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Properties;
+
+public class KdcHandlerTest {
+
+    private KdcHandler kdcHandler;
+    private KdcMetrics metrics;
+    private InMemoryIdentityBackend exampleIdentities;
+    private InMemoryIdentityBackend otherIdentities;
+    private Transport transport;
+
+    @Before
+    public void setUp() {
+        Properties properties = new Properties();
+        properties.setProperty(KdcConfigKey.REALM_MAX_REQUESTS.getPropertyKey(), "1");
+        properties.setProperty(KdcConfigKey.PRINCIPAL_RATE_LIMIT.getPropertyKey(), "1");
+        properties.setProperty(KdcConfigKey.RATE_LIMIT_BURST.getPropertyKey(), "2");
+        KdcConfig config = new KdcConfig();
+        config.getConf().addPropertiesConfig(properties);
+
+        exampleIdentities = new InMemoryIdentityBackend();
+        exampleIdentities.addIdentity(new KrbIdentity("krbtgt@EXAMPLE.COM"));
+        otherIdentities = new InMemoryIdentityBackend();
+        otherIdentities.addIdentity(new KrbIdentity("krbtgt@OTHER.COM"));
+
+        metrics = new KdcMetrics(new DefaultMetricsRegistry());
+
+        kdcHandler = new KdcHandler();
+        kdcHandler.setConfig(config);
+        kdcHandler.setMetrics(metrics);
+        kdcHandler.setKdcRealm("EXAMPLE.COM");
+        kdcHandler.setKdcRealm("OTHER.COM");
+        kdcHandler.setIdentityService("EXAMPLE.COM", exampleIdentities);
+        kdcHandler.setIdentityService("OTHER.COM", otherIdentities);
+        kdcHandler.init();
+
+        transport = new Transport(new InetSocketAddress("127.0.0.1", 88)) {
+            @Override
+            protected void sendOutMessage(ByteBuffer message) {
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        kdcHandler.stop(1000);
+    }
+
+    @Test
+    public void testRealms() throws Exception {
+        ByteBuffer message = makeAsReq("OTHER.COM");
+        Assert.assertEquals("OTHER.COM", RealmSniffer.sniffRealm(message));
+
+        KdcRequest kdcRequest = kdcHandler.makeRequest(message, transport);
+        KdcContext kdcContext = kdcRequest.getKdcContext();
+        Assert.assertSame(kdcHandler.getKdcContext("OTHER.COM"), kdcContext);
+        Assert.assertSame(otherIdentities, kdcContext.getIdentityService());
+        Assert.assertEquals("OTHER.COM", kdcContext.getServerRealm());
+        Assert.assertEquals("krbtgt@OTHER.COM", kdcContext.getTgsEntry().getPrincipalName());
+
+        try {
+            kdcHandler.makeRequest(makeAsReq("NOWHERE.COM"), transport);
+            Assert.fail("Made request for a realm not served");
+        } catch (KrbException e) {
+            Assert.assertEquals(KrbErrorCode.WRONG_REALM, e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testRealmMaxRequests() throws Exception {
+        KdcRequest kdcRequest = kdcHandler.makeRequest(makeAsReq("EXAMPLE.COM"), transport);
+
+        try {
+            kdcHandler.makeRequest(makeAsReq("EXAMPLE.COM"), transport);
+            Assert.fail("Made request over the share of the realm");
+        } catch (KrbException e) {
+            Assert.assertEquals(KrbErrorCode.KDC_ERR_SVC_UNAVAILABLE, e.getErrorCode());
+        }
+
+        // The other realm isn't held up
+        kdcHandler.makeRequest(makeAsReq("OTHER.COM"), transport);
+
+        kdcRequest.getKdcContext().requestDone();
+        kdcHandler.makeRequest(makeAsReq("EXAMPLE.COM"), transport);
+    }
+
+    @Test
+    public void testRateLimits() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            KdcRequest kdcRequest = kdcHandler.makeRequest(makeAsReq("EXAMPLE.COM"), transport);
+            Assert.assertTrue(kdcHandler.checkRateLimits(kdcRequest));
+            kdcRequest.getKdcContext().requestDone();
+        }
+
+        // Over the burst for alice, so answered right away
+        KdcRequest kdcRequest = kdcHandler.makeRequest(makeAsReq("EXAMPLE.COM"), transport);
+        Assert.assertFalse(kdcHandler.checkRateLimits(kdcRequest));
+        Assert.assertEquals(KrbErrorCode.KDC_ERR_SVC_UNAVAILABLE,
+                kdcRequest.getError().getErrorCode());
+        Assert.assertEquals(1, metrics.getRegistry().getCounter("ratelimit.principal").get());
+        kdcRequest.getKdcContext().requestDone();
+
+        // Alice in the other realm is another principal
+        kdcRequest = kdcHandler.makeRequest(makeAsReq("OTHER.COM"), transport);
+        Assert.assertTrue(kdcHandler.checkRateLimits(kdcRequest));
+    }
+
+    @Test
+    public void testTgsEntryLoadedLater() throws Exception {
+        // The backend isn't up when the KDC starts
+        InMemoryIdentityBackend identities = new InMemoryIdentityBackend() {
+            private boolean up;
+
+            @Override
+            public KrbIdentity getIdentity(String name) {
+                if (! up) {
+                    up = true;
+                    throw new RuntimeException("Backend down");
+                }
+                return super.getIdentity(name);
+            }
+        };
+        identities.addIdentity(new KrbIdentity("krbtgt@EXAMPLE.COM"));
+
+        KdcHandler handler = new KdcHandler();
+        handler.setConfig(new KdcConfig());
+        handler.setMetrics(metrics);
+        handler.setIdentityService(identities);
+        handler.init();
+        try {
+            Assert.assertEquals("krbtgt@EXAMPLE.COM", handler.getKdcContext("EXAMPLE.COM")
+                    .getTgsEntry().getPrincipalName());
+        } finally {
+            handler.stop(1000);
+        }
+    }
+
+    private static ByteBuffer makeAsReq(String realm) {
+        KdcReqBody body = new KdcReqBody();
+        body.setCname(new PrincipalName("alice"));
+        body.setSname(new PrincipalName("krbtgt"));
+        body.setRealm(realm);
+        body.setEtypes(Arrays.asList(EncryptionType.AES128_CTS_HMAC_SHA1_96));
+        body.setKdcOptions(new KdcOptions());
+        body.setNonce(1);
+
+        AsReq asReq = new AsReq();
+        asReq.setReqBody(body);
+        return KrbUtil.encodeMessage(asReq);
+    }
+}
@@ -1,6 +1,8 @@
 package org.apache.kerberos.kerb.server;
 
+import org.apache.kerberos.kerb.identity.IdentityService;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -9,6 +11,7 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.Properties;
 
 public class KdcTest {
 
@@ -44,6 +47,63 @@ public class KdcTest {
         socketChannel.write(writeBuffer);
     }
 
+    @Test
+    public void testTakeOver() throws Exception {
+        IdentityService identityService = kdcServer.getIdentityService();
+        SimpleKdcServer newServer = new SimpleKdcServer();
+        newServer.takeOver(kdcServer);
+        kdcServer = newServer;
+
+        // The identities are handed over, not loaded again
+        Assert.assertSame(identityService, newServer.getIdentityService());
+
+        SocketChannel socketChannel = SocketChannel.open();
+        socketChannel.configureBlocking(true);
+        socketChannel.connect(new InetSocketAddress(serverHost, serverPort));
+
+        String BAD_KRB_MESSAGE = "Hello World!";
+        ByteBuffer writeBuffer = ByteBuffer.allocate(4 + BAD_KRB_MESSAGE.getBytes().length);
+        writeBuffer.putInt(BAD_KRB_MESSAGE.getBytes().length);
+        writeBuffer.put(BAD_KRB_MESSAGE.getBytes());
+        writeBuffer.flip();
+        socketChannel.write(writeBuffer);
+
+        // Answered with an error by the new server
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        while (lengthBuffer.hasRemaining() && socketChannel.read(lengthBuffer) >= 0);
+        lengthBuffer.flip();
+        Assert.assertTrue(lengthBuffer.getInt() > 0);
+        socketChannel.close();
+    }
+
+    @Test
+    public void testStartupProfile() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty(KdcConfigKey.STARTUP_PROFILE.getPropertyKey(), "true");
+        conf.setProperty(KdcConfigKey.METRICS_REGISTRY.getPropertyKey(), "memory");
+
+        SimpleKdcServer profiledServer = new SimpleKdcServer();
+        profiledServer.getConfig().getConf().addPropertiesConfig(conf);
+        profiledServer.setKdcHost(serverHost);
+        profiledServer.setKdcPort((short) (serverPort + 1));
+        profiledServer.init();
+        profiledServer.start();
+        try {
+            StartupProfile profile = profiledServer.getStartupProfile();
+            Assert.assertTrue(profile.getNanos("init.identity") >= 0);
+            Assert.assertTrue(profile.getNanos("start.listen") >= 0);
+            Assert.assertTrue(profile.getNanos("bind") >= profile.getNanos("start.listen"));
+
+            // Accepting once started
+            SocketChannel socketChannel = SocketChannel.open();
+            socketChannel.connect(new InetSocketAddress(serverHost, serverPort + 1));
+            socketChannel.close();
+        } finally {
+            profiledServer.stop();
+        }
+        Assert.assertNull(kdcServer.getStartupProfile());
+    }
+
     @After
     public void tearDown() throws Exception {
         kdcServer.stop();
@@ -0,0 +1,97 @@
+package org.apache.kerberos.kerb.server;
+
+import org.apache.haox.transport.Transport;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LookasideCacheTest {
+
+    private static final long NOW = 1000000L;
+
+    @Test
+    public void testSentAgain() {
+        LookasideCache cache = new LookasideCache(16);
+        ByteBuffer request = ByteBuffer.wrap("request".getBytes());
+        SentTransport first = new SentTransport();
+        SentTransport waiting = new SentTransport();
+        SentTransport later = new SentTransport();
+
+        LookasideCache.Entry entry = cache.start(request, first, NOW);
+        Assert.assertNotNull(entry);
+        // Sent again while the first is in process, answered when it's done
+        Assert.assertNull(cache.start(ByteBuffer.wrap("request".getBytes()), waiting, NOW));
+        Assert.assertTrue(waiting.sent.isEmpty());
+
+        cache.done(entry, ByteBuffer.wrap("reply".getBytes()), true);
+        Assert.assertEquals("reply", waiting.sent.get(0));
+
+        // And after, answered at once
+        Assert.assertNull(cache.start(ByteBuffer.wrap("request".getBytes()), later, NOW + 1));
+        Assert.assertEquals("reply", later.sent.get(0));
+        Assert.assertTrue(first.sent.isEmpty());
+
+        // Other requests are new
+        Assert.assertNotNull(cache.start(ByteBuffer.wrap("other".getBytes()), later, NOW));
+    }
+
+    @Test
+    public void testNotKept() {
+        LookasideCache cache = new LookasideCache(16);
+        SentTransport waiting = new SentTransport();
+
+        LookasideCache.Entry entry = cache.start(ByteBuffer.wrap("request".getBytes()),
+                new SentTransport(), NOW);
+        cache.start(ByteBuffer.wrap("request".getBytes()), waiting, NOW);
+        cache.done(entry, ByteBuffer.wrap("unavailable".getBytes()), false);
+
+        // Those waiting still get it, but the next is processed
+        Assert.assertEquals("unavailable", waiting.sent.get(0));
+        Assert.assertNotNull(cache.start(ByteBuffer.wrap("request".getBytes()),
+                new SentTransport(), NOW));
+    }
+
+    @Test
+    public void testStaleAndEvicted() {
+        LookasideCache cache = new LookasideCache(2);
+        for (String request : new String[] { "a", "b" }) {
+            LookasideCache.Entry entry = cache.start(ByteBuffer.wrap(request.getBytes()),
+                    new SentTransport(), NOW);
+            cache.done(entry, ByteBuffer.wrap("reply".getBytes()), true);
+        }
+        Assert.assertNull(cache.start(ByteBuffer.wrap("a".getBytes()),
+                new SentTransport(), NOW));
+
+        // The oldest goes for a new one
+        cache.start(ByteBuffer.wrap("c".getBytes()), new SentTransport(), NOW);
+        Assert.assertNotNull(cache.start(ByteBuffer.wrap("a".getBytes()),
+                new SentTransport(), NOW));
+
+        // And all go once stale
+        Assert.assertNotNull(cache.start(ByteBuffer.wrap("c".getBytes()),
+                new SentTransport(), NOW + LookasideCache.STALE_MILLIS));
+    }
+
+    private static class SentTransport extends Transport {
+        private final List<String> sent = new ArrayList<String>();
+
+        SentTransport() {
+            super(null);
+        }
+
+        @Override
+        public void sendMessage(ByteBuffer message) {
+            byte[] bytes = new byte[message.remaining()];
+            message.get(bytes);
+            sent.add(new String(bytes));
+        }
+
+        @Override
+        protected void sendOutMessage(ByteBuffer message) throws IOException {
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.apache.kerberos.kerb.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void testBurstAndRate() {
+        // 10 a second, 5 at once
+        RateLimiter limiter = new RateLimiter(10, 5, 1024);
+        long now = SECOND;
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(limiter.tryAcquire(42, now));
+        }
+        Assert.assertFalse(limiter.tryAcquire(42, now));
+
+        // Other keys have their own buckets
+        Assert.assertTrue(limiter.tryAcquire(43, now));
+
+        // A token comes back every 100ms
+        Assert.assertFalse(limiter.tryAcquire(42, now + SECOND / 20));
+        Assert.assertTrue(limiter.tryAcquire(42, now + SECOND / 10));
+        Assert.assertFalse(limiter.tryAcquire(42, now + SECOND / 10));
+
+        // And the bucket is full again after a while
+        now += 2 * SECOND;
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(limiter.tryAcquire(42, now));
+        }
+        Assert.assertFalse(limiter.tryAcquire(42, now));
+    }
+
+    @Test
+    public void testManyKeys() {
+        // Keys each seen once are let through but for the few that share
+        // both buckets with others
+        RateLimiter limiter = new RateLimiter(1, 1, 16384);
+        int rejected = 0;
+        for (int key = 0; key < 1024; key++) {
+            if (! limiter.tryAcquire(key, SECOND)) {
+                rejected++;
+            }
+        }
+        Assert.assertTrue("Rejected " + rejected, rejected < 1024 / 20);
+    }
+}
@@ -0,0 +1,64 @@
+package org.apache.kerberos.kerb.server.metrics;
+
+import org.apache.kerberos.kerb.KrbErrorCode;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+public class MetricsTest {
+
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000000, histogram.getMax());
+        Assert.assertEquals(500500, histogram.getMean(), 0.1);
+
+        // Within the bucket precision of an eighth
+        long p50 = histogram.getPercentile(50);
+        Assert.assertTrue(p50 >= 500000 && p50 <= 500000 * 9 / 8);
+        long p99 = histogram.getPercentile(99);
+        Assert.assertTrue(p99 >= 990000 && p99 <= 1000000);
+    }
+
+    @Test
+    public void testBuckets() {
+        for (long value : new long[] {0, 1, 7, 8, 15, 16, 1000, 123456789L, Long.MAX_VALUE}) {
+            int bucket = Histogram.bucketOf(value);
+            Assert.assertTrue(Histogram.lowestOf(bucket) <= value);
+            Assert.assertEquals(bucket, Histogram.bucketOf(Histogram.lowestOf(bucket)));
+            if (value < Long.MAX_VALUE) {
+                Assert.assertTrue(Histogram.lowestOf(bucket + 1) > value);
+            }
+        }
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        String name = "org.apache.kerberos.kerb:type=KdcMetrics,name=MetricsTest";
+        JmxMetricsRegistry registry = new JmxMetricsRegistry(name);
+        KdcMetrics metrics = new KdcMetrics(registry);
+        metrics.requestStarted();
+        metrics.record(KdcMetrics.Phase.LOOKUP, System.nanoTime() - 1000);
+        metrics.countError(KrbErrorCode.KDC_ERR_PREAUTH_REQUIRED);
+        metrics.requestDone();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(name);
+        Assert.assertEquals(1L, server.getAttribute(objectName, "requests"));
+        Assert.assertEquals(0L, server.getAttribute(objectName, "requests.inflight"));
+        Assert.assertEquals(1L, server.getAttribute(objectName, "lookup.nanos.count"));
+        Assert.assertEquals(1L, server.getAttribute(objectName,
+                "errors.KDC_ERR_PREAUTH_REQUIRED"));
+
+        registry.close();
+        Assert.assertFalse(server.isRegistered(objectName));
+    }
+}
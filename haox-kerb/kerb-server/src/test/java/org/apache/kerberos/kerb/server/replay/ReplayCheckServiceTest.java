@@ -0,0 +1,119 @@
+package org.apache.kerberos.kerb.server.replay;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+public class ReplayCheckServiceTest {
+
+    private static final String CLIENT = "client@EXAMPLE.COM";
+    private static final String SERVER = "krbtgt/EXAMPLE.COM@EXAMPLE.COM";
+
+    @Test
+    public void testReplay() throws Exception {
+        ReplayCheckService replayCheck = new ReplayCheckServiceImpl();
+        long now = System.currentTimeMillis();
+
+        Assert.assertFalse(replayCheck.checkReplay(CLIENT, SERVER, now, 100));
+        Assert.assertTrue(replayCheck.checkReplay(CLIENT, SERVER, now, 100));
+
+        Assert.assertFalse(replayCheck.checkReplay(CLIENT, SERVER, now, 101));
+        Assert.assertFalse(replayCheck.checkReplay(CLIENT, SERVER, now + 1000, 100));
+        Assert.assertFalse(replayCheck.checkReplay("other@EXAMPLE.COM", SERVER, now, 100));
+    }
+
+    @Test
+    public void testAgingOut() throws Exception {
+        long clockSkew = 60 * 1000L;
+        CacheService cache = new TimeWindowCacheService(clockSkew, 1024);
+        long now = System.currentTimeMillis();
+        long fingerprint = RequestRecord.fingerprint(CLIENT, SERVER, now, 0);
+
+        Assert.assertFalse(cache.checkAndCache(fingerprint, now));
+        Assert.assertTrue(cache.checkAndCache(fingerprint, now));
+
+        // Requests far later recycle the bucket of the first one
+        for (int i = 1; i <= 10; i++) {
+            long later = now + i * clockSkew;
+            cache.checkAndCache(RequestRecord.fingerprint(CLIENT, SERVER, later, 0), later);
+        }
+        Assert.assertFalse(cache.checkAndCache(fingerprint, now));
+    }
+
+    @Test
+    public void testFull() throws Exception {
+        CacheService cache = new TimeWindowCacheService(60 * 1000L, 64);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 64; i++) {
+            Assert.assertFalse(cache.checkAndCache(
+                    RequestRecord.fingerprint(CLIENT, SERVER, now, i), now));
+        }
+
+        // No room without forgetting a live one, so turned away
+        try {
+            cache.checkAndCache(RequestRecord.fingerprint(CLIENT, SERVER, now, 64), now);
+            Assert.fail("Full cache let a request in");
+        } catch (ReplayCacheFullException e) {
+            // Expected
+        }
+        for (int i = 0; i < 64; i++) {
+            Assert.assertTrue(cache.checkAndCache(
+                    RequestRecord.fingerprint(CLIENT, SERVER, now, i), now));
+        }
+    }
+
+    @Test
+    public void testMappedCacheSurvivesReopen() throws Exception {
+        File cacheFile = File.createTempFile("replay", ".cache");
+        cacheFile.deleteOnExit();
+        long clockSkew = 5 * 60 * 1000L;
+        long now = System.currentTimeMillis();
+        long fingerprint = RequestRecord.fingerprint(CLIENT, SERVER, now, 100);
+
+        MappedCacheService cache = new MappedCacheService(cacheFile, clockSkew, 4096);
+        Assert.assertFalse(cache.checkAndCache(fingerprint, now));
+        Assert.assertTrue(cache.checkAndCache(fingerprint, now));
+        cache.close();
+
+        cache = new MappedCacheService(cacheFile, clockSkew, 4096);
+        Assert.assertTrue(cache.checkAndCache(fingerprint, now));
+        cache.clear();
+        Assert.assertFalse(cache.checkAndCache(fingerprint, now));
+        cache.close();
+    }
+
+    @Test
+    public void testMappedCacheFull() throws Exception {
+        File cacheFile = File.createTempFile("replay", ".cache");
+        cacheFile.deleteOnExit();
+        long clockSkew = 60 * 1000L;
+        long now = System.currentTimeMillis();
+        MappedCacheService cache = new MappedCacheService(cacheFile, clockSkew, 1024);
+
+        // Slots of requests out of the window are free
+        for (int i = 0; i < 64; i++) {
+            Assert.assertFalse(cache.checkAndCache(sameHome(i), now - 2 * clockSkew));
+        }
+        for (int i = 64; i < 128; i++) {
+            Assert.assertFalse(cache.checkAndCache(sameHome(i), now));
+        }
+
+        // Those of live ones aren't, so once all probed are live it's full
+        try {
+            cache.checkAndCache(sameHome(128), now);
+            Assert.fail("Full cache let a request in");
+        } catch (ReplayCacheFullException e) {
+            // Expected
+        }
+        for (int i = 64; i < 128; i++) {
+            Assert.assertTrue(cache.checkAndCache(sameHome(i), now));
+        }
+        cache.close();
+    }
+
+    // Fingerprints probing the same slots
+    private static long sameHome(int i) {
+        return ((long) i << 32) | 1;
+    }
+}
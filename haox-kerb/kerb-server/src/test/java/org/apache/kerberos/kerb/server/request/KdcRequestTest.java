@@ -0,0 +1,171 @@
+package org.apache.kerberos.kerb.server.request;
+
+import org.apache.kerberos.kerb.KrbErrorCode;
+import org.apache.kerberos.kerb.common.KrbErrorUtil;
+import org.apache.kerberos.kerb.common.KrbUtil;
+import org.apache.kerberos.kerb.identity.KrbIdentity;
+import org.apache.kerberos.kerb.identity.backend.InMemoryIdentityBackend;
+import org.apache.kerberos.kerb.server.KdcConfig;
+import org.apache.kerberos.kerb.server.KdcContext;
+import org.apache.kerberos.kerb.server.preauth.PreauthHandler;
+import org.apache.kerberos.kerb.spec.common.EncryptionKey;
+import org.apache.kerberos.kerb.spec.common.EncryptionType;
+import org.apache.kerberos.kerb.spec.common.KrbError;
+import org.apache.kerberos.kerb.spec.common.PrincipalName;
+import org.apache.kerberos.kerb.spec.kdc.AsReq;
+import org.apache.kerberos.kerb.spec.kdc.KdcOption;
+import org.apache.kerberos.kerb.spec.kdc.KdcOptions;
+import org.apache.kerberos.kerb.spec.kdc.KdcReqBody;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class KdcRequestTest {
+
+    private KdcContext kdcContext;
+
+    @Before
+    public void setUp() {
+        KdcConfig config = new KdcConfig();
+        InMemoryIdentityBackend identityService = new InMemoryIdentityBackend();
+        addIdentity(identityService, "krbtgt@EXAMPLE.COM");
+        addIdentity(identityService, "alice@EXAMPLE.COM");
+
+        PreauthHandler preauthHandler = new PreauthHandler();
+        preauthHandler.init(config);
+
+        kdcContext = new KdcContext();
+        kdcContext.init(config);
+        kdcContext.setKdcRealm("EXAMPLE.COM");
+        kdcContext.setPreauthHandler(preauthHandler);
+        kdcContext.setIdentityService(identityService);
+    }
+
+    @Test
+    public void testPreauthRequired() throws Exception {
+        AsRequest request = new AsRequest(makeAsReq("alice"), kdcContext);
+        request.process();
+
+        KrbError error = request.getError();
+        Assert.assertNotNull(error);
+        Assert.assertEquals(KrbErrorCode.KDC_ERR_PREAUTH_REQUIRED, error.getErrorCode());
+
+        // The reply is the error, and decodes as one
+        KrbError decoded = (KrbError) KrbUtil.decodeMessage(
+                KrbUtil.encodeMessage(request.getReply()));
+        Assert.assertEquals(KrbErrorCode.KDC_ERR_PREAUTH_REQUIRED, decoded.getErrorCode());
+        Assert.assertEquals("EXAMPLE.COM", decoded.getRealm());
+        Assert.assertArrayEquals(error.getEdata(), decoded.getEdata());
+
+        // The e-data is encoded once for the realm
+        AsRequest another = new AsRequest(makeAsReq("alice"), kdcContext);
+        another.process();
+        Assert.assertSame(error.getEdata(), another.getError().getEdata());
+    }
+
+    @Test
+    public void testPreauthEdataByEncryptionTypes() throws Exception {
+        KrbIdentity carol = new KrbIdentity("carol@EXAMPLE.COM");
+        carol.addKey(new EncryptionKey(EncryptionType.AES128_CTS_HMAC_SHA1_96, new byte[16], 1));
+        carol.addKey(new EncryptionKey(EncryptionType.DES3_CBC_SHA1_KD, new byte[24], 1));
+        kdcContext.getIdentityService().addIdentity(carol);
+
+        AsRequest aliceRequest = new AsRequest(makeAsReq("alice",
+                EncryptionType.AES128_CTS_HMAC_SHA1_96, EncryptionType.DES3_CBC_SHA1_KD), kdcContext);
+        aliceRequest.process();
+        AsRequest carolRequest = new AsRequest(makeAsReq("carol",
+                EncryptionType.AES128_CTS_HMAC_SHA1_96, EncryptionType.DES3_CBC_SHA1_KD), kdcContext);
+        carolRequest.process();
+
+        // Only the enctypes of the keys are listed
+        Assert.assertEquals(Arrays.asList(EncryptionType.AES128_CTS_HMAC_SHA1_96),
+                KrbErrorUtil.getEtypes(aliceRequest.getError()));
+        // Decoded as the first name of the value
+        Assert.assertEquals(Arrays.asList(EncryptionType.AES128_CTS_HMAC_SHA1_96,
+                EncryptionType.DES3_CBC_SHA1), KrbErrorUtil.getEtypes(carolRequest.getError()));
+
+        // A key change gives new e-data
+        byte[] edata = carolRequest.getError().getEdata();
+        carol.setKeys(Arrays.asList(
+                new EncryptionKey(EncryptionType.AES128_CTS_HMAC_SHA1_96, new byte[16], 2)));
+        AsRequest changedRequest = new AsRequest(makeAsReq("carol",
+                EncryptionType.AES128_CTS_HMAC_SHA1_96, EncryptionType.DES3_CBC_SHA1_KD), kdcContext);
+        changedRequest.process();
+        Assert.assertNotSame(edata, changedRequest.getError().getEdata());
+        Assert.assertSame(aliceRequest.getError().getEdata(), changedRequest.getError().getEdata());
+    }
+
+    @Test
+    public void testUnknownPrincipal() throws Exception {
+        AsRequest request = new AsRequest(makeAsReq("bob"), kdcContext);
+        request.process();
+
+        Assert.assertEquals(KrbErrorCode.KDC_ERR_C_PRINCIPAL_UNKNOWN,
+                request.getError().getErrorCode());
+        Assert.assertNull(request.getTicket());
+    }
+
+    @Test
+    public void testPolicy() throws Exception {
+        Map<String, String> conf = new HashMap<String, String>();
+        conf.put("kdc.preauth_required", "false");
+        conf.put("kdc.forwardable_allowed", "false");
+        kdcContext.getConfig().getConf().addMapConfig(conf);
+
+        AsReq asReq = makeAsReq("alice");
+        asReq.getReqBody().getKdcOptions().setFlag(KdcOption.FORWARDABLE);
+        AsRequest request = new AsRequest(asReq, kdcContext);
+        request.process();
+
+        Assert.assertEquals(KrbErrorCode.KDC_ERR_POLICY, request.getError().getErrorCode());
+        Assert.assertNull(request.getTicket());
+    }
+
+    @Test
+    public void testFailingBackend() throws Exception {
+        kdcContext.setIdentityService(new InMemoryIdentityBackend() {
+            @Override
+            public KrbIdentity getIdentity(String name) {
+                throw new RuntimeException("Backend down");
+            }
+        });
+        AsRequest request = new AsRequest(makeAsReq("alice"), kdcContext);
+
+        // Not taken for an unknown principal
+        try {
+            request.process();
+            Assert.fail("Backend failure not thrown");
+        } catch (RuntimeException e) {
+            Assert.assertEquals("Backend down", e.getMessage());
+        }
+        Assert.assertNull(request.getError());
+    }
+
+    private static AsReq makeAsReq(String client) {
+        return makeAsReq(client, EncryptionType.AES128_CTS_HMAC_SHA1_96);
+    }
+
+    private static AsReq makeAsReq(String client, EncryptionType... encryptionTypes) {
+        KdcReqBody body = new KdcReqBody();
+        body.setCname(new PrincipalName(client));
+        body.setSname(new PrincipalName("krbtgt"));
+        body.setRealm("EXAMPLE.COM");
+        body.setEtypes(Arrays.asList(encryptionTypes));
+        body.setKdcOptions(new KdcOptions());
+        body.setNonce(1);
+
+        AsReq asReq = new AsReq();
+        asReq.setReqBody(body);
+        return asReq;
+    }
+
+    private static void addIdentity(InMemoryIdentityBackend identityService, String name) {
+        KrbIdentity identity = new KrbIdentity(name);
+        identity.addKey(new EncryptionKey(EncryptionType.AES128_CTS_HMAC_SHA1_96, new byte[16], 1));
+        identityService.addIdentity(identity);
+    }
+}
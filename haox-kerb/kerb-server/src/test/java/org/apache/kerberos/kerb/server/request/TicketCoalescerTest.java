@@ -0,0 +1,119 @@
+package org.apache.kerberos.kerb.server.request;
+
+import org.apache.kerberos.kerb.KrbErrorCode;
+import org.apache.kerberos.kerb.KrbException;
+import org.apache.kerberos.kerb.spec.ticket.Ticket;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TicketCoalescerTest {
+
+    private final TicketCoalescer coalescer = new TicketCoalescer();
+
+    @Test
+    public void testShared() throws Exception {
+        final Ticket ticket = new Ticket();
+        final CountDownLatch issuing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger issued = new AtomicInteger();
+
+        final AtomicReference<TicketCoalescer.Result> firstResult =
+                new AtomicReference<TicketCoalescer.Result>();
+        Thread first = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    firstResult.set(coalescer.issue("key", new TicketCoalescer.Issuer() {
+                        @Override
+                        public Ticket issue() throws KrbException {
+                            issued.incrementAndGet();
+                            issuing.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                throw new KrbException("Interrupted");
+                            }
+                            return ticket;
+                        }
+                    }));
+                } catch (KrbException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        first.start();
+        issuing.await();
+
+        final AtomicReference<TicketCoalescer.Result> secondResult =
+                new AtomicReference<TicketCoalescer.Result>();
+        Thread second = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    secondResult.set(coalescer.issue("key", new TicketCoalescer.Issuer() {
+                        @Override
+                        public Ticket issue() {
+                            issued.incrementAndGet();
+                            return new Ticket();
+                        }
+                    }));
+                } catch (KrbException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        second.start();
+        while (second.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+
+        release.countDown();
+        first.join();
+        second.join();
+
+        Assert.assertEquals(1, issued.get());
+        Assert.assertSame(ticket, firstResult.get().getTicket());
+        Assert.assertFalse(firstResult.get().isShared());
+        Assert.assertSame(ticket, secondResult.get().getTicket());
+        Assert.assertTrue(secondResult.get().isShared());
+
+        // Nothing is kept after
+        TicketCoalescer.Result result = coalescer.issue("key", new TicketCoalescer.Issuer() {
+            @Override
+            public Ticket issue() {
+                return new Ticket();
+            }
+        });
+        Assert.assertNotSame(ticket, result.getTicket());
+        Assert.assertFalse(result.isShared());
+    }
+
+    @Test
+    public void testFailed() throws Exception {
+        try {
+            coalescer.issue("key", new TicketCoalescer.Issuer() {
+                @Override
+                public Ticket issue() throws KrbException {
+                    throw new KrbException(KrbErrorCode.KDC_ERR_POLICY);
+                }
+            });
+            Assert.fail("Failure not thrown");
+        } catch (KrbException e) {
+            Assert.assertEquals(KrbErrorCode.KDC_ERR_POLICY, e.getErrorCode());
+        }
+
+        Ticket ticket = new Ticket();
+        final Ticket issued = ticket;
+        TicketCoalescer.Result result = coalescer.issue("key", new TicketCoalescer.Issuer() {
+            @Override
+            public Ticket issue() {
+                return issued;
+            }
+        });
+        Assert.assertSame(ticket, result.getTicket());
+    }
+}